@@ -10,6 +10,10 @@ plugins {
 
 val commonDeps by configurations.creating {
 }
+// Utilities shared by main and the workers
+val workerCommon by sourceSets.creating {
+    configurations.named(this.implementationConfigurationName) { extendsFrom(commonDeps) }
+}
 val jarMerge by sourceSets.creating {
     configurations.named(this.implementationConfigurationName) { extendsFrom(commonDeps) }
 }
@@ -22,17 +26,22 @@ val accessWiden by sourceSets.creating {
 val shadow by sourceSets.creating {
     configurations.named(this.implementationConfigurationName) { extendsFrom(commonDeps) }
 }
+// Run by benchmarkDecompilers only, and not included in the plugin jar
+val decompilerBenchmark by sourceSets.creating {
+    configurations.named(this.implementationConfigurationName) { extendsFrom(commonDeps) }
+}
 
 configurations {
     api { extendsFrom(commonDeps) }
 }
+// Decompiler engines to compare with benchmarkDecompilers, ForgeFlower is always included
+val decompilerEngines by configurations.creating
 
 val accessWidenerVersion: String by project
 val asmVersion: String by project
 val forgeFlowerVersion: String by project
 val forgeAutoRenamingToolVersion: String by project
 val junitVersion: String by project
-val mergeToolVersion: String by project
 dependencies {
     // All source sets
     commonDeps(gradleApi())
@@ -58,15 +67,20 @@ dependencies {
     // IDE support
     implementation("gradle.plugin.org.jetbrains.gradle.plugin.idea-ext:gradle-idea-ext:1.0.1")
 
-    // Jar merge worker (match with Constants)
-    "jarMergeCompileOnly"("net.minecraftforge:mergetool:$mergeToolVersion") {
-        exclude("org.ow2.asm")
-    }
+    // Shared by main and every worker
+    implementation(workerCommon.output)
+    "jarMergeImplementation"(workerCommon.output)
+    "jarDecompileImplementation"(workerCommon.output)
+    "decompilerBenchmarkImplementation"(workerCommon.output)
+
+    // Jar merge engine, runs in-process
     implementation(jarMerge.output)
 
     // Jar decompile worker (match with Constants)
     "jarDecompileCompileOnly"("net.minecraftforge:forgeflower:$forgeFlowerVersion")
     implementation(jarDecompile.output)
+    decompilerEngines("net.minecraftforge:forgeflower:$forgeFlowerVersion")
+    "decompilerBenchmarkImplementation"(jarDecompile.output)
 
     // Access widener worker (match with Constants)
     "accessWidenCompileOnly"("net.fabricmc:access-widener:$accessWidenerVersion") {
@@ -92,7 +106,6 @@ tasks {
         val properties = mutableMapOf(
                 "asmVersion" to asmVersion,
                 "forgeFlowerVersion" to forgeFlowerVersion,
-                "mergeToolVersion" to mergeToolVersion,
                 "accessWidenerVersion" to accessWidenerVersion
         )
         inputs.properties(properties)
@@ -115,8 +128,35 @@ tasks {
         synchronizationTasks(generateTemplates)
     }
 
+    // Compare decompiler engines on the same jar, each in a fresh JVM:
+    // -PbenchmarkJar=<jar> [-PbenchmarkLibraries=<jar>,<jar>] [-PbenchmarkEngines=<id>,<id>] [-PbenchmarkThreads=<n>] [-PbenchmarkIterations=<n>]
+    val benchmarkDecompilers by registering(JavaExec::class) {
+        group = "verification"
+        description = "Report classes/sec, wall time and peak RSS for each decompiler engine"
+        classpath(decompilerBenchmark.output, decompilerBenchmark.runtimeClasspath, decompilerEngines)
+        mainClass.set("org.spongepowered.gradle.vanilla.internal.worker.DecompilerBenchmark")
+        maxHeapSize = "4G"
+        val properties = project.providers
+        argumentProviders.add(CommandLineArgumentProvider {
+            val args = mutableListOf<String>()
+            val jar = properties.gradleProperty("benchmarkJar").orNull
+                ?: throw InvalidUserDataException("Specify a jar to decompile with -PbenchmarkJar=<path>")
+            args += listOf("--input", file(jar).absolutePath)
+            properties.gradleProperty("benchmarkLibraries").orNull?.split(',')?.filter { it.isNotBlank() }?.forEach {
+                args += listOf("--library", file(it).absolutePath)
+            }
+            properties.gradleProperty("benchmarkEngines").orNull?.split(',')?.filter { it.isNotBlank() }?.forEach {
+                args += listOf("--engine", it)
+            }
+            properties.gradleProperty("benchmarkThreads").orNull?.let { args += listOf("--threads", it) }
+            properties.gradleProperty("benchmarkIterations").orNull?.let { args += listOf("--iterations", it) }
+            args
+        })
+    }
+
     val archiveOperations = project.serviceOf<ArchiveOperations>()
     jar {
+        from(workerCommon.output)
         from(jarMerge.output)
         from(jarDecompile.output)
         from(accessWiden.output)
@@ -32,17 +32,27 @@
 import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.Opcodes;
 
+import java.util.Set;
+
 final class AccessWidenerEntryTransformer implements Transformer {
+    private static final String CLASS_EXTENSION = ".class";
+
     private final AccessWidener widener;
+    private final Set<String> affectedClasses;
 
-    public AccessWidenerEntryTransformer(final AccessWidener widener) {
+    public AccessWidenerEntryTransformer(final AccessWidener widener, final Set<String> affectedClasses) {
         this.widener = widener;
+        this.affectedClasses = affectedClasses;
     }
 
     @Override
     public ClassEntry process(final ClassEntry entry) {
-        // Because InnerClass attributes can be present in any class AW'd classes
-        // are referenced from, we have to target every class to get a correct output.
+        // InnerClass attributes can be present in any class AW'd classes are referenced from,
+        // so the affected set includes those referrers. Everything else is passed through untouched.
+        if (!entry.isMultiRelease() && !this.affectedClasses.contains(AccessWidenerEntryTransformer.className(entry))) {
+            return entry;
+        }
+
         final ClassReader reader = new ClassReader(entry.getData());
         final ClassWriter writer = new ClassWriter(reader, 0);
         // TODO: Expose the ASM version constant somewhere visible to this worker
@@ -54,4 +64,11 @@ public ClassEntry process(final ClassEntry entry) {
             return ClassEntry.create(entry.getName(), entry.getTime(), writer.toByteArray());
         }
     }
+
+    private static String className(final ClassEntry entry) {
+        final String name = entry.getName();
+        return name.endsWith(AccessWidenerEntryTransformer.CLASS_EXTENSION)
+            ? name.substring(0, name.length() - AccessWidenerEntryTransformer.CLASS_EXTENSION.length())
+            : name;
+    }
 }
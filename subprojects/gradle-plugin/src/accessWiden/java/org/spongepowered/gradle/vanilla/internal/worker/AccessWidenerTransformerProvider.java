@@ -36,15 +36,18 @@
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
+import java.util.function.BiFunction;
 
-public final class AccessWidenerTransformerProvider implements Function<Set<Path>, Transformer> {
+public final class AccessWidenerTransformerProvider implements BiFunction<Set<Path>, Map<String, Set<String>>, Transformer> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AccessWidenerTransformerProvider.class);
 
     @Override
-    public Transformer apply(final Set<Path> paths) {
+    public Transformer apply(final Set<Path> paths, final Map<String, Set<String>> referenceIndex) {
         final AccessWidener widener = new AccessWidener();
         final AccessWidenerReader reader = new AccessWidenerReader(widener);
 
@@ -57,6 +60,14 @@ public Transformer apply(final Set<Path> paths) {
             }
         }
 
-        return new AccessWidenerEntryTransformer(widener);
+        // Widened classes, plus every class that carries an InnerClasses or nest attribute pointing at one of them
+        final Set<String> affected = new HashSet<>();
+        for (final String target : widener.getTargets()) {
+            final String internalName = target.replace('.', '/');
+            affected.add(internalName);
+            affected.addAll(referenceIndex.getOrDefault(internalName, Collections.emptySet()));
+        }
+
+        return new AccessWidenerEntryTransformer(widener, affected);
     }
 }
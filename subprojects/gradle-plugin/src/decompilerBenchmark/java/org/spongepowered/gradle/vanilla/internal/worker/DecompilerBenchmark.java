@@ -0,0 +1,255 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.worker;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.ServiceLoader;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Compare the throughput of {@link DecompilerEngine}s on the same jar.
+ *
+ * <p>Each engine runs in a fresh JVM, started with the same classpath and
+ * JVM arguments as this one, so that peak memory use is measured for that
+ * engine alone. For every engine this reports the number of classes
+ * decompiled per second, the wall time of each iteration, and the peak
+ * resident set size of the process.</p>
+ *
+ * <p>Usage: {@code DecompilerBenchmark --input <jar> [--library <jar>]...
+ * [--engine <id>]... [--threads <n>] [--iterations <n>]}. Without any
+ * {@code --engine}, every engine on the classpath is benchmarked.</p>
+ */
+public final class DecompilerBenchmark {
+
+    private static final String RESULT_PREFIX = "vanillagradle-benchmark\t";
+    private static final String RUN = "--run";
+
+    private final Path input;
+    private final List<File> libraries;
+    private final List<String> engines;
+    private final int threads;
+    private final int iterations;
+
+    private DecompilerBenchmark(final Path input, final List<File> libraries, final List<String> engines, final int threads, final int iterations) {
+        this.input = input;
+        this.libraries = libraries;
+        this.engines = engines;
+        this.threads = threads;
+        this.iterations = iterations;
+    }
+
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        Path input = null;
+        final List<File> libraries = new ArrayList<>();
+        final List<String> engines = new ArrayList<>();
+        int threads = 0;
+        int iterations = 1;
+        String run = null;
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + arg);
+            }
+            final String value = args[++i];
+            switch (arg) {
+                case "--input":
+                    input = Paths.get(value);
+                    break;
+                case "--library":
+                    libraries.add(new File(value));
+                    break;
+                case "--engine":
+                    engines.add(value);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(value);
+                    break;
+                case DecompilerBenchmark.RUN:
+                    run = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (input == null) {
+            throw new IllegalArgumentException("An input jar must be specified with --input");
+        }
+        if (engines.isEmpty()) {
+            for (final DecompilerEngine engine : ServiceLoader.load(DecompilerEngine.class, DecompilerEngine.class.getClassLoader())) {
+                engines.add(engine.id());
+            }
+        }
+
+        final DecompilerBenchmark benchmark = new DecompilerBenchmark(input, libraries, engines, threads, Math.max(1, iterations));
+        if (run != null) {
+            benchmark.run(DecompilerEngine.byId(run));
+        } else if (!benchmark.compare()) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Run every engine in its own process, and print a summary.
+     *
+     * @return whether every engine completed
+     */
+    private boolean compare() throws IOException, InterruptedException {
+        final String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        final List<String> results = new ArrayList<>();
+        boolean success = true;
+        for (final String engine : this.engines) {
+            final List<String> command = new ArrayList<>();
+            command.add(java);
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(DecompilerBenchmark.class.getName());
+            command.add("--input");
+            command.add(this.input.toString());
+            for (final File library : this.libraries) {
+                command.add("--library");
+                command.add(library.getPath());
+            }
+            command.add("--threads");
+            command.add(Integer.toString(this.threads));
+            command.add("--iterations");
+            command.add(Integer.toString(this.iterations));
+            command.add(DecompilerBenchmark.RUN);
+            command.add(engine);
+
+            System.out.println("Benchmarking " + engine + "...");
+            final Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            try (final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith(DecompilerBenchmark.RESULT_PREFIX)) {
+                        results.add(line.substring(DecompilerBenchmark.RESULT_PREFIX.length()));
+                    }
+                }
+            }
+            if (process.waitFor() != 0) {
+                System.out.println("Engine " + engine + " failed with exit code " + process.exitValue());
+                success = false;
+            }
+        }
+
+        System.out.println();
+        System.out.println(String.format(Locale.ROOT, "%-16s %9s %8s %10s %12s %13s", "engine", "iteration", "classes", "wall (ms)", "classes/sec", "peak RSS (MB)"));
+        for (final String result : results) {
+            final String[] fields = result.split("\t");
+            final int classes = Integer.parseInt(fields[2]);
+            final long wallMillis = Long.parseLong(fields[3]);
+            final long peakRssKb = Long.parseLong(fields[4]);
+            System.out.println(String.format(
+                Locale.ROOT,
+                "%-16s %9s %8d %10d %12.1f %13s",
+                fields[0],
+                fields[1],
+                classes,
+                wallMillis,
+                classes * 1000d / Math.max(wallMillis, 1),
+                peakRssKb < 0 ? "n/a" : Long.toString(peakRssKb / 1024)
+            ));
+        }
+        return success;
+    }
+
+    /**
+     * Run one engine in this process, and print machine-readable results.
+     *
+     * @param engine the engine to run
+     */
+    private void run(final DecompilerEngine engine) throws IOException {
+        for (int i = 1; i <= this.iterations; i++) {
+            final Path workDir = Files.createTempDirectory("decompiler-benchmark");
+            final AtomicInteger decompiled = new AtomicInteger();
+            final long wallMillis;
+            final long start = System.nanoTime();
+            try {
+                engine.decompile(
+                    new DecompilerEngine.Job(
+                        this.input,
+                        this.libraries,
+                        engine.options(Collections.emptyMap(), this.threads),
+                        workDir,
+                        Collections.emptySet(),
+                        false
+                    ),
+                    (qualifiedName, source, mapping) -> decompiled.incrementAndGet()
+                );
+                wallMillis = (System.nanoTime() - start) / 1_000_000L;
+            } finally {
+                try (final Stream<Path> files = Files.walk(workDir)) {
+                    for (final Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+            if (decompiled.get() == 0) {
+                throw new IllegalStateException("Engine " + engine.id() + " did not decompile any classes");
+            }
+            System.out.println(DecompilerBenchmark.RESULT_PREFIX + engine.id() + '\t' + i + '\t' + decompiled.get() + '\t' + wallMillis + '\t' + DecompilerBenchmark.peakRssKb());
+        }
+    }
+
+    /**
+     * Read the peak resident set size of this process.
+     *
+     * @return the peak RSS in kilobytes, or {@code -1} if it is not available
+     *     on this platform
+     */
+    private static long peakRssKb() {
+        final Path status = Paths.get("/proc/self/status");
+        if (!Files.isReadable(status)) {
+            return -1;
+        }
+        try (final Stream<String> lines = Files.lines(status, StandardCharsets.UTF_8)) {
+            return lines.filter(line -> line.startsWith("VmHWM:"))
+                .map(line -> Long.parseLong(line.substring("VmHWM:".length()).replace("kB", "").trim()))
+                .findFirst()
+                .orElse(-1L);
+        } catch (final IOException | NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+}
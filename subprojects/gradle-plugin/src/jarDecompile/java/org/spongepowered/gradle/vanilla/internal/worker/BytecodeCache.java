@@ -0,0 +1,125 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.worker;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least-recently-used cache of inflated archive entries.
+ *
+ * <p>Entries are kept in direct buffers, outside of the heap the decompiler
+ * works in, so the cache does not add to garbage collection pressure.</p>
+ */
+final class BytecodeCache {
+
+    private final long capacity;
+    private final LinkedHashMap<Key, ByteBuffer> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long size;
+
+    /**
+     * Create a new cache.
+     *
+     * @param capacity the maximum number of bytes to hold
+     */
+    BytecodeCache(final long capacity) {
+        this.capacity = capacity;
+    }
+
+    synchronized byte[] get(final MappedArchive archive, final int entry) {
+        final ByteBuffer cached = this.entries.get(new Key(archive, entry));
+        if (cached == null) {
+            return null;
+        }
+        final byte[] bytes = new byte[cached.capacity()];
+        cached.duplicate().get(bytes);
+        return bytes;
+    }
+
+    synchronized void put(final MappedArchive archive, final int entry, final byte[] bytes) {
+        if (bytes.length > this.capacity / 16) {
+            return; // not worth evicting many smaller entries for
+        }
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes).flip();
+        final ByteBuffer existing = this.entries.put(new Key(archive, entry), buffer);
+        if (existing != null) {
+            this.size -= existing.capacity();
+        }
+        this.size += bytes.length;
+
+        final Iterator<ByteBuffer> eldest = this.entries.values().iterator();
+        while (this.size > this.capacity && eldest.hasNext()) {
+            this.size -= eldest.next().capacity();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drop every entry of an archive that is being closed.
+     *
+     * @param archive the archive
+     */
+    synchronized void invalidate(final MappedArchive archive) {
+        final Iterator<Map.Entry<Key, ByteBuffer>> it = this.entries.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<Key, ByteBuffer> entry = it.next();
+            if (entry.getKey().archive == archive) {
+                this.size -= entry.getValue().capacity();
+                it.remove();
+            }
+        }
+    }
+
+    static final class Key {
+        final MappedArchive archive;
+        final int entry;
+
+        Key(final MappedArchive archive, final int entry) {
+            this.archive = archive;
+            this.entry = entry;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) other;
+            return this.archive == that.archive && this.entry == that.entry;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(this.archive) + this.entry;
+        }
+    }
+
+}
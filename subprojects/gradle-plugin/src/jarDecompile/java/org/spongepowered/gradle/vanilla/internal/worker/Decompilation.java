@@ -26,87 +26,173 @@
 
 import org.jetbrains.java.decompiler.main.extern.IBytecodeProvider;
 
-import java.io.File;
 import java.io.IOException;
-import java.net.URI;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystemNotFoundException;
-import java.nio.file.FileSystems;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 public final class Decompilation {
 
+    /**
+     * The most inflated bytecode to keep in memory, across every archive.
+     */
+    private static final long CACHE_CAPACITY = 256L * 1024 * 1024;
+    private static final BytecodeCache CACHE = new BytecodeCache(Decompilation.CACHE_CAPACITY);
+
+    /**
+     * Archives kept open for the lifetime of the worker process, so later
+     * decompilations in a warm worker do not have to map and index them
+     * again.
+     */
+    private static final ConcurrentMap<String, RetainedArchive> RETAINED = new ConcurrentHashMap<>();
+
     public static VanillaGradleBytecodeProvider bytecodeFromJar() {
-        return new VanillaGradleBytecodeProvider() {
-            private final ConcurrentMap<String, FileSystem> files = new ConcurrentHashMap<>();
+        return Decompilation.bytecodeFromJar(Collections.emptySet());
+    }
 
-            @Override
-            public void setBytecode(final String external, final String internal, final byte[] bytes) throws IOException {
-                final Path result = this.zipFile(external).getPath(internal);
-                Files.write(result, bytes, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
-            }
+    /**
+     * Create a bytecode provider that keeps some archives open after it is
+     * closed.
+     *
+     * <p>Every archive is memory-mapped and indexed once, and inflated
+     * classes are cached outside the heap, since the decompiler reads the
+     * same classes from its input and libraries many times.</p>
+     *
+     * <p>Retained archives are reused by later providers in the same process
+     * for as long as the file on disk is unchanged. A provider keeps reading
+     * the archive it first opened until it is closed, and an archive that
+     * has since changed is unmapped once no provider is using it.</p>
+     *
+     * @param retained the absolute paths of archives to keep open
+     * @return a new bytecode provider
+     */
+    public static VanillaGradleBytecodeProvider bytecodeFromJar(final Set<String> retained) {
+        return new VanillaGradleBytecodeProvider() {
+            private final ConcurrentMap<String, MappedArchive> archives = new ConcurrentHashMap<>();
+            private final ConcurrentMap<String, RetainedArchive> retainedArchives = new ConcurrentHashMap<>();
 
             @Override
-            public void close() throws IOException {
-                IOException error = null;
-                for (final FileSystem file : this.files.values()) {
-                    try {
-                        file.close();
-                    } catch (final IOException ex) {
-                        if (error != null) {
-                            error.addSuppressed(ex);
-                        } else {
-                            error = ex;
-                        }
-                    }
+            public void close() {
+                for (final MappedArchive archive : this.archives.values()) {
+                    archive.close();
                 }
-                this.files.clear();
-                if (error != null) {
-                    throw error;
+                this.archives.clear();
+                for (final RetainedArchive archive : this.retainedArchives.values()) {
+                    archive.release();
                 }
+                this.retainedArchives.clear();
             }
 
             @Override
             public byte[] getBytecode(final String external, final String internal) throws IOException {
-                final Path result = this.zipFile(external).getPath(internal);
-                return Files.readAllBytes(result);
+                if (internal == null) {
+                    // a plain class file
+                    return Files.readAllBytes(Paths.get(external));
+                }
+                final byte[] result = this.archive(external).read(internal);
+                if (result == null) {
+                    throw new NoSuchFileException(external + "!/" + internal);
+                }
+                return result;
             }
 
-            private FileSystem zipFile(final String external) throws IOException {
+            private MappedArchive archive(final String external) throws IOException {
                 try {
-                    return this.files.computeIfAbsent(external, path -> {
-                        final URI uri = URI.create("jar:" + new File(path).toURI());
-                        try {
-                            return FileSystems.getFileSystem(uri);
-                        } catch (final FileSystemNotFoundException ex) {
-                            try {
-                                return FileSystems.newFileSystem(uri, Collections.emptyMap(), (ClassLoader) null);
-                            } catch (final IOException ex2) {
-                                throw new RuntimeException(ex2);
-                            }
+                    if (retained.contains(external)) {
+                        final RetainedArchive existing = this.retainedArchives.get(external);
+                        if (existing != null) {
+                            return existing.archive;
                         }
-                    });
-                } catch (final RuntimeException ex) {
-                    if (ex.getCause() instanceof IOException) {
-                        throw (IOException) ex.getCause();
-                    } else {
-                        throw ex;
+                        final RetainedArchive acquired = Decompilation.acquireRetained(external);
+                        final RetainedArchive raced = this.retainedArchives.putIfAbsent(external, acquired);
+                        if (raced != null) {
+                            acquired.release();
+                            return raced.archive;
+                        }
+                        return acquired.archive;
                     }
+                    return this.archives.computeIfAbsent(external, Decompilation::openArchive);
+                } catch (final UncheckedIOException ex) {
+                    throw ex.getCause();
                 }
             }
         };
     }
 
-    public interface VanillaGradleBytecodeProvider extends IBytecodeProvider, AutoCloseable {
+    private static RetainedArchive acquireRetained(final String external) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(Paths.get(external), BasicFileAttributes.class);
+        return Decompilation.RETAINED.compute(external, (path, existing) -> {
+            final RetainedArchive result;
+            if (existing != null && existing.matches(attributes)) {
+                result = existing;
+            } else {
+                if (existing != null) {
+                    existing.supersede();
+                }
+                result = new RetainedArchive(Decompilation.openArchive(path), attributes);
+            }
+            // Acquired while the entry is locked, so it cannot be superseded and unmapped first
+            result.acquire();
+            return result;
+        });
+    }
 
-        void setBytecode(final String external, final String internal, final byte[] bytes) throws IOException;
+    private static MappedArchive openArchive(final String path) {
+        try {
+            return MappedArchive.open(Paths.get(path), Decompilation.CACHE);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public interface VanillaGradleBytecodeProvider extends IBytecodeProvider, AutoCloseable {
 
         @Override
-        void close() throws IOException;
+        void close();
+    }
+
+    /**
+     * An archive shared between providers, unmapped once it has been
+     * replaced in {@link #RETAINED} and the last provider using it is closed.
+     */
+    static final class RetainedArchive {
+        final MappedArchive archive;
+        private final long size;
+        private final long lastModified;
+        private int users;
+        private boolean superseded;
+
+        RetainedArchive(final MappedArchive archive, final BasicFileAttributes attributes) {
+            this.archive = archive;
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+        }
+
+        boolean matches(final BasicFileAttributes attributes) {
+            return this.size == attributes.size() && this.lastModified == attributes.lastModifiedTime().toMillis();
+        }
+
+        synchronized void acquire() {
+            this.users++;
+        }
+
+        synchronized void release() {
+            if (--this.users == 0 && this.superseded) {
+                this.archive.close();
+            }
+        }
+
+        synchronized void supersede() {
+            this.superseded = true;
+            if (this.users == 0) {
+                this.archive.close();
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,388 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.worker;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A cache of decompiled sources, stored per top-level class.
+ *
+ * <p>A top-level class is decompiled together with its inner classes, so
+ * those form one cache entry. Each entry is keyed by the bytes of every class
+ * in the group, the bytes of every other group it refers to, and a key
+ * describing the decompiler and its options. A change to a class therefore
+ * invalidates both that class and every class that uses it, since
+ * decompiled output can depend on the signatures of referenced types.</p>
+ *
+ * <p>Members can be inherited from any supertype, so the supertypes and
+ * outer classes of each of those groups are included transitively.</p>
+ *
+ * <p>Entries are never modified once written, so the cache can be shared
+ * between builds and projects.</p>
+ */
+final class DecompileCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DecompileCache.class);
+
+    private static final int MAGIC = 0x56474443; // VGDC
+    private static final int FORMAT_VERSION = 1;
+    private static final String ENTRY_SUFFIX = ".bin";
+    private static final char INNER_SEPARATOR = '$';
+
+    private final Path root;
+
+    DecompileCache(final Path root) {
+        this.root = root;
+    }
+
+    /**
+     * Group classes by the top-level class they are decompiled with.
+     *
+     * @param classes the names of every class in a jar
+     * @return a map from top-level class name to the names of every class in
+     *     its group, sorted
+     */
+    static Map<String, List<String>> groups(final Set<String> classes) {
+        final Map<String, List<String>> groups = new TreeMap<>();
+        for (final String name : new TreeSet<>(classes)) {
+            groups.computeIfAbsent(DecompileCache.groupOf(name, classes), $ -> new ArrayList<>()).add(name);
+        }
+        return groups;
+    }
+
+    /**
+     * Find the top-level class a class is decompiled with.
+     *
+     * <p>Class names may legitimately contain {@code $}, so a class is only
+     * treated as nested when its would-be outer class exists.</p>
+     *
+     * @param name the class name
+     * @param classes every class name in the jar
+     * @return the top-level class name
+     */
+    static String groupOf(final String name, final Set<String> classes) {
+        final int packageEnd = name.lastIndexOf('/') + 1;
+        int separator = name.indexOf(DecompileCache.INNER_SEPARATOR, packageEnd);
+        while (separator > packageEnd) {
+            final String outer = name.substring(0, separator);
+            if (classes.contains(outer)) {
+                return outer;
+            }
+            separator = name.indexOf(DecompileCache.INNER_SEPARATOR, separator + 1);
+        }
+        return name;
+    }
+
+    /**
+     * Compute the cache key of every class group in a jar.
+     *
+     * @param classes a map from class name to class bytes
+     * @param globalKey a key identifying the decompiler, its options, and
+     *     the libraries available to it
+     * @return a map from top-level class name to cache key
+     */
+    static Map<String, String> keys(final Map<String, byte[]> classes, final String globalKey) {
+        final Map<String, List<String>> groups = DecompileCache.groups(classes.keySet());
+        final Map<String, byte[]> ownHashes = new HashMap<>(groups.size() * 2);
+        final Map<String, Set<String>> references = new HashMap<>(groups.size() * 2);
+        final Map<String, Set<String>> parents = new HashMap<>(groups.size() * 2);
+        for (final Map.Entry<String, List<String>> group : groups.entrySet()) {
+            final MessageDigest digest = DecompileCache.sha1();
+            final Set<String> referenced = new HashSet<>();
+            final Set<String> parentGroups = new HashSet<>();
+            for (final String member : group.getValue()) {
+                final byte[] bytes = classes.get(member);
+                digest.update(member.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(bytes);
+                for (final String reference : DecompileCache.references(bytes)) {
+                    if (classes.containsKey(reference)) {
+                        referenced.add(DecompileCache.groupOf(reference, classes.keySet()));
+                    }
+                }
+                for (final String parent : DecompileCache.parents(bytes)) {
+                    if (classes.containsKey(parent)) {
+                        parentGroups.add(DecompileCache.groupOf(parent, classes.keySet()));
+                    }
+                }
+            }
+            parentGroups.remove(group.getKey());
+            ownHashes.put(group.getKey(), digest.digest());
+            references.put(group.getKey(), referenced);
+            parents.put(group.getKey(), parentGroups);
+        }
+
+        final byte[] global = globalKey.getBytes(StandardCharsets.UTF_8);
+        final Map<String, String> keys = new HashMap<>(groups.size() * 2);
+        for (final String group : groups.keySet()) {
+            final Set<String> dependencies = DecompileCache.closure(references.get(group), parents);
+            dependencies.remove(group);
+            final MessageDigest digest = DecompileCache.sha1();
+            digest.update(global);
+            digest.update(ownHashes.get(group));
+            for (final String dependency : dependencies) {
+                digest.update(ownHashes.get(dependency));
+            }
+            keys.put(group, DecompileCache.toHex(digest.digest()));
+        }
+        return keys;
+    }
+
+    /**
+     * Expand a set of groups with the supertypes and outer classes of each,
+     * recursively.
+     *
+     * @param start the groups to start from
+     * @param parents a map from group to the groups it directly extends or is nested in
+     * @return every group reachable from {@code start}, sorted
+     */
+    private static Set<String> closure(final Set<String> start, final Map<String, Set<String>> parents) {
+        final Set<String> closure = new TreeSet<>(start);
+        final List<String> queue = new ArrayList<>(start);
+        while (!queue.isEmpty()) {
+            for (final String parent : parents.get(queue.remove(queue.size() - 1))) {
+                if (closure.add(parent)) {
+                    queue.add(parent);
+                }
+            }
+        }
+        return closure;
+    }
+
+    /**
+     * Collect the supertypes and enclosing classes of a class file.
+     *
+     * @param bytes the class file
+     * @return the names of the superclass, interfaces, and outer classes
+     */
+    static Set<String> parents(final byte[] bytes) {
+        final Set<String> parents = new HashSet<>();
+        new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+            private String name;
+
+            @Override
+            public void visit(
+                final int version, final int access, final String name, final String signature, final String superName, final String[] interfaces
+            ) {
+                this.name = name;
+                if (superName != null) {
+                    parents.add(superName);
+                }
+                if (interfaces != null) {
+                    Collections.addAll(parents, interfaces);
+                }
+            }
+
+            @Override
+            public void visitOuterClass(final String owner, final String name, final String descriptor) {
+                parents.add(owner);
+            }
+
+            @Override
+            public void visitInnerClass(final String name, final String outerName, final String innerName, final int access) {
+                if (outerName != null && name.equals(this.name)) {
+                    parents.add(outerName);
+                }
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return parents;
+    }
+
+    /**
+     * Collect the name of every class referenced from a class file.
+     *
+     * @param bytes the class file
+     * @return the referenced class names
+     */
+    static Set<String> references(final byte[] bytes) {
+        final Set<String> references = new HashSet<>();
+        final ClassReader reader = new ClassReader(bytes);
+        reader.accept(new ClassRemapper(new ClassVisitor(Opcodes.ASM9) {}, new Remapper() {
+            @Override
+            public String map(final String internalName) {
+                references.add(internalName);
+                return internalName;
+            }
+        }), ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return references;
+    }
+
+    /**
+     * Read a cached group.
+     *
+     * @param key the cache key of the group
+     * @return the decompiled classes of the group, or {@code null} if none are cached
+     */
+    List<DecompiledClass> read(final String key) {
+        final Path entry = this.entry(key);
+        try (final DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            if (is.readInt() != DecompileCache.MAGIC || is.readInt() != DecompileCache.FORMAT_VERSION) {
+                return null;
+            }
+            final int count = is.readInt();
+            final List<DecompiledClass> classes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final String qualifiedName = is.readUTF();
+                final int mappingLength = is.readInt();
+                int[] mapping = null;
+                if (mappingLength >= 0) {
+                    mapping = new int[mappingLength];
+                    for (int j = 0; j < mappingLength; j++) {
+                        mapping[j] = is.readInt();
+                    }
+                }
+                final byte[] source = new byte[is.readInt()];
+                is.readFully(source);
+                classes.add(new DecompiledClass(qualifiedName, source, mapping));
+            }
+            return classes;
+        } catch (final NoSuchFileException ex) {
+            return null;
+        } catch (final IOException ex) {
+            DecompileCache.LOGGER.info("Unable to read cached sources from {}, decompiling again", entry, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Check whether a group is cached, without reading it.
+     *
+     * @param key the cache key of the group
+     * @return whether an entry exists
+     */
+    boolean contains(final String key) {
+        return Files.isRegularFile(this.entry(key));
+    }
+
+    /**
+     * Store the decompiled classes of a group.
+     *
+     * <p>Failures are logged rather than thrown, since the sources are still
+     * usable without being cached.</p>
+     *
+     * @param key the cache key of the group
+     * @param classes the decompiled classes
+     */
+    void write(final String key, final List<DecompiledClass> classes) {
+        final Path entry = this.entry(key);
+        Path temp = null;
+        try {
+            Files.createDirectories(entry.getParent());
+            temp = Files.createTempFile(entry.getParent(), key, ".tmp");
+            try (final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                os.writeInt(DecompileCache.MAGIC);
+                os.writeInt(DecompileCache.FORMAT_VERSION);
+                os.writeInt(classes.size());
+                for (final DecompiledClass clazz : classes) {
+                    os.writeUTF(clazz.qualifiedName);
+                    if (clazz.mapping == null) {
+                        os.writeInt(-1);
+                    } else {
+                        os.writeInt(clazz.mapping.length);
+                        for (final int line : clazz.mapping) {
+                            os.writeInt(line);
+                        }
+                    }
+                    os.writeInt(clazz.source.length);
+                    os.write(clazz.source);
+                }
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException ex) {
+            DecompileCache.LOGGER.warn("Failed to cache decompiled sources in {}", entry, ex);
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (final IOException ignored) {
+                    // nothing else we can do
+                }
+            }
+        }
+    }
+
+    private Path entry(final String key) {
+        return this.root.resolve(key.substring(0, 2)).resolve(key + DecompileCache.ENTRY_SUFFIX);
+    }
+
+    static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (final NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-1 is required to be supported by every JVM", ex);
+        }
+    }
+
+    static String toHex(final byte[] bytes) {
+        final StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * The decompiled form of a single top-level class.
+     */
+    static final class DecompiledClass {
+        final String qualifiedName;
+        final byte[] source;
+        final int[] mapping;
+
+        DecompiledClass(final String qualifiedName, final byte[] source, final int[] mapping) {
+            this.qualifiedName = qualifiedName;
+            this.source = source;
+            this.mapping = mapping;
+        }
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.worker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+/**
+ * A decompiler that can be driven by the jar decompile worker.
+ *
+ * <p>Engines are discovered with a {@link ServiceLoader} from the worker
+ * classpath, so an engine is made available by adding its jar, with a
+ * {@code META-INF/services} entry for this interface, to that classpath.
+ * ForgeFlower is the default engine.</p>
+ *
+ * <p>Engines only decompile. Caching, sharding, and writing the output jars
+ * are handled by the worker, and work the same for every engine.</p>
+ */
+public interface DecompilerEngine {
+
+    /**
+     * The ID of the default engine.
+     */
+    String DEFAULT = ForgeFlowerEngine.ID;
+
+    /**
+     * Find an engine on the classpath.
+     *
+     * @param id the engine ID
+     * @return a new instance of the engine
+     * @throws IllegalArgumentException if no engine has that ID
+     */
+    static DecompilerEngine byId(final String id) {
+        final List<String> available = new ArrayList<>();
+        for (final DecompilerEngine engine : ServiceLoader.load(DecompilerEngine.class, DecompilerEngine.class.getClassLoader())) {
+            if (engine.id().equals(id)) {
+                return engine;
+            }
+            available.add(engine.id());
+        }
+        throw new IllegalArgumentException("Unknown decompiler engine '" + id + "', available engines are " + available);
+    }
+
+    /**
+     * A short, unique ID for this engine.
+     *
+     * <p>This is part of the key of every cached class, so it should change
+     * if the engine's output changes in a way its version does not capture.</p>
+     *
+     * @return the engine ID
+     */
+    String id();
+
+    /**
+     * Compute the options to run this engine with.
+     *
+     * @param userOptions options specified by the user, which take precedence
+     *     over the engine's defaults
+     * @param threads the number of threads to decompile with, or {@code 0}
+     *     for the engine's default
+     * @return the effective options
+     */
+    Map<String, Object> options(Map<String, String> userOptions, int threads);
+
+    /**
+     * Get whether an option can change the decompiled sources.
+     *
+     * <p>Options that do not, such as thread counts, are left out of cache
+     * keys.</p>
+     *
+     * @param option the option name
+     * @return whether the option affects output
+     */
+    boolean affectsOutput(String option);
+
+    /**
+     * Decompile every class in a jar.
+     *
+     * @param job the classes to decompile and how
+     * @param output a consumer for the decompiled top-level classes
+     * @throws IOException if the engine fails to read input or write output
+     */
+    void decompile(Job job, Output output) throws IOException;
+
+    /**
+     * A consumer for decompiled classes.
+     *
+     * <p>Engines may call this from multiple threads at once.</p>
+     */
+    @FunctionalInterface
+    interface Output {
+
+        /**
+         * Accept one decompiled top-level class.
+         *
+         * @param qualifiedName the internal name of the class
+         * @param source the UTF-8 encoded source of the class
+         * @param mapping pairs of original and decompiled line numbers, or
+         *     {@code null} if the engine does not produce a mapping
+         */
+        void accept(String qualifiedName, byte[] source, int[] mapping);
+    }
+
+    /**
+     * A single decompilation.
+     */
+    final class Job {
+        private final Path sources;
+        private final List<File> libraries;
+        private final Map<String, Object> options;
+        private final Path workDirectory;
+        private final Set<String> retainedLibraries;
+        private final boolean keepWarm;
+
+        public Job(
+            final Path sources,
+            final List<File> libraries,
+            final Map<String, Object> options,
+            final Path workDirectory,
+            final Set<String> retainedLibraries,
+            final boolean keepWarm
+        ) {
+            this.sources = sources;
+            this.libraries = libraries;
+            this.options = options;
+            this.workDirectory = workDirectory;
+            this.retainedLibraries = retainedLibraries;
+            this.keepWarm = keepWarm;
+        }
+
+        /**
+         * A jar containing the classes to decompile.
+         *
+         * @return the source jar
+         */
+        public Path sources() {
+            return this.sources;
+        }
+
+        /**
+         * Jars the decompiled classes may refer to, in classpath order.
+         *
+         * @return the libraries
+         */
+        public List<File> libraries() {
+            return this.libraries;
+        }
+
+        /**
+         * The result of {@link DecompilerEngine#options(Map, int)}.
+         *
+         * @return the engine options
+         */
+        public Map<String, Object> options() {
+            return this.options;
+        }
+
+        /**
+         * A scratch directory, deleted once decompilation is complete.
+         *
+         * @return the work directory
+         */
+        public Path workDirectory() {
+            return this.workDirectory;
+        }
+
+        /**
+         * The absolute paths of libraries that are unchanged between
+         * decompilations, and may be kept open when {@link #keepWarm()} is set.
+         *
+         * @return the libraries to retain
+         */
+        public Set<String> retainedLibraries() {
+            return this.retainedLibraries;
+        }
+
+        /**
+         * Whether the process is expected to run further decompilations, so
+         * engines should keep reusable state rather than release it.
+         *
+         * @return whether to keep state
+         */
+        public boolean keepWarm() {
+            return this.keepWarm;
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.worker;
+
+import org.jetbrains.java.decompiler.main.Fernflower;
+import org.jetbrains.java.decompiler.main.extern.IFernflowerPreferences;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Decompile with MinecraftForge's fork of FernFlower, "ForgeFlower".
+ */
+public final class ForgeFlowerEngine implements DecompilerEngine {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ForgeFlowerEngine.class);
+
+    static final String ID = "forgeflower";
+
+    static final Map<String, Object> OPTIONS = new HashMap<>();
+    private static final String TRUE = "1";
+    private static final String FALSE = "0";
+
+    static {
+        ForgeFlowerEngine.OPTIONS.put(IFernflowerPreferences.ASCII_STRING_CHARACTERS, TRUE);
+        ForgeFlowerEngine.OPTIONS.put(IFernflowerPreferences.DECOMPILE_GENERIC_SIGNATURES, TRUE);
+        ForgeFlowerEngine.OPTIONS.put(IFernflowerPreferences.DECOMPILE_INNER, TRUE);
+        ForgeFlowerEngine.OPTIONS.put(IFernflowerPreferences.INCLUDE_ENTIRE_CLASSPATH, TRUE);
+        ForgeFlowerEngine.OPTIONS.put(IFernflowerPreferences.REMOVE_BRIDGE, TRUE);
+        ForgeFlowerEngine.OPTIONS.put(IFernflowerPreferences.REMOVE_SYNTHETIC, TRUE);
+        ForgeFlowerEngine.OPTIONS.put(IFernflowerPreferences.LITERALS_AS_IS, FALSE);
+        ForgeFlowerEngine.OPTIONS.put(IFernflowerPreferences.UNIT_TEST_MODE, FALSE);
+        ForgeFlowerEngine.OPTIONS.put(IFernflowerPreferences.MAX_PROCESSING_METHOD, FALSE);
+        ForgeFlowerEngine.OPTIONS.put(IFernflowerPreferences.IGNORE_INVALID_BYTECODE, TRUE);
+        ForgeFlowerEngine.OPTIONS.put(IFernflowerPreferences.BYTECODE_SOURCE_MAPPING, TRUE);
+        ForgeFlowerEngine.OPTIONS.put(IFernflowerPreferences.THREADS, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        ForgeFlowerEngine.OPTIONS.put(IFernflowerPreferences.INDENT_STRING, "    " /* Constants.INDENT */);
+    }
+
+    @Override
+    public String id() {
+        return ForgeFlowerEngine.ID;
+    }
+
+    @Override
+    public Map<String, Object> options(final Map<String, String> userOptions, final int threads) {
+        final Map<String, Object> options = new HashMap<>(userOptions);
+        if (threads > 0) {
+            options.putIfAbsent(IFernflowerPreferences.THREADS, threads);
+        }
+        for (final Map.Entry<String, Object> defaultArg : ForgeFlowerEngine.OPTIONS.entrySet()) {
+            options.putIfAbsent(defaultArg.getKey(), defaultArg.getValue()); // don't override user-specified options
+        }
+        return options;
+    }
+
+    @Override
+    public boolean affectsOutput(final String option) {
+        return !option.equals(IFernflowerPreferences.THREADS);
+    }
+
+    @Override
+    public void decompile(final Job job, final Output output) throws IOException {
+        final Path result = job.workDirectory().resolve("output.jar");
+        final LineMappingResultSaver saver = new LineMappingResultSaver(result.toFile());
+        try (final Decompilation.VanillaGradleBytecodeProvider bytecode = Decompilation.bytecodeFromJar(
+            job.keepWarm() ? job.retainedLibraries() : Collections.<String>emptySet()
+        )) {
+            final Fernflower decompiler = new Fernflower(bytecode, saver, job.options(), new SLF4JFernFlowerLogger(ForgeFlowerEngine.LOGGER));
+
+            // add classes
+            decompiler.addSource(job.sources().toFile());
+            // Fernflower builds its own view of each library on every run, only the bytecode reads behind it stay warm
+            for (final File library : job.libraries()) {
+                decompiler.addLibrary(library);
+            }
+
+            // perform the decompile
+            try {
+                decompiler.decompileContext();
+            } finally {
+                decompiler.clearContext();
+                if (!job.keepWarm()) {
+                    System.gc();
+                }
+            }
+        }
+
+        final Map<String, int[]> mappings = saver.mappings();
+        try (final ZipFile zip = new ZipFile(result.toFile())) {
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (!entry.getName().endsWith(JarDecompileWorker.JarContents.SOURCE_EXTENSION)) {
+                    continue;
+                }
+                final String qualifiedName = entry.getName().substring(0, entry.getName().length() - JarDecompileWorker.JarContents.SOURCE_EXTENSION.length());
+                output.accept(qualifiedName, JarDecompileWorker.JarContents.readAll(zip, entry), mappings.get(qualifiedName));
+            }
+        }
+    }
+
+}
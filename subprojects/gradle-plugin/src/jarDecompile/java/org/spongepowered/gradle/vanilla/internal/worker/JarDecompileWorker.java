@@ -25,89 +25,463 @@
 package org.spongepowered.gradle.vanilla.internal.worker;
 
 import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.SetProperty;
 import org.gradle.workers.WorkAction;
 import org.gradle.workers.WorkParameters;
-import org.jetbrains.java.decompiler.main.Fernflower;
-import org.jetbrains.java.decompiler.main.extern.IFernflowerPreferences;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
- * Decompile a Jar using MinecraftForge's fork of FernFlower "ForgeFlower"
+ * Decompile a Jar using a {@link DecompilerEngine}, by default
+ * MinecraftForge's fork of FernFlower "ForgeFlower".
+ *
+ * <p>Decompiled classes are cached per top-level class, so only classes that
+ * changed (and the classes that use them) are decompiled again.</p>
  */
 public abstract class JarDecompileWorker implements WorkAction<JarDecompileWorker.Parameters> {
     private static final Logger LOGGER = LoggerFactory.getLogger(JarDecompileWorker.class);
 
-    static final Map<String, Object> OPTIONS = new HashMap<>();
-    private static final String TRUE = "1";
-    private static final String FALSE = "0";
-
-    static {
-        JarDecompileWorker.OPTIONS.put(IFernflowerPreferences.ASCII_STRING_CHARACTERS, TRUE);
-        JarDecompileWorker.OPTIONS.put(IFernflowerPreferences.DECOMPILE_GENERIC_SIGNATURES, TRUE);
-        JarDecompileWorker.OPTIONS.put(IFernflowerPreferences.DECOMPILE_INNER, TRUE);
-        JarDecompileWorker.OPTIONS.put(IFernflowerPreferences.INCLUDE_ENTIRE_CLASSPATH, TRUE);
-        JarDecompileWorker.OPTIONS.put(IFernflowerPreferences.REMOVE_BRIDGE, TRUE);
-        JarDecompileWorker.OPTIONS.put(IFernflowerPreferences.REMOVE_SYNTHETIC, TRUE);
-        JarDecompileWorker.OPTIONS.put(IFernflowerPreferences.LITERALS_AS_IS, FALSE);
-        JarDecompileWorker.OPTIONS.put(IFernflowerPreferences.UNIT_TEST_MODE, FALSE);
-        JarDecompileWorker.OPTIONS.put(IFernflowerPreferences.MAX_PROCESSING_METHOD, FALSE);
-        JarDecompileWorker.OPTIONS.put(IFernflowerPreferences.IGNORE_INVALID_BYTECODE, TRUE);
-        JarDecompileWorker.OPTIONS.put(IFernflowerPreferences.BYTECODE_SOURCE_MAPPING, TRUE);
-        JarDecompileWorker.OPTIONS.put(IFernflowerPreferences.THREADS, Runtime.getRuntime().availableProcessors() - 1);
-        JarDecompileWorker.OPTIONS.put(IFernflowerPreferences.INDENT_STRING, "    " /* Constants.INDENT */);
-    }
-
     public static abstract class Parameters implements WorkParameters {
         public abstract ConfigurableFileCollection getDecompileClasspath();
         public abstract RegularFileProperty getInputJar();
         public abstract RegularFileProperty getOutputJar();
         public abstract MapProperty<String, String> getExtraArgs();
+
+        /**
+         * The ID of the {@link DecompilerEngine} to decompile with.
+         *
+         * @return the engine ID
+         */
+        public abstract Property<String> getEngine();
+
+        /**
+         * A directory to cache decompiled classes in, shared between runs.
+         *
+         * @return the cache directory
+         */
+        public abstract DirectoryProperty getClassCache();
+
+        /**
+         * A key identifying the decompiler and the libraries it decompiles
+         * against, used to invalidate cached classes.
+         *
+         * @return the cache key
+         */
+        public abstract Property<String> getCacheKey();
+
+        /**
+         * The number of decompiler threads, if not the default.
+         *
+         * @return the thread count
+         */
+        public abstract Property<Integer> getThreads();
+
+        /**
+         * The index of the shard of classes this worker decompiles, from
+         * {@code 0} to {@link #getShardCount()} exclusive.
+         *
+         * @return the shard index
+         */
+        public abstract Property<Integer> getShard();
+
+        /**
+         * The number of workers classes are split between.
+         *
+         * @return the shard count
+         */
+        public abstract Property<Integer> getShardCount();
+
+        /**
+         * Whether this worker should produce the output jar and line-mapped
+         * input, rather than only populating the class cache.
+         *
+         * <p>When decompiling in shards, every shard populates the cache and
+         * a final worker assembles the result.</p>
+         *
+         * @return whether to assemble outputs
+         */
+        public abstract Property<Boolean> getAssemble();
+
+        /**
+         * Whether this worker's process is expected to be reused.
+         *
+         * <p>A warm worker keeps its libraries mapped and indexed between
+         * decompilations, and leaves garbage collection to the JVM. The
+         * decompiler still scans every library for each job.</p>
+         *
+         * @return whether to keep state for later decompilations
+         */
+        public abstract Property<Boolean> getKeepWarm();
+
+        /**
+         * The internal names of specific classes to decompile.
+         *
+         * <p>When set, only these classes and their inner classes are
+         * decompiled, the output contains only their sources, and the input
+         * jar is not modified.</p>
+         *
+         * @return the classes to decompile, or nothing to decompile the whole jar
+         */
+        public abstract SetProperty<String> getClasses();
     }
 
     @Override
     public void execute() {
         final Parameters params = this.getParameters();
 
-        final Map<String, Object> ffArgs = new HashMap<>(params.getExtraArgs().get());
-        for (final Map.Entry<String, Object> defaultArg : JarDecompileWorker.OPTIONS.entrySet()) {
-            ffArgs.putIfAbsent(defaultArg.getKey(), defaultArg.getValue()); // don't override user-specified options
-        }
+        final DecompilerEngine engine = DecompilerEngine.byId(params.getEngine().getOrElse(DecompilerEngine.DEFAULT));
+        final Map<String, Object> options = engine.options(params.getExtraArgs().get(), params.getThreads().getOrElse(0));
 
-        // Decompile
         final File input = params.getInputJar().get().getAsFile();
-        try (final Decompilation.VanillaGradleBytecodeProvider bytecode = Decompilation.bytecodeFromJar()) {
-            final Fernflower decompiler = new Fernflower(
-                bytecode,
-                new LineMappingResultSaver(input.getAbsolutePath(), params.getOutputJar().get().getAsFile(), bytecode),
-                ffArgs,
-                new SLF4JFernFlowerLogger(JarDecompileWorker.LOGGER)
+        final File output = params.getOutputJar().get().getAsFile();
+        final int shardCount = params.getShardCount().getOrElse(1);
+        final int shard = params.getShard().getOrElse(0);
+        final boolean assemble = params.getAssemble().getOrElse(true);
+        try {
+            final JarContents contents = JarContents.read(input.toPath());
+            final Map<String, String> keys = DecompileCache.keys(contents.classes, JarDecompileWorker.cacheKey(params.getCacheKey().get(), engine, options));
+            final boolean partial = !params.getClasses().getOrElse(Collections.emptySet()).isEmpty();
+            if (partial) {
+                keys.keySet().retainAll(JarDecompileWorker.requestedGroups(contents, params.getClasses().get()));
+            }
+            final DecompileCache cache = new DecompileCache(params.getClassCache().get().getAsFile().toPath());
+
+            // Look up every class, and decompile whatever was not already cached
+            final Map<String, List<DecompileCache.DecompiledClass>> decompiled = new TreeMap<>();
+            final Set<String> missed = new HashSet<>();
+            for (final Map.Entry<String, String> group : keys.entrySet()) {
+                final List<DecompileCache.DecompiledClass> cached = assemble ? cache.read(group.getValue()) : null;
+                if (cached != null) {
+                    decompiled.put(group.getKey(), cached);
+                } else if (assemble || !cache.contains(group.getValue())) {
+                    missed.add(group.getKey());
+                }
+            }
+            // Shards may start once others have already cached some classes, so assign every group before filtering
+            final Set<String> toDecompile = JarDecompileWorker.shard(contents, keys.keySet(), shard, shardCount);
+            toDecompile.retainAll(missed);
+            JarDecompileWorker.LOGGER.info(
+                "{} of {} classes were already decompiled, decompiling {} in shard {} of {}",
+                keys.size() - missed.size(), keys.size(), toDecompile.size(), shard + 1, shardCount
             );
 
-            // add classes
-            decompiler.addSource(input);
+            if (!toDecompile.isEmpty()) {
+                final Path workDir = Files.createTempDirectory(output.toPath().getParent(), "decompile");
+                try {
+                    final Map<String, List<DecompileCache.DecompiledClass>> fresh = this.decompile(engine, contents, toDecompile, workDir, options);
+                    for (final Map.Entry<String, List<DecompileCache.DecompiledClass>> group : fresh.entrySet()) {
+                        cache.write(keys.get(group.getKey()), group.getValue());
+                    }
+                    decompiled.putAll(fresh);
+                } finally {
+                    JarDecompileWorker.deleteRecursively(workDir);
+                }
+            }
+            if (!assemble) {
+                // Only the final pass touches the input, since shards run concurrently
+                return;
+            }
+
+            if (partial) {
+                JarDecompileWorker.writeSources(decompiled, output.toPath());
+            } else {
+                JarDecompileWorker.assemble(input.toPath(), contents, decompiled, output.toPath());
+            }
+            JarDecompileWorker.LOGGER.warn("Successfully decompiled to {}", output);
+        } catch (final IOException ex) {
+            // Fail the work item, so no partial output is used or shared
+            throw new UncheckedIOException("Failed to decompile " + input, ex);
+        }
+    }
 
-            for (final File library : params.getDecompileClasspath()) {
-                decompiler.addLibrary(library);
+    private static Set<String> requestedGroups(final JarContents contents, final Set<String> classes) {
+        final Set<String> groups = new HashSet<>();
+        for (final String clazz : classes) {
+            if (contents.classes.containsKey(clazz)) {
+                groups.add(DecompileCache.groupOf(clazz, contents.classes.keySet()));
+            } else {
+                JarDecompileWorker.LOGGER.warn("Class {} was requested for decompilation, but is not present in the jar", clazz);
             }
+        }
+        return groups;
+    }
+
+    /**
+     * Select the class groups one shard is responsible for.
+     *
+     * <p>Groups are assigned to the shard with the least bytecode so far,
+     * largest first, so shards finish at roughly the same time. Every worker
+     * computes the same assignment as long as it is given the same groups,
+     * so this should be every group in the jar rather than those still to
+     * be decompiled.</p>
+     *
+     * @param contents the jar contents
+     * @param groups the groups to distribute
+     * @param shard the index of the shard
+     * @param shardCount the total number of shards
+     * @return a new set of the groups assigned to {@code shard}
+     */
+    static Set<String> shard(final JarContents contents, final Set<String> groups, final int shard, final int shardCount) {
+        if (shardCount <= 1) {
+            return new HashSet<>(groups);
+        }
+        final Map<String, Long> sizes = new HashMap<>();
+        for (final Map.Entry<String, byte[]> clazz : contents.classes.entrySet()) {
+            final String group = DecompileCache.groupOf(clazz.getKey(), contents.classes.keySet());
+            if (groups.contains(group)) {
+                sizes.merge(group, (long) clazz.getValue().length, Long::sum);
+            }
+        }
+        final List<String> ordered = new ArrayList<>(groups);
+        ordered.sort(Comparator.<String>comparingLong(sizes::get).reversed().thenComparing(Comparator.naturalOrder()));
+
+        final long[] load = new long[shardCount];
+        final Set<String> assigned = new HashSet<>();
+        for (final String group : ordered) {
+            int lightest = 0;
+            for (int i = 1; i < shardCount; i++) {
+                if (load[i] < load[lightest]) {
+                    lightest = i;
+                }
+            }
+            load[lightest] += sizes.get(group);
+            if (lightest == shard) {
+                assigned.add(group);
+            }
+        }
+        return assigned;
+    }
+
+    private Map<String, List<DecompileCache.DecompiledClass>> decompile(
+        final DecompilerEngine engine,
+        final JarContents contents,
+        final Set<String> groups,
+        final Path workDir,
+        final Map<String, Object> options
+    ) throws IOException {
+        // Classes to decompile are the source, every other class in the jar is only context
+        final Path sources = workDir.resolve("sources.jar");
+        final Path context = workDir.resolve("context.jar");
+        try (
+            final ParallelJarWriter sourcesWriter = new ParallelJarWriter(sources, ForkJoinPool.commonPool(), ParallelJarWriter.Compression.STORED);
+            final ParallelJarWriter contextWriter = new ParallelJarWriter(context, ForkJoinPool.commonPool(), ParallelJarWriter.Compression.STORED)
+        ) {
+            for (final Map.Entry<String, byte[]> clazz : contents.classes.entrySet()) {
+                final boolean source = groups.contains(DecompileCache.groupOf(clazz.getKey(), contents.classes.keySet()));
+                (source ? sourcesWriter : contextWriter).write(clazz.getKey() + JarContents.CLASS_EXTENSION, clazz.getValue());
+            }
+            sourcesWriter.finish();
+            contextWriter.finish();
+        }
+
+        final List<File> libraries = new ArrayList<>();
+        libraries.add(context.toFile());
+        // Libraries don't change between decompilations, so a warm worker keeps their archives open
+        final Set<String> retained = new HashSet<>();
+        for (final File library : this.getParameters().getDecompileClasspath()) {
+            libraries.add(library);
+            retained.add(library.getAbsolutePath());
+        }
+        final DecompilerEngine.Job job = new DecompilerEngine.Job(
+            sources, libraries, options, workDir, retained, this.getParameters().getKeepWarm().getOrElse(false)
+        );
+
+        // Every group we asked for gets an entry, so classes the decompiler skipped are not retried every time
+        final Map<String, List<DecompileCache.DecompiledClass>> fresh = new HashMap<>();
+        for (final String group : groups) {
+            fresh.put(group, new ArrayList<>());
+        }
+        engine.decompile(job, (qualifiedName, source, mapping) -> {
+            synchronized (fresh) {
+                final List<DecompileCache.DecompiledClass> group = fresh.get(DecompileCache.groupOf(qualifiedName, contents.classes.keySet()));
+                if (group != null) {
+                    group.add(new DecompileCache.DecompiledClass(qualifiedName, source, mapping));
+                }
+            }
+        });
+        return fresh;
+    }
+
+    static String cacheKey(final String baseKey, final DecompilerEngine engine, final Map<String, Object> options) {
+        final StringBuilder key = new StringBuilder(baseKey).append('\n').append(engine.id());
+        for (final Map.Entry<String, Object> option : new TreeMap<>(options).entrySet()) {
+            if (!engine.affectsOutput(option.getKey())) {
+                continue;
+            }
+            key.append('\n').append(option.getKey()).append('=').append(option.getValue());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Write the sources jar, and replace the input with a copy that has line
+     * numbers matching those sources.
+     *
+     * <p>Both jars are written in a single pass over the input, with classes
+     * remapped in parallel.</p>
+     *
+     * @param input the jar that was decompiled
+     * @param contents the contents of {@code input}
+     * @param decompiled every decompiled class, by top-level class
+     * @param output the sources jar to write
+     * @throws IOException if any jar could not be read or written
+     */
+    private static void assemble(
+        final Path input,
+        final JarContents contents,
+        final Map<String, List<DecompileCache.DecompiledClass>> decompiled,
+        final Path output
+    ) throws IOException {
+        final Map<String, int[]> mappings = new HashMap<>();
+        final Path lineMapped = Files.createTempFile(input.getParent(), "linemapped", ".jar");
+        try {
+            try (
+                final ZipFile inputJar = new ZipFile(input.toFile());
+                final ParallelJarWriter sourcesWriter = new ParallelJarWriter(output, ForkJoinPool.commonPool(), ParallelJarWriter.Compression.DEFAULT);
+                final ParallelJarWriter lineMappedWriter = new ParallelJarWriter(lineMapped, ForkJoinPool.commonPool(), ParallelJarWriter.Compression.DEFAULT)
+            ) {
+                for (final List<DecompileCache.DecompiledClass> group : decompiled.values()) {
+                    for (final DecompileCache.DecompiledClass clazz : group) {
+                        sourcesWriter.write(clazz.qualifiedName + JarContents.SOURCE_EXTENSION, clazz.source);
+                        if (clazz.mapping != null) {
+                            mappings.put(clazz.qualifiedName, clazz.mapping);
+                        }
+                    }
+                }
+
+                final Enumeration<? extends ZipEntry> entries = inputJar.entries();
+                while (entries.hasMoreElements()) {
+                    final ZipEntry entry = entries.nextElement();
+                    final String name = entry.getName();
+                    if (entry.isDirectory()) {
+                        continue;
+                    }
+                    if (!name.endsWith(JarContents.CLASS_EXTENSION)) {
+                        // The decompiler copies resources into the sources jar, so we do too
+                        final byte[] resource = JarContents.readAll(inputJar, entry);
+                        sourcesWriter.write(name, resource);
+                        lineMappedWriter.write(name, resource);
+                        continue;
+                    }
+
+                    final String className = name.substring(0, name.length() - JarContents.CLASS_EXTENSION.length());
+                    final byte[] clazz = contents.classes.get(className);
+                    final int[] mapping = mappings.get(className);
+                    if (mapping == null) {
+                        lineMappedWriter.write(name, clazz);
+                    } else {
+                        lineMappedWriter.write(name, CompletableFuture.supplyAsync(() -> {
+                            try {
+                                return LineMappingResultSaver.remap(clazz, mapping);
+                            } catch (final RuntimeException ex) {
+                                JarDecompileWorker.LOGGER.warn("Line mapping failed on {} in {}", className, input, ex);
+                                return clazz;
+                            }
+                        }, ForkJoinPool.commonPool()));
+                    }
+                }
+                sourcesWriter.finish();
+                lineMappedWriter.finish();
+            }
+            Files.move(lineMapped, input, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(lineMapped);
+        }
+    }
+
+    private static void writeSources(final Map<String, List<DecompileCache.DecompiledClass>> decompiled, final Path output) throws IOException {
+        try (final ParallelJarWriter writer = new ParallelJarWriter(output, ForkJoinPool.commonPool(), ParallelJarWriter.Compression.DEFAULT)) {
+            for (final List<DecompileCache.DecompiledClass> group : decompiled.values()) {
+                for (final DecompileCache.DecompiledClass clazz : group) {
+                    writer.write(clazz.qualifiedName + JarContents.SOURCE_EXTENSION, clazz.source);
+                }
+            }
+            writer.finish();
+        }
+    }
+
+    private static void deleteRecursively(final Path directory) throws IOException {
+        try (final Stream<Path> files = Files.walk(directory)) {
+            for (final Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * The classes and resource names of a jar.
+     */
+    static final class JarContents {
+        static final String CLASS_EXTENSION = ".class";
+        static final String SOURCE_EXTENSION = ".java";
+
+        final Map<String, byte[]> classes;
+        final List<String> resources;
+
+        private JarContents(final Map<String, byte[]> classes, final List<String> resources) {
+            this.classes = classes;
+            this.resources = resources;
+        }
+
+        static JarContents read(final Path jar) throws IOException {
+            final Map<String, byte[]> classes = new HashMap<>();
+            final List<String> resources = new ArrayList<>();
+            try (final ZipFile zip = new ZipFile(jar.toFile())) {
+                final Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    final ZipEntry entry = entries.nextElement();
+                    if (entry.isDirectory()) {
+                        continue;
+                    }
+                    final String name = entry.getName();
+                    if (name.endsWith(JarContents.CLASS_EXTENSION)) {
+                        classes.put(name.substring(0, name.length() - JarContents.CLASS_EXTENSION.length()), JarContents.readAll(zip, entry));
+                    } else {
+                        resources.add(name);
+                    }
+                }
+            }
+            return new JarContents(classes, resources);
+        }
 
-            // perform the decompile
-            try {
-                decompiler.decompileContext();
-                JarDecompileWorker.LOGGER.warn("Successfully decompiled to {}", params.getOutputJar().get().getAsFile());
-            } finally {
-                decompiler.clearContext();
-                System.gc();
+        static byte[] readAll(final ZipFile zip, final ZipEntry entry) throws IOException {
+            try (final InputStream is = zip.getInputStream(entry)) {
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(entry.getSize() > 0 ? (int) entry.getSize() : 8192);
+                final byte[] buf = new byte[8192];
+                int read;
+                while ((read = is.read(buf)) != -1) {
+                    out.write(buf, 0, read);
+                }
+                return out.toByteArray();
             }
-        } catch (final IOException e) {
-            e.printStackTrace();
         }
     }
 }
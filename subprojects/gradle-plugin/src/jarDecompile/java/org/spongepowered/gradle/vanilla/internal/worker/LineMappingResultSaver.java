@@ -27,23 +27,18 @@
 import org.jetbrains.java.decompiler.main.decompiler.ThreadSafeResultSaver;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassWriter;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class LineMappingResultSaver extends ThreadSafeResultSaver {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(LineMappingResultSaver.class);
+    private final ConcurrentMap<String, int[]> mappings = new ConcurrentHashMap<>();
 
-    private final String source;
-    final Decompilation.VanillaGradleBytecodeProvider bytecodeProvider;
-
-    public LineMappingResultSaver(final String source, final File target, final Decompilation.VanillaGradleBytecodeProvider bytecodeProvider) {
+    public LineMappingResultSaver(final File target) {
         super(target);
-        this.source = source;
-        this.bytecodeProvider = bytecodeProvider;
     }
 
     @Override
@@ -52,19 +47,34 @@ public void saveClassEntry(
     ) {
         super.saveClassEntry(path, archiveName, qualifiedName, entryName, content, mapping);
         if (mapping != null) {
-            // Get the input archive name
-            try {
-                final String inputName = qualifiedName + ".class";
-                final byte[] clazz = this.bytecodeProvider.getBytecode(this.source, inputName);
-                final ClassReader reader = new ClassReader(clazz);
-                final ClassWriter output = new ClassWriter(reader, 0);
-                reader.accept(new LineMappingVisitor(output, mapping), 0);
-                // Find the entry, then modify it? if possible?
-                this.bytecodeProvider.setBytecode(this.source, inputName, output.toByteArray());
-            } catch (final IOException ex) {
-                LineMappingResultSaver.LOGGER.warn("Line mapping failed on {} in {}", entryName, archiveName, ex);
-            }
+            this.mappings.put(qualifiedName, mapping);
         }
     }
 
+    /**
+     * Apply a line mapping to a class.
+     *
+     * @param clazz the class file
+     * @param mapping pairs of original and decompiled line numbers
+     * @return the remapped class file
+     */
+    static byte[] remap(final byte[] clazz, final int[] mapping) {
+        final ClassReader reader = new ClassReader(clazz);
+        final ClassWriter output = new ClassWriter(reader, 0);
+        reader.accept(new LineMappingVisitor(output, mapping), 0);
+        return output.toByteArray();
+    }
+
+    /**
+     * Get the line mappings of every class saved so far.
+     *
+     * <p>Mappings are applied once decompilation is complete, so the
+     * decompiler never sees a partially rewritten input.</p>
+     *
+     * @return a map from class name to line mapping
+     */
+    Map<String, int[]> mappings() {
+        return this.mappings;
+    }
+
 }
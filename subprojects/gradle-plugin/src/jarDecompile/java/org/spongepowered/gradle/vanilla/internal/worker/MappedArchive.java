@@ -0,0 +1,333 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.worker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A read-only view of a jar, memory-mapped and indexed once on open.
+ *
+ * <p>Entries are located through the central directory, so a lookup never
+ * scans the archive. Stored entries are copied straight out of the mapping,
+ * and deflated entries are inflated on first use and kept in a shared
+ * {@link BytecodeCache}.</p>
+ *
+ * <p>ZIP64 records are read for archives with many entries, but the whole
+ * archive must fit in a single mapping, so archives of 2 GiB or more are
+ * rejected when opened.</p>
+ */
+final class MappedArchive implements Closeable {
+
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int ZIP64_LOCATOR_LENGTH = 20;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH = 56;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+    private static final int LOCAL_FILE_HEADER_LENGTH = 30;
+    private static final int CENTRAL_DIRECTORY_ENTRY_LENGTH = 46;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+    private static final int MAX_SHORT = 0xFFFF;
+    private static final long MAX_INT = 0xFFFFFFFFL;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+    private static final Consumer<ByteBuffer> UNMAPPER = MappedArchive.unmapper();
+
+    private final Path path;
+    private final MappedByteBuffer data;
+    private final BytecodeCache cache;
+    private final Map<String, Integer> index;
+    private final int[] methods;
+    private final int[] compressedSizes;
+    private final int[] sizes;
+    private final int[] headerOffsets;
+
+    private MappedArchive(final Path path, final MappedByteBuffer data, final BytecodeCache cache) throws ZipException {
+        this.path = path;
+        this.data = data;
+        this.cache = cache;
+
+        final int end = this.findEndOfCentralDirectory();
+        long count = this.data.getShort(end + 10) & 0xFFFF;
+        long directoryOffset = this.data.getInt(end + 16) & MappedArchive.MAX_INT;
+        if (count == MappedArchive.MAX_SHORT || directoryOffset == MappedArchive.MAX_INT) {
+            // The real values are in the ZIP64 end record, found through the locator just before this one
+            final int locator = end - MappedArchive.ZIP64_LOCATOR_LENGTH;
+            if (locator < 0 || this.data.getInt(locator) != MappedArchive.ZIP64_LOCATOR) {
+                throw new ZipException("No ZIP64 end of central directory locator in " + path);
+            }
+            final long zip64End = this.data.getLong(locator + 8);
+            if (zip64End < 0 || zip64End + MappedArchive.ZIP64_END_OF_CENTRAL_DIRECTORY_LENGTH > this.data.limit()
+                || this.data.getInt((int) zip64End) != MappedArchive.ZIP64_END_OF_CENTRAL_DIRECTORY) {
+                throw new ZipException("Invalid ZIP64 end of central directory in " + path);
+            }
+            count = this.data.getLong((int) zip64End + 32);
+            directoryOffset = this.data.getLong((int) zip64End + 48);
+        }
+        if (count < 0 || count > this.data.limit() / MappedArchive.CENTRAL_DIRECTORY_ENTRY_LENGTH
+            || directoryOffset < 0 || directoryOffset > this.data.limit()) {
+            throw new ZipException("Invalid central directory in " + path);
+        }
+
+        this.index = new HashMap<>((int) count * 2);
+        this.methods = new int[(int) count];
+        this.compressedSizes = new int[(int) count];
+        this.sizes = new int[(int) count];
+        this.headerOffsets = new int[(int) count];
+        int position = (int) directoryOffset;
+        for (int i = 0; i < count; i++) {
+            if (position + MappedArchive.CENTRAL_DIRECTORY_ENTRY_LENGTH > this.data.limit()
+                || this.data.getInt(position) != MappedArchive.CENTRAL_DIRECTORY_ENTRY) {
+                throw new ZipException("Invalid central directory entry " + i + " in " + path);
+            }
+            final int nameLength = this.data.getShort(position + 28) & 0xFFFF;
+            final int extraLength = this.data.getShort(position + 30) & 0xFFFF;
+            final int commentLength = this.data.getShort(position + 32) & 0xFFFF;
+            this.methods[i] = this.data.getShort(position + 10) & 0xFFFF;
+            long compressedSize = this.data.getInt(position + 20) & MappedArchive.MAX_INT;
+            long size = this.data.getInt(position + 24) & MappedArchive.MAX_INT;
+            long headerOffset = this.data.getInt(position + 42) & MappedArchive.MAX_INT;
+            if (compressedSize == MappedArchive.MAX_INT || size == MappedArchive.MAX_INT || headerOffset == MappedArchive.MAX_INT) {
+                // Values that did not fit are in the ZIP64 extra field, in this order
+                final int zip64 = this.findZip64Extra(position + MappedArchive.CENTRAL_DIRECTORY_ENTRY_LENGTH + nameLength, extraLength);
+                int field = zip64;
+                if (size == MappedArchive.MAX_INT) {
+                    size = this.data.getLong(field);
+                    field += 8;
+                }
+                if (compressedSize == MappedArchive.MAX_INT) {
+                    compressedSize = this.data.getLong(field);
+                    field += 8;
+                }
+                if (headerOffset == MappedArchive.MAX_INT) {
+                    headerOffset = this.data.getLong(field);
+                    field += 8;
+                }
+                if (field > zip64 + (this.data.getShort(zip64 - 2) & 0xFFFF)) {
+                    throw new ZipException("Truncated ZIP64 extra field for entry " + i + " in " + path);
+                }
+            }
+            if (compressedSize < 0 || compressedSize > Integer.MAX_VALUE
+                || size < 0 || size > Integer.MAX_VALUE
+                || headerOffset < 0 || headerOffset > Integer.MAX_VALUE) {
+                throw new ZipException("Entry " + i + " is out of range in " + path);
+            }
+            this.compressedSizes[i] = (int) compressedSize;
+            this.sizes[i] = (int) size;
+            this.headerOffsets[i] = (int) headerOffset;
+            final String name = new String(this.bytes(position + MappedArchive.CENTRAL_DIRECTORY_ENTRY_LENGTH, nameLength), StandardCharsets.UTF_8);
+            this.index.putIfAbsent(name, i); // the first entry wins, as with ZipFile
+            position += MappedArchive.CENTRAL_DIRECTORY_ENTRY_LENGTH + nameLength + extraLength + commentLength;
+        }
+    }
+
+    /**
+     * Map and index an archive.
+     *
+     * @param path the archive
+     * @param cache the cache to keep inflated entries in
+     * @return the opened archive
+     * @throws IOException if the archive could not be read, or is not a
+     *     supported zip file
+     */
+    static MappedArchive open(final Path path, final BytecodeCache cache) throws IOException {
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new ZipException("Archive is too large to map: " + path);
+            }
+            // The mapping stays valid once the channel is closed
+            final MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            return new MappedArchive(path, data, cache);
+        }
+    }
+
+    /**
+     * Read an entry.
+     *
+     * @param name the entry name
+     * @return the contents of the entry, or {@code null} if there is no such entry
+     * @throws IOException if the entry could not be extracted
+     */
+    byte[] read(final String name) throws IOException {
+        final Integer entry = this.index.get(name);
+        if (entry == null) {
+            return null;
+        }
+        final int header = this.headerOffsets[entry];
+        if (header < 0 || header + MappedArchive.LOCAL_FILE_HEADER_LENGTH > this.data.limit() || this.data.getInt(header) != MappedArchive.LOCAL_FILE_HEADER) {
+            throw new ZipException("Invalid local header for " + name + " in " + this.path);
+        }
+        final int offset = header + MappedArchive.LOCAL_FILE_HEADER_LENGTH
+            + (this.data.getShort(header + 26) & 0xFFFF)
+            + (this.data.getShort(header + 28) & 0xFFFF);
+
+        switch (this.methods[entry]) {
+            case MappedArchive.STORED:
+                return this.bytes(offset, this.sizes[entry]);
+            case MappedArchive.DEFLATED:
+                final byte[] cached = this.cache.get(this, entry);
+                if (cached != null) {
+                    return cached;
+                }
+                final byte[] inflated = this.inflate(name, this.bytes(offset, this.compressedSizes[entry]), this.sizes[entry]);
+                this.cache.put(this, entry, inflated);
+                return inflated;
+            default:
+                throw new ZipException("Unsupported compression method " + this.methods[entry] + " for " + name + " in " + this.path);
+        }
+    }
+
+    @Override
+    public void close() {
+        this.cache.invalidate(this);
+        MappedArchive.UNMAPPER.accept(this.data);
+    }
+
+    private byte[] inflate(final String name, final byte[] compressed, final int size) throws ZipException {
+        final Inflater inflater = MappedArchive.INFLATER.get();
+        inflater.reset();
+        inflater.setInput(compressed);
+        final byte[] output = new byte[size];
+        int read = 0;
+        try {
+            while (read < size) {
+                final int inflated = inflater.inflate(output, read, size - read);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += inflated;
+            }
+        } catch (final DataFormatException ex) {
+            throw new ZipException("Corrupt entry " + name + " in " + this.path + ": " + ex.getMessage());
+        }
+        if (read != size) {
+            throw new ZipException("Entry " + name + " in " + this.path + " was " + read + " bytes, expected " + size);
+        }
+        return output;
+    }
+
+    private byte[] bytes(final int offset, final int length) throws ZipException {
+        if (offset < 0 || length < 0 || offset + length > this.data.limit()) {
+            throw new ZipException("Entry data out of bounds in " + this.path);
+        }
+        // Relative reads on a duplicate, since several decompiler threads share the mapping
+        final ByteBuffer view = this.data.duplicate();
+        view.position(offset);
+        final byte[] bytes = new byte[length];
+        view.get(bytes);
+        return bytes;
+    }
+
+    private int findEndOfCentralDirectory() throws ZipException {
+        final int lowest = Math.max(0, this.data.limit() - MappedArchive.END_OF_CENTRAL_DIRECTORY_LENGTH - MappedArchive.MAX_COMMENT_LENGTH);
+        for (int position = this.data.limit() - MappedArchive.END_OF_CENTRAL_DIRECTORY_LENGTH; position >= lowest; position--) {
+            if (this.data.getInt(position) == MappedArchive.END_OF_CENTRAL_DIRECTORY) {
+                return position;
+            }
+        }
+        throw new ZipException("No central directory found in " + this.path);
+    }
+
+    private int findZip64Extra(final int start, final int length) throws ZipException {
+        int position = start;
+        while (position + 4 <= start + length) {
+            final int id = this.data.getShort(position) & 0xFFFF;
+            final int size = this.data.getShort(position + 2) & 0xFFFF;
+            if (id == MappedArchive.ZIP64_EXTRA) {
+                if (position + 4 + size > start + length) {
+                    break;
+                }
+                return position + 4;
+            }
+            position += 4 + size;
+        }
+        throw new ZipException("Missing ZIP64 extra field in " + this.path);
+    }
+
+    /**
+     * Find a way to release a mapping before it is garbage collected.
+     *
+     * <p>Files cannot be deleted or replaced on Windows while they are
+     * mapped. There is no supported API for this, so when neither the
+     * Java 9+ nor the Java 8 approach is available, mappings are left for
+     * the garbage collector.</p>
+     *
+     * @return a function that unmaps a buffer
+     */
+    private static Consumer<ByteBuffer> unmapper() {
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            return buffer -> {
+                try {
+                    invokeCleaner.invoke(unsafe, buffer);
+                } catch (final ReflectiveOperationException | RuntimeException ignored) {
+                    // left for the garbage collector
+                }
+            };
+        } catch (final ReflectiveOperationException | RuntimeException ignored) {
+            // not Java 9+
+        }
+        return buffer -> {
+            try {
+                final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                final Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (final ReflectiveOperationException | RuntimeException ignored) {
+                // left for the garbage collector
+            }
+        };
+    }
+
+}
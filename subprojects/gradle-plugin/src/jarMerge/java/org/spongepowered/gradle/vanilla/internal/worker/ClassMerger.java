@@ -0,0 +1,228 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.worker;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.InnerClassNode;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Merge the client and server variants of a single class.
+ *
+ * <p>Elements present on both sides are taken from the client, while elements
+ * present on only one side are retained and marked with the appropriate
+ * {@code @OnlyIn} annotation.</p>
+ */
+final class ClassMerger {
+
+    private ClassMerger() {
+    }
+
+    /**
+     * Mark an entire class as present on only one side.
+     *
+     * @param clazz the class bytes
+     * @param side the side the class is exclusive to
+     * @return the annotated class bytes
+     */
+    static byte[] annotate(final byte[] clazz, final DistMarkers.Side side) {
+        final ClassNode node = ClassMerger.read(clazz);
+        ClassMerger.addAnnotation(node.visibleAnnotations, side.onlyIn(), list -> node.visibleAnnotations = list);
+        return ClassMerger.write(node);
+    }
+
+    /**
+     * Merge two differing variants of a class.
+     *
+     * @param clientClass the class from the client jar
+     * @param serverClass the class from the server jar
+     * @return the merged class bytes
+     */
+    static byte[] merge(final byte[] clientClass, final byte[] serverClass) {
+        final ClassNode client = ClassMerger.read(clientClass);
+        final ClassNode server = ClassMerger.read(serverClass);
+
+        // Interfaces, marked on the class itself
+        final List<AnnotationNode> interfaceMarkers = new ArrayList<>();
+        client.interfaces = ClassMerger.mergeOrdered(
+            client.interfaces,
+            server.interfaces,
+            Function.identity(),
+            (itf, side) -> interfaceMarkers.add(side.onlyInInterface(itf))
+        );
+        if (!interfaceMarkers.isEmpty()) {
+            ClassMerger.addAnnotation(client.visibleAnnotations, DistMarkers.onlyIns(interfaceMarkers), list -> client.visibleAnnotations = list);
+        }
+
+        // Members
+        client.fields = ClassMerger.mergeOrdered(
+            client.fields,
+            server.fields,
+            field -> field.name,
+            (field, side) -> ClassMerger.addAnnotation(field.visibleAnnotations, side.onlyIn(), list -> field.visibleAnnotations = list)
+        );
+        client.methods = ClassMerger.mergeOrdered(
+            client.methods,
+            server.methods,
+            method -> method.name + method.desc,
+            (method, side) -> ClassMerger.addAnnotation(method.visibleAnnotations, side.onlyIn(), list -> method.visibleAnnotations = list)
+        );
+
+        // Attributes that refer to other classes, which may also only exist on one side
+        client.innerClasses = ClassMerger.mergeOrdered(client.innerClasses, server.innerClasses, (InnerClassNode inner) -> inner.name, null);
+        if (client.nestMembers != null || server.nestMembers != null) {
+            client.nestMembers = ClassMerger.union(client.nestMembers, server.nestMembers);
+        }
+        if (client.permittedSubclasses != null || server.permittedSubclasses != null) {
+            client.permittedSubclasses = ClassMerger.union(client.permittedSubclasses, server.permittedSubclasses);
+        }
+
+        return ClassMerger.write(client);
+    }
+
+    private static ClassNode read(final byte[] clazz) {
+        final ClassNode node = new ClassNode();
+        new ClassReader(clazz).accept(node, 0);
+        return node;
+    }
+
+    private static byte[] write(final ClassNode node) {
+        // Method bodies are never modified, so existing frames and maxes are still valid
+        final ClassWriter writer = new ClassWriter(0);
+        node.accept(writer);
+        return writer.toByteArray();
+    }
+
+    private static void addAnnotation(final List<AnnotationNode> existing, final AnnotationNode annotation, final Consumer<List<AnnotationNode>> setter) {
+        if (existing == null) {
+            final List<AnnotationNode> created = new ArrayList<>(1);
+            created.add(annotation);
+            setter.accept(created);
+        } else {
+            existing.add(annotation);
+        }
+    }
+
+    private static List<String> union(final List<String> client, final List<String> server) {
+        final Set<String> result = new LinkedHashSet<>();
+        if (client != null) {
+            result.addAll(client);
+        }
+        if (server != null) {
+            result.addAll(server);
+        }
+        return new ArrayList<>(result);
+    }
+
+    /**
+     * Merge two lists of elements, attempting to preserve the declaration
+     * order from both sides.
+     *
+     * @param client elements from the client
+     * @param server elements from the server
+     * @param key a function to compute the identity of an element
+     * @param sideOnly a callback for elements only present on one side
+     * @param <T> the element type
+     * @return the merged list
+     */
+    private static <T> List<T> mergeOrdered(
+        final List<T> client,
+        final List<T> server,
+        final Function<T, String> key,
+        final BiConsumer<T, DistMarkers.Side> sideOnly
+    ) {
+        final Set<String> clientKeys = new HashSet<>();
+        for (final T element : client) {
+            clientKeys.add(key.apply(element));
+        }
+        final Set<String> serverKeys = new HashSet<>();
+        for (final T element : server) {
+            serverKeys.add(key.apply(element));
+        }
+
+        final List<T> result = new ArrayList<>(client.size() + server.size());
+        final Set<String> emitted = new HashSet<>();
+        int clientIdx = 0;
+        int serverIdx = 0;
+        while (clientIdx < client.size() || serverIdx < server.size()) {
+            // Skip anything already emitted out-of-order
+            if (clientIdx < client.size() && emitted.contains(key.apply(client.get(clientIdx)))) {
+                clientIdx++;
+                continue;
+            }
+            if (serverIdx < server.size() && emitted.contains(key.apply(server.get(serverIdx)))) {
+                serverIdx++;
+                continue;
+            }
+
+            if (clientIdx < client.size()) {
+                final T clientElement = client.get(clientIdx);
+                final String clientKey = key.apply(clientElement);
+                if (!serverKeys.contains(clientKey)) {
+                    if (sideOnly != null) {
+                        sideOnly.accept(clientElement, DistMarkers.Side.CLIENT);
+                    }
+                    result.add(clientElement);
+                    emitted.add(clientKey);
+                    clientIdx++;
+                    continue;
+                }
+            }
+
+            if (serverIdx < server.size()) {
+                final T serverElement = server.get(serverIdx);
+                final String serverKey = key.apply(serverElement);
+                if (!clientKeys.contains(serverKey)) {
+                    if (sideOnly != null) {
+                        sideOnly.accept(serverElement, DistMarkers.Side.SERVER);
+                    }
+                    result.add(serverElement);
+                    emitted.add(serverKey);
+                    serverIdx++;
+                    continue;
+                }
+            }
+
+            // Present on both sides, prefer the client variant
+            final T clientElement = client.get(clientIdx);
+            result.add(clientElement);
+            emitted.add(key.apply(clientElement));
+            clientIdx++;
+        }
+        return result;
+    }
+
+}
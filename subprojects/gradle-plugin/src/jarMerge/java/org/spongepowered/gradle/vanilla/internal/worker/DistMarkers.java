@@ -0,0 +1,293 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.worker;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AnnotationNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code @OnlyIn} family of annotations used to mark side-specific
+ * elements in a merged jar.
+ *
+ * <p>These match the {@code net.minecraftforge.api.distmarker} annotations
+ * that mergetool's {@code AnnotationVersion.API} produced, and are generated
+ * directly into the merged jar so that no extra dependency is needed to
+ * compile against it.</p>
+ */
+final class DistMarkers {
+
+    static final String PACKAGE = "net/minecraftforge/api/distmarker/";
+    static final String DIST = DistMarkers.PACKAGE + "Dist";
+    static final String ONLY_IN = DistMarkers.PACKAGE + "OnlyIn";
+    static final String ONLY_INS = DistMarkers.PACKAGE + "OnlyIns";
+
+    static final String DIST_DESC = 'L' + DistMarkers.DIST + ';';
+    static final String ONLY_IN_DESC = 'L' + DistMarkers.ONLY_IN + ';';
+    static final String ONLY_INS_DESC = 'L' + DistMarkers.ONLY_INS + ';';
+
+    private static final int CLASS_VERSION = Opcodes.V1_8;
+
+    private DistMarkers() {
+    }
+
+    /**
+     * The side that an element is exclusive to.
+     */
+    enum Side {
+        CLIENT("CLIENT"),
+        SERVER("DEDICATED_SERVER");
+
+        private final String distName;
+
+        Side(final String distName) {
+            this.distName = distName;
+        }
+
+        String distName() {
+            return this.distName;
+        }
+
+        AnnotationNode onlyIn() {
+            final AnnotationNode node = new AnnotationNode(DistMarkers.ONLY_IN_DESC);
+            node.visitEnum("value", DistMarkers.DIST_DESC, this.distName);
+            return node;
+        }
+
+        AnnotationNode onlyInInterface(final String itf) {
+            final AnnotationNode node = this.onlyIn();
+            node.visit("_interface", Type.getObjectType(itf));
+            return node;
+        }
+    }
+
+    /**
+     * Wrap a set of interface markers in the repeatable container annotation.
+     *
+     * @param markers the markers to wrap
+     * @return a new container annotation
+     */
+    static AnnotationNode onlyIns(final List<AnnotationNode> markers) {
+        final AnnotationNode node = new AnnotationNode(DistMarkers.ONLY_INS_DESC);
+        node.values = new ArrayList<>(2);
+        node.values.add("value");
+        node.values.add(new ArrayList<>(markers));
+        return node;
+    }
+
+    /**
+     * Generate the marker classes to include in a merged jar.
+     *
+     * @return a map of entry name to class bytes
+     */
+    static Map<String, byte[]> generate() {
+        final Map<String, byte[]> classes = new LinkedHashMap<>();
+        classes.put(DistMarkers.DIST + ".class", DistMarkers.dist());
+        classes.put(DistMarkers.ONLY_IN + ".class", DistMarkers.onlyIn());
+        classes.put(DistMarkers.ONLY_INS + ".class", DistMarkers.onlyIns());
+        return Collections.unmodifiableMap(classes);
+    }
+
+    private static byte[] dist() {
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        final String valuesDesc = "[" + DistMarkers.DIST_DESC;
+        cw.visit(
+            DistMarkers.CLASS_VERSION,
+            Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_ENUM,
+            DistMarkers.DIST,
+            "Ljava/lang/Enum<" + DistMarkers.DIST_DESC + ">;",
+            "java/lang/Enum",
+            null
+        );
+
+        final List<String> constants = Arrays.asList(Side.CLIENT.distName(), Side.SERVER.distName());
+        for (final String constant : constants) {
+            cw.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL | Opcodes.ACC_ENUM, constant, DistMarkers.DIST_DESC, null, null)
+                .visitEnd();
+        }
+        cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL | Opcodes.ACC_SYNTHETIC, "$VALUES", valuesDesc, null, null)
+            .visitEnd();
+
+        // values()
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "values", "()" + valuesDesc, null, null);
+        mv.visitCode();
+        mv.visitFieldInsn(Opcodes.GETSTATIC, DistMarkers.DIST, "$VALUES", valuesDesc);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, valuesDesc, "clone", "()Ljava/lang/Object;", false);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, valuesDesc);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // valueOf(String)
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "valueOf", "(Ljava/lang/String;)" + DistMarkers.DIST_DESC, null, null);
+        mv.visitCode();
+        mv.visitLdcInsn(Type.getObjectType(DistMarkers.DIST));
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Enum", "valueOf", "(Ljava/lang/Class;Ljava/lang/String;)Ljava/lang/Enum;", false);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, DistMarkers.DIST);
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // <init>(String, int)
+        mv = cw.visitMethod(Opcodes.ACC_PRIVATE, "<init>", "(Ljava/lang/String;I)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 2);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Enum", "<init>", "(Ljava/lang/String;I)V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // isClient()
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "isClient", "()Z", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitFieldInsn(Opcodes.GETSTATIC, DistMarkers.DIST, Side.CLIENT.distName(), DistMarkers.DIST_DESC);
+        final Label notClient = new Label();
+        mv.visitJumpInsn(Opcodes.IF_ACMPNE, notClient);
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitLabel(notClient);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // isDedicatedServer()
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "isDedicatedServer", "()Z", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, DistMarkers.DIST, "isClient", "()Z", false);
+        final Label client = new Label();
+        mv.visitJumpInsn(Opcodes.IFNE, client);
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitLabel(client);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitInsn(Opcodes.IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // <clinit>
+        mv = cw.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+        mv.visitCode();
+        for (int i = 0; i < constants.size(); i++) {
+            mv.visitTypeInsn(Opcodes.NEW, DistMarkers.DIST);
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitLdcInsn(constants.get(i));
+            mv.visitIntInsn(Opcodes.BIPUSH, i);
+            mv.visitMethodInsn(Opcodes.INVOKESPECIAL, DistMarkers.DIST, "<init>", "(Ljava/lang/String;I)V", false);
+            mv.visitFieldInsn(Opcodes.PUTSTATIC, DistMarkers.DIST, constants.get(i), DistMarkers.DIST_DESC);
+        }
+        mv.visitIntInsn(Opcodes.BIPUSH, constants.size());
+        mv.visitTypeInsn(Opcodes.ANEWARRAY, DistMarkers.DIST);
+        for (int i = 0; i < constants.size(); i++) {
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitIntInsn(Opcodes.BIPUSH, i);
+            mv.visitFieldInsn(Opcodes.GETSTATIC, DistMarkers.DIST, constants.get(i), DistMarkers.DIST_DESC);
+            mv.visitInsn(Opcodes.AASTORE);
+        }
+        mv.visitFieldInsn(Opcodes.PUTSTATIC, DistMarkers.DIST, "$VALUES", valuesDesc);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] onlyIn() {
+        final ClassWriter cw = DistMarkers.annotationType(DistMarkers.ONLY_IN);
+        DistMarkers.retainAtRuntime(cw);
+        final AnnotationVisitor target = cw.visitAnnotation("Ljava/lang/annotation/Target;", true);
+        final AnnotationVisitor targets = target.visitArray("value");
+        for (final String elementType : new String[] {"TYPE", "FIELD", "METHOD", "CONSTRUCTOR", "PACKAGE"}) {
+            targets.visitEnum(null, "Ljava/lang/annotation/ElementType;", elementType);
+        }
+        targets.visitEnd();
+        target.visitEnd();
+        final AnnotationVisitor repeatable = cw.visitAnnotation("Ljava/lang/annotation/Repeatable;", true);
+        repeatable.visit("value", Type.getObjectType(DistMarkers.ONLY_INS));
+        repeatable.visitEnd();
+
+        cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "value", "()" + DistMarkers.DIST_DESC, null, null).visitEnd();
+        final MethodVisitor itf = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "_interface", "()Ljava/lang/Class;", "()Ljava/lang/Class<*>;", null);
+        final AnnotationVisitor defaultValue = itf.visitAnnotationDefault();
+        defaultValue.visit(null, Type.getType(Object.class));
+        defaultValue.visitEnd();
+        itf.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static byte[] onlyIns() {
+        final ClassWriter cw = DistMarkers.annotationType(DistMarkers.ONLY_INS);
+        DistMarkers.retainAtRuntime(cw);
+        final AnnotationVisitor target = cw.visitAnnotation("Ljava/lang/annotation/Target;", true);
+        final AnnotationVisitor targets = target.visitArray("value");
+        targets.visitEnum(null, "Ljava/lang/annotation/ElementType;", "TYPE");
+        targets.visitEnd();
+        target.visitEnd();
+
+        cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "value", "()[" + DistMarkers.ONLY_IN_DESC, null, null).visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static ClassWriter annotationType(final String name) {
+        final ClassWriter cw = new ClassWriter(0);
+        cw.visit(
+            DistMarkers.CLASS_VERSION,
+            Opcodes.ACC_PUBLIC | Opcodes.ACC_ANNOTATION | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT,
+            name,
+            null,
+            "java/lang/Object",
+            new String[] {"java/lang/annotation/Annotation"}
+        );
+        return cw;
+    }
+
+    private static void retainAtRuntime(final ClassWriter cw) {
+        final AnnotationVisitor retention = cw.visitAnnotation("Ljava/lang/annotation/Retention;", true);
+        retention.visitEnum("value", "Ljava/lang/annotation/RetentionPolicy;", "RUNTIME");
+        retention.visitEnd();
+    }
+
+}
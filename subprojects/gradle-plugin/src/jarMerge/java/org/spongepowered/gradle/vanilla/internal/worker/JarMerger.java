@@ -24,33 +24,143 @@
  */
 package org.spongepowered.gradle.vanilla.internal.worker;
 
-import net.minecraftforge.mergetool.AnnotationVersion;
-import net.minecraftforge.mergetool.Merger;
-
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  * Combine a client and server jar together.
  *
+ * <p>Entries are compared by the CRC and size recorded in each jar's central
+ * directory. Classes that are identical on both sides are copied straight
+ * through without being parsed, so only classes that actually differ have
+ * to be merged. Those merges, and the compression of every entry, are
+ * performed in parallel on the provided executor.</p>
+ *
  * <p>This cannot use any VanillaGradle API.</p>
  */
 public final class JarMerger {
 
-    public static void execute(final Path clientJar, final Path serverJar, final Path outputJar) {
-        final Merger merger = new Merger(
-            clientJar.toFile(),
-            serverJar.toFile(),
-            outputJar.toFile()
-        );
-        merger.annotate(AnnotationVersion.API, true);
-        merger.keepData();
-
-        try {
-            merger.process();
+    private static final String CLASS_EXTENSION = ".class";
+
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+    /**
+     * Entry order for the merged jar: the manifest first, then everything else by name.
+     */
+    private static final Comparator<String> ENTRY_ORDER = Comparator.<String>comparingInt(name -> name.equals(JarMerger.MANIFEST) ? 0 : 1)
+        .thenComparing(Comparator.naturalOrder());
+
+    private JarMerger() {
+    }
+
+    public static void execute(final Path clientJar, final Path serverJar, final Path outputJar, final Executor executor) throws IOException {
+        try (
+            final ZipFile client = new ZipFile(clientJar.toFile());
+            final ZipFile server = new ZipFile(serverJar.toFile());
+            final ParallelJarWriter output = new ParallelJarWriter(outputJar, executor, ParallelJarWriter.Compression.DEFAULT)
+        ) {
+            final NavigableSet<String> names = new TreeSet<>(JarMerger.ENTRY_ORDER);
+            JarMerger.collectFiles(client, names);
+            JarMerger.collectFiles(server, names);
+
+            // We always provide our own markers, in their sorted position
+            final Map<String, byte[]> markers = DistMarkers.generate();
+            names.addAll(markers.keySet());
+
+            for (final String name : names) {
+                final byte[] marker = markers.get(name);
+                if (marker != null) {
+                    output.write(name, marker);
+                } else {
+                    output.write(name, JarMerger.prepare(client, client.getEntry(name), server, server.getEntry(name), executor));
+                }
+            }
+            output.finish();
+        } catch (final CompletionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            throw new RuntimeException("Failed to merge jars", ex.getCause());
+        }
+    }
+
+    private static void collectFiles(final ZipFile jar, final NavigableSet<String> names) {
+        final Enumeration<? extends ZipEntry> entries = jar.entries();
+        while (entries.hasMoreElements()) {
+            final ZipEntry entry = entries.nextElement();
+            if (!entry.isDirectory()) {
+                names.add(entry.getName());
+            }
+        }
+    }
+
+    private static CompletableFuture<byte[]> prepare(
+        final ZipFile client,
+        final ZipEntry clientEntry,
+        final ZipFile server,
+        final ZipEntry serverEntry,
+        final Executor executor
+    ) {
+        if (clientEntry == null) {
+            // Server-only
+            if (JarMerger.isClass(serverEntry)) {
+                return CompletableFuture.supplyAsync(() -> ClassMerger.annotate(JarMerger.read(server, serverEntry), DistMarkers.Side.SERVER), executor);
+            }
+            return CompletableFuture.supplyAsync(() -> JarMerger.read(server, serverEntry), executor);
+        } else if (serverEntry == null) {
+            // Client-only
+            if (JarMerger.isClass(clientEntry)) {
+                return CompletableFuture.supplyAsync(() -> ClassMerger.annotate(JarMerger.read(client, clientEntry), DistMarkers.Side.CLIENT), executor);
+            }
+            return CompletableFuture.supplyAsync(() -> JarMerger.read(client, clientEntry), executor);
+        } else if (!JarMerger.isClass(clientEntry) || JarMerger.identical(clientEntry, serverEntry)) {
+            // Resources always come from the client, and identical classes don't need merging
+            return CompletableFuture.supplyAsync(() -> JarMerger.read(client, clientEntry), executor);
+        } else {
+            return CompletableFuture.supplyAsync(
+                () -> ClassMerger.merge(JarMerger.read(client, clientEntry), JarMerger.read(server, serverEntry)),
+                executor
+            );
+        }
+    }
+
+    private static boolean isClass(final ZipEntry entry) {
+        return entry.getName().endsWith(JarMerger.CLASS_EXTENSION);
+    }
+
+    private static boolean identical(final ZipEntry a, final ZipEntry b) {
+        return a.getCrc() != -1 && a.getCrc() == b.getCrc() && a.getSize() == b.getSize();
+    }
+
+    private static byte[] read(final ZipFile jar, final ZipEntry entry) {
+        try (final InputStream is = jar.getInputStream(entry)) {
+            return JarMerger.readAllBytes(is);
         } catch (final IOException ex) {
-            throw new RuntimeException("Failed to merge jars", ex);
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static byte[] readAllBytes(final InputStream is) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(is.available(), 4096));
+        final byte[] buf = new byte[8192];
+        int read;
+        while ((read = is.read(buf)) != -1) {
+            out.write(buf, 0, read);
         }
+        return out.toByteArray();
     }
 
 }
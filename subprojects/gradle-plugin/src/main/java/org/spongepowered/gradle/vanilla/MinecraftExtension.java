@@ -113,6 +113,20 @@ public interface MinecraftExtension extends MinecraftRepositoryExtension {
      */
     void accessWideners(Object... file);
 
+    /**
+     * Add local asset directories to take assets from before downloading them.
+     *
+     * <p>Each directory should have the layout of a launcher's assets
+     * directory. Assets are only taken if they match the asset index, and are
+     * hard-linked into place where possible.</p>
+     *
+     * <p><b>Default:</b> any launcher asset directories found, other than
+     * the one assets are downloaded to</p>
+     *
+     * @param directories any directories that can be passed to {@link Project#files(Object...)}
+     */
+    void assetSources(Object... directories);
+
     /**
      * Get run configurations configured for this project.
      *
@@ -56,6 +56,9 @@ public static final class Directories {
         public static final String CACHES = "caches";
         public static final String ASSETS = "assets";
         public static final String JARS = "jars";
+        public static final String DECOMPILED_CLASSES = "decompiled-classes";
+        public static final String DECOMPILED_SOURCES = "decompiled-sources";
+        public static final String LIBRARIES = "libraries";
         public static final String MANIFESTS = "manifests";
         public static final List<Path> SHARED_ASSET_LOCATIONS = Collections.unmodifiableList(Stream.of(
             ".minecraft/assets", // linux, default launcher
@@ -85,6 +88,8 @@ public static final class Tasks {
         public static final String COLLECT_NATIVES = "collectNatives";
         public static final String PREPARE_WORKSPACE = "prepareWorkspace";
         public static final String DECOMPILE = "decompile";
+        public static final String DECOMPILE_CLASSES = "decompileClasses";
+        public static final String INSTALL_DECOMPILED = "installDecompiledSources";
         public static final String GEN_ECLIPSE_RUNS = "genEclipseRuns";
 
         private Tasks() {
@@ -100,7 +105,6 @@ private RunConfiguration() {
     }
 
     public static final class WorkerDependencies {
-        public static final String MERGE_TOOL = "net.minecraftforge:mergetool:" + BuildVersions.MERGE_TOOL;
         public static final String ACCESS_WIDENER = "net.fabricmc:access-widener:" + BuildVersions.ACCESS_WIDENER;
         public static final String FORGE_FLOWER = "net.minecraftforge:forgeflower:" + BuildVersions.FORGEFLOWER;
         public static final String FORCED_ASM = BuildVersions.ASM;
@@ -133,7 +137,6 @@ public static void applyTo(final RepositoryHandler repositories) {
     public static final class Configurations {
         public static final String MINECRAFT = "minecraft";
         public static final String MINECRAFT_NATIVES = "minecraftNatives";
-        public static final String MERGETOOL = "mergetool";
         public static final String ACCESS_WIDENER = "accessWidener";
         public static final String FORGE_FLOWER = "forgeFlower";
         public static final String CLASS_DUMP = "classDump";
@@ -69,6 +69,7 @@ public class MinecraftExtensionImpl implements MinecraftExtension {
     private final DirectoryProperty sharedCache;
     private final DirectoryProperty projectCache;
     private final ConfigurableFileCollection accessWideners;
+    private final ConfigurableFileCollection assetSources;
 
     // Derived properties
     private final Property<VersionDescriptor.Full> targetVersion;
@@ -87,6 +88,7 @@ public MinecraftExtensionImpl(final Gradle gradle, final ObjectFactory factory,
         this.platform = factory.property(MinecraftPlatform.class).convention(MinecraftPlatform.JOINED);
         this.injectRepositories = factory.property(Boolean.class).convention(project.provider(() -> !gradle.getPlugins().hasPlugin(MinecraftRepositoryPlugin.class))); // only inject if we aren't already in Settings
         this.accessWideners = factory.fileCollection();
+        this.assetSources = factory.fileCollection();
 
         this.assetsDirectory = factory.directoryProperty();
         this.sharedCache = factory.directoryProperty().convention(providerService.flatMap(it -> it.getParameters().getSharedCache()));
@@ -95,15 +97,21 @@ public MinecraftExtensionImpl(final Gradle gradle, final ObjectFactory factory,
         this.projectCache.disallowChanges();
 
         // Test common assets directory locations and use those instead, if they exist
+        // Any others that exist can still provide objects missing from the one we use
         boolean found = false;
         for (final Path candidate : Constants.Directories.SHARED_ASSET_LOCATIONS) {
             if (Files.isDirectory(candidate)) {
-                this.assetsDirectory.set(candidate.toFile());
-                found = true;
-                break;
+                if (found) {
+                    this.assetSources.from(candidate.toFile());
+                } else {
+                    this.assetsDirectory.set(candidate.toFile());
+                    found = true;
+                }
             }
         }
-        if (!found) {
+        if (found) {
+            this.assetSources.from(this.sharedCache.map(dir -> dir.dir(Constants.Directories.ASSETS)));
+        } else {
             this.assetsDirectory.set(this.sharedCache.map(dir -> dir.dir(Constants.Directories.ASSETS)));
         }
 
@@ -227,6 +235,15 @@ public ConfigurableFileCollection accessWideners() {
         return this.accessWideners;
     }
 
+    @Override
+    public void assetSources(final Object... directories) {
+        this.assetSources.from(directories);
+    }
+
+    public ConfigurableFileCollection assetSources() {
+        return this.assetSources;
+    }
+
     public synchronized Set<ArtifactModifier> modifiers() {
         if (this.lazyModifiers == null) {
             this.accessWideners.disallowChanges();
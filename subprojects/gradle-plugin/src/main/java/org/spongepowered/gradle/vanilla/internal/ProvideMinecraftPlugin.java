@@ -25,6 +25,7 @@
 package org.spongepowered.gradle.vanilla.internal;
 
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.gradle.api.Action;
 import org.gradle.api.InvalidUserDataException;
 import org.gradle.api.NamedDomainObjectProvider;
 import org.gradle.api.Plugin;
@@ -33,7 +34,12 @@
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.Dependency;
 import org.gradle.api.artifacts.DependencySet;
+import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
+import org.gradle.api.artifacts.dsl.DependencyHandler;
 import org.gradle.api.artifacts.dsl.RepositoryHandler;
+import org.gradle.api.artifacts.result.ResolvedArtifactResult;
+import org.gradle.api.artifacts.type.ArtifactTypeDefinition;
+import org.gradle.api.attributes.Attribute;
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.Directory;
 import org.gradle.api.file.DuplicatesStrategy;
@@ -50,6 +56,7 @@
 import org.gradle.api.tasks.SourceSetContainer;
 import org.gradle.api.tasks.TaskContainer;
 import org.gradle.api.tasks.TaskProvider;
+import org.gradle.internal.component.external.model.ModuleComponentArtifactIdentifier;
 import org.gradle.jvm.toolchain.JavaToolchainService;
 import org.gradle.plugins.ide.eclipse.model.EclipseModel;
 import org.gradle.plugins.ide.idea.model.IdeaModel;
@@ -64,17 +71,28 @@
 import org.spongepowered.gradle.vanilla.internal.repository.MinecraftProviderService;
 import org.spongepowered.gradle.vanilla.repository.MinecraftRepositoryExtension;
 import org.spongepowered.gradle.vanilla.internal.repository.MinecraftRepositoryPlugin;
+import org.spongepowered.gradle.vanilla.internal.repository.ResolvableTool;
+import org.spongepowered.gradle.vanilla.internal.repository.modifier.AccessWidenerTransform;
+import org.spongepowered.gradle.vanilla.internal.repository.modifier.ArtifactModifier;
 import org.spongepowered.gradle.vanilla.repository.MinecraftSide;
 import org.spongepowered.gradle.vanilla.runs.ClientRunParameterTokens;
+import org.spongepowered.gradle.vanilla.task.AbstractDecompileTask;
+import org.spongepowered.gradle.vanilla.task.DecompileClassesTask;
 import org.spongepowered.gradle.vanilla.task.DecompileJarTask;
 import org.spongepowered.gradle.vanilla.task.DownloadAssetsTask;
+import org.spongepowered.gradle.vanilla.task.InstallDecompiledJarTask;
 import org.spongepowered.gradle.vanilla.task.GenEclipseRuns;
 import org.spongepowered.gradle.vanilla.internal.util.IdeConfigurer;
 import org.spongepowered.gradle.vanilla.internal.util.StringUtils;
+import org.spongepowered.gradle.vanilla.internal.worker.DecompilerEngine;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * A plugin that creates the necessary tasks and configurations to provide the
@@ -83,6 +101,11 @@
  */
 public class ProvideMinecraftPlugin implements Plugin<Project> {
 
+    // Keep the decompiler worker process warm between decompilations
+    private static final String GRADLE_PROPERTY_WARM_DECOMPILER = "org.spongepowered.gradle.vanilla.warmDecompiler";
+    // Select a decompiler engine from the worker classpath by ID
+    private static final String GRADLE_PROPERTY_DECOMPILER_ENGINE = "org.spongepowered.gradle.vanilla.decompiler";
+
     private Project project;
 
     @Override
@@ -108,6 +131,10 @@ public void apply(final Project target) {
             // TODO: Set appropriate attributes here
         });
 
+        if (target.getPlugins().getPlugin(MinecraftRepositoryPlugin.class).transformModifiers()) {
+            this.configureModifierTransforms(minecraft, minecraftConfig);
+        }
+
         final TaskProvider<DownloadAssetsTask> assets = this.createAssetsDownload(minecraft, minecraftProvider, target.getTasks());
 
         this.createJarDecompile(minecraftConfig, minecraftProvider, minecraft);
@@ -146,6 +173,38 @@ public void apply(final Project target) {
         });
     }
 
+    private void configureModifierTransforms(
+        final MinecraftExtensionImpl minecraft,
+        final NamedDomainObjectProvider<Configuration> minecraftConfig
+    ) {
+        final DependencyHandler dependencies = this.project.getDependencies();
+        final Attribute<String> artifactType = Attribute.of("artifactType", String.class);
+        // Minecraft variants are marked as unmodified by a component metadata rule, so only they are transformed
+        dependencies.getAttributesSchema().attribute(AccessWidenerTransform.MODIFIED);
+
+        final Configuration accessWidenerTool = this.project.getConfigurations().getByName(ResolvableTool.ACCESS_WIDENER.id());
+        dependencies.registerTransform(AccessWidenerTransform.class, spec -> {
+            spec.getFrom().attribute(artifactType, ArtifactTypeDefinition.JAR_TYPE).attribute(AccessWidenerTransform.MODIFIED, false);
+            spec.getTo().attribute(artifactType, ArtifactTypeDefinition.JAR_TYPE).attribute(AccessWidenerTransform.MODIFIED, true);
+            spec.parameters(parameters -> {
+                parameters.getAccessWideners().from(minecraft.accessWideners());
+                parameters.getToolClasspath().from(accessWidenerTool);
+                parameters.getDaemonScopedToolLoaders().set(this.project.getPlugins().getPlugin(MinecraftRepositoryPlugin.class).daemonScopedToolLoaders());
+            });
+        });
+
+        // Request modified artifacts wherever the Minecraft jar ends up being resolved
+        minecraftConfig.configure(config -> config.getAttributes().attribute(AccessWidenerTransform.MODIFIED, true));
+        this.project.getPlugins().withType(JavaPlugin.class, $ -> {
+            Stream.of(
+                JavaPlugin.COMPILE_CLASSPATH_CONFIGURATION_NAME,
+                JavaPlugin.RUNTIME_CLASSPATH_CONFIGURATION_NAME,
+                JavaPlugin.TEST_COMPILE_CLASSPATH_CONFIGURATION_NAME,
+                JavaPlugin.TEST_RUNTIME_CLASSPATH_CONFIGURATION_NAME
+            ).forEach(name -> this.project.getConfigurations().named(name, config -> config.getAttributes().attribute(AccessWidenerTransform.MODIFIED, true)));
+        });
+    }
+
     private void configureRepositories(final MinecraftRepositoryExtension extension, final RepositoryHandler handler) {
         if (extension.injectRepositories().get()) {
             Constants.Repositories.applyTo(handler);
@@ -177,14 +236,81 @@ private TaskProvider<DecompileJarTask> createJarDecompile(
             }
             return Objects.requireNonNull(dep.getVersion(),"No version provided for MC dependency");
         });
-
-        return this.project.getTasks().register(Constants.Tasks.DECOMPILE, DecompileJarTask.class, task -> {
+        final Provider<String> decoratedArtifact = platform.map(p -> ArtifactModifier.decorateArtifactId(p.artifactId(), extension.modifiers()));
+        // Determine which parts of the configuration are MC, and which are its dependencies
+        final Provider<Set<File>> dependencies = minecraftActifacts.map(artifacts -> {
+            final Set<File> files = new LinkedHashSet<>();
+            for (final ResolvedArtifactResult artifact : artifacts) {
+                if (!ProvideMinecraftPlugin.isMinecraftArtifact(artifact)) {
+                    files.add(artifact.getFile());
+                }
+            }
+            return files;
+        });
+        final Provider<Directory> outputDir = this.project.getLayout().getBuildDirectory().dir(Constants.NAME + "/decompiled");
+        // Resolved as a task input only when a modifier might need it, so the tasks never resolve configurations themselves
+        final Configuration accessWidenerTool = this.project.getConfigurations().getByName(ResolvableTool.ACCESS_WIDENER.id());
+        final Provider<Object> accessWidenerClasspath = this.project.provider(() -> extension.modifiers().isEmpty()
+            ? Collections.emptyList()
+            : accessWidenerTool.getIncoming().getFiles());
+
+        final Provider<String> artifactName = decoratedArtifact.zip(version, (id, ver) -> id + '-' + ver);
+        final Action<AbstractDecompileTask> configureDecompiler = task -> {
             task.getMinecraftPlatform().set(platform);
             task.getMinecraftVersion().set(version);
-            task.getInputArtifacts().set(minecraftActifacts);
+            task.getDecoratedArtifactId().set(decoratedArtifact);
+            task.getDecompileClasspath().from(dependencies);
+            // Describes this machine rather than the sources, so kept out of the cacheable outputs
+            task.getResourcePlan().set(this.project.getLayout().getBuildDirectory().file("tmp/" + task.getName() + "/decompile-plan.properties"));
             task.getMinecraftProvider().set(minecraftProvider);
+            task.getModifiers().set(this.project.provider(extension::modifiers));
+            task.getAccessWidenerClasspath().from(accessWidenerClasspath);
             task.setWorkerClasspath(forgeFlowerClasspath);
+            task.getClassCache().set(extension.sharedCache().dir(Constants.Directories.DECOMPILED_CLASSES));
+            task.getWarmWorker().set(this.project.getProviders().gradleProperty(ProvideMinecraftPlugin.GRADLE_PROPERTY_WARM_DECOMPILER)
+                .forUseAtConfigurationTime()
+                .map(Boolean::parseBoolean)
+                .orElse(false));
+            task.getDecompilerEngine().set(this.project.getProviders().gradleProperty(ProvideMinecraftPlugin.GRADLE_PROPERTY_DECOMPILER_ENGINE)
+                .forUseAtConfigurationTime()
+                .orElse(DecompilerEngine.DEFAULT));
+        };
+
+        final TaskProvider<DecompileJarTask> decompile = this.project.getTasks().register(Constants.Tasks.DECOMPILE, DecompileJarTask.class, task -> {
+            configureDecompiler.execute(task);
+            task.getOutputJar().set(outputDir.zip(artifactName, (dir, name) -> dir.file(name + "-sources.jar")));
+            task.getLineMappedJar().set(outputDir.zip(artifactName, (dir, name) -> dir.file(name + "-linemapped.jar")));
+            task.getSourcesStore().set(extension.sharedCache().dir(Constants.Directories.DECOMPILED_SOURCES));
+        });
+
+        this.project.getTasks().register(Constants.Tasks.DECOMPILE_CLASSES, DecompileClassesTask.class, task -> {
+            configureDecompiler.execute(task);
+            task.getOutputJar().set(outputDir.zip(artifactName, (dir, name) -> dir.file(name + "-partial-sources.jar")));
+        });
+
+        final TaskProvider<InstallDecompiledJarTask> install = this.project.getTasks().register(Constants.Tasks.INSTALL_DECOMPILED, InstallDecompiledJarTask.class, task -> {
+            task.getMinecraftPlatform().set(platform);
+            task.getMinecraftVersion().set(version);
+            task.getMinecraftProvider().set(minecraftProvider);
+            task.getModifiers().set(this.project.provider(extension::modifiers));
+            task.getAccessWidenerClasspath().from(accessWidenerClasspath);
+            task.getSourcesJar().set(decompile.flatMap(DecompileJarTask::getOutputJar));
+            task.getLineMappedJar().set(decompile.flatMap(DecompileJarTask::getLineMappedJar));
+            task.getForced().set(decompile.map(d -> d.getForced().getOrElse(false) || d.getState().getDidWork()));
         });
+        decompile.configure(task -> task.finalizedBy(install));
+
+        return decompile;
+    }
+
+    private static boolean isMinecraftArtifact(final ResolvedArtifactResult artifact) {
+        if (!(artifact.getId() instanceof ModuleComponentArtifactIdentifier)) {
+            return false;
+        }
+        final ModuleComponentIdentifier id = ((ModuleComponentArtifactIdentifier) artifact.getId()).getComponentIdentifier();
+        // modules may be decorated with modifiers, as <platform>_<modifier>...
+        return id.getGroup().equals(MinecraftPlatform.GROUP)
+            && MinecraftPlatform.byId(id.getModule().split(String.valueOf(ArtifactModifier.ENTRY_SEPARATOR), 2)[0]).isPresent();
     }
 
     private @Nullable Dependency extractMinecraftDependency(final DependencySet dependencies) {
@@ -248,6 +374,7 @@ private TaskProvider<DownloadAssetsTask> createAssetsDownload(final MinecraftExt
         final TaskProvider<DownloadAssetsTask> downloadAssets = tasks.register(Constants.Tasks.DOWNLOAD_ASSETS, DownloadAssetsTask.class, task -> {
             task.dependsOn(gatherNatives);
             task.getAssetsDirectory().set(assetsDir);
+            task.getAssetSources().from(minecraft.assetSources());
             task.getTargetVersion().set(targetVersion);
             task.getMinecraftProvider().set(minecraftProvider);
         });
@@ -0,0 +1,299 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.bundler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+/**
+ * Access to the files nested inside a bundler jar.
+ *
+ * <p>The bundler stores its nested jars uncompressed, so their contents are
+ * one contiguous region of the outer file. Those regions are transferred
+ * directly between file channels rather than being streamed through
+ * a {@link JarFile}.</p>
+ */
+public final class BundleEntries implements AutoCloseable {
+
+    private static final String LIBRARIES_PREFIX = "META-INF/libraries/";
+    // Within a library repository, lists the coordinates extracted from each bundle
+    private static final String MODULE_INDEX = ".bundles";
+
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_COMMENT_LENGTH = 0xffff;
+    private static final long ZIP64_MARKER = 0xffffffffL;
+
+    private final Path bundle;
+    private final FileChannel channel;
+    private final Map<String, Region> storedEntries;
+
+    /**
+     * Open a bundler jar.
+     *
+     * @param bundle the bundler jar
+     * @return the entries of the bundle
+     * @throws IOException if the jar could not be read
+     */
+    public static BundleEntries open(final Path bundle) throws IOException {
+        final FileChannel channel = FileChannel.open(bundle, StandardOpenOption.READ);
+        try {
+            return new BundleEntries(bundle, channel, BundleEntries.readStoredEntries(channel));
+        } catch (final IOException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    private BundleEntries(final Path bundle, final FileChannel channel, final Map<String, Region> storedEntries) {
+        this.bundle = bundle;
+        this.channel = channel;
+        this.storedEntries = storedEntries;
+    }
+
+    /**
+     * Copy a nested element of the bundle out to a file.
+     *
+     * @param element the element to copy
+     * @param output the destination, which will be replaced if it exists
+     * @throws IOException if the element is missing or could not be copied
+     */
+    public void extract(final BundleElement element, final Path output) throws IOException {
+        final Region region = this.storedEntries.get(element.path());
+        if (region == null) {
+            // compressed, or stored in a way we don't read ourselves
+            this.extractFromJar(element, output);
+            return;
+        }
+
+        try (final FileChannel out = FileChannel.open(
+            output,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING
+        )) {
+            long position = region.offset;
+            long remaining = region.size;
+            while (remaining > 0) {
+                final long transferred = this.channel.transferTo(position, remaining, out);
+                if (transferred <= 0) {
+                    throw new IOException("Unexpected end of " + this.bundle + " while extracting " + element.path());
+                }
+                position += transferred;
+                remaining -= transferred;
+            }
+        }
+    }
+
+    /**
+     * Copy every library in the bundle into a maven-layout repository.
+     *
+     * <p>Libraries already present in the repository are left untouched. The
+     * coordinates of every library are recorded, to be read back with
+     * {@link #extractedModules(Path)}.</p>
+     *
+     * @param metadata the bundle's metadata
+     * @param repository the repository root
+     * @throws IOException if any library could not be copied
+     */
+    public void extractLibraries(final BundlerMetadata metadata, final Path repository) throws IOException {
+        final Set<String> modules = new TreeSet<>();
+        for (final BundleElement library : metadata.libraries()) {
+            if (!library.path().startsWith(BundleEntries.LIBRARIES_PREFIX)) {
+                continue;
+            }
+            modules.add(library.id());
+            final Path destination = repository.resolve(library.path().substring(BundleEntries.LIBRARIES_PREFIX.length()));
+            if (Files.isRegularFile(destination)) {
+                continue;
+            }
+            Files.createDirectories(destination.getParent());
+            final Path temp = Files.createTempFile(destination.getParent(), destination.getFileName().toString(), ".tmp");
+            try {
+                this.extract(library, temp);
+                Files.move(temp, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+        BundleEntries.writeModuleIndex(repository.resolve(BundleEntries.MODULE_INDEX).resolve(this.bundle.getFileName() + ".txt"), modules);
+    }
+
+    /**
+     * Read the coordinates of every library that has been extracted into a
+     * repository by {@link #extractLibraries(BundlerMetadata, Path)}.
+     *
+     * @param repository the repository root
+     * @return the maven coordinates of each library
+     * @throws IOException if the index could not be read
+     */
+    public static Set<String> extractedModules(final Path repository) throws IOException {
+        final Path index = repository.resolve(BundleEntries.MODULE_INDEX);
+        if (!Files.isDirectory(index)) {
+            return Collections.emptySet();
+        }
+        final Set<String> modules = new TreeSet<>();
+        try (final DirectoryStream<Path> bundles = Files.newDirectoryStream(index, "*.txt")) {
+            for (final Path bundle : bundles) {
+                modules.addAll(Files.readAllLines(bundle, StandardCharsets.UTF_8));
+            }
+        }
+        return modules;
+    }
+
+    private static void writeModuleIndex(final Path indexFile, final Set<String> modules) throws IOException {
+        final List<String> lines = new ArrayList<>(modules);
+        if (Files.isRegularFile(indexFile) && Files.readAllLines(indexFile, StandardCharsets.UTF_8).equals(lines)) {
+            return;
+        }
+        Files.createDirectories(indexFile.getParent());
+        final Path temp = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, lines, StandardCharsets.UTF_8);
+            Files.move(temp, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void extractFromJar(final BundleElement element, final Path output) throws IOException {
+        try (final JarFile jar = new JarFile(this.bundle.toFile())) {
+            final ZipEntry entry = jar.getEntry(element.path());
+            if (entry == null) {
+                throw new IOException("Could not locate " + element.id() + " in " + this.bundle + " at " + element.path());
+            }
+            try (final InputStream is = jar.getInputStream(entry)) {
+                Files.copy(is, output, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    // Locate the data of every uncompressed entry from the central directory
+    private static Map<String, Region> readStoredEntries(final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final int tailLength = (int) Math.min(size, BundleEntries.END_OF_CENTRAL_DIRECTORY_SIZE + BundleEntries.MAX_COMMENT_LENGTH);
+        final ByteBuffer tail = BundleEntries.read(channel, size - tailLength, tailLength);
+        int endRecord = -1;
+        for (int i = tailLength - BundleEntries.END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == BundleEntries.END_OF_CENTRAL_DIRECTORY) {
+                endRecord = i;
+                break;
+            }
+        }
+        if (endRecord == -1) {
+            throw new IOException("Not a zip file: no end of central directory record found");
+        }
+
+        final long directorySize = Integer.toUnsignedLong(tail.getInt(endRecord + 12));
+        final long directoryOffset = Integer.toUnsignedLong(tail.getInt(endRecord + 16));
+        if (directorySize == BundleEntries.ZIP64_MARKER || directoryOffset == BundleEntries.ZIP64_MARKER) {
+            return new HashMap<>(); // zip64, let JarFile deal with it
+        }
+
+        final ByteBuffer directory = BundleEntries.read(channel, directoryOffset, (int) directorySize);
+        final Map<String, Region> entries = new HashMap<>();
+        final ByteBuffer localHeader = ByteBuffer.allocate(30).order(ByteOrder.LITTLE_ENDIAN);
+        int pos = 0;
+        while (pos + 46 <= directorySize && directory.getInt(pos) == BundleEntries.CENTRAL_DIRECTORY_HEADER) {
+            final int method = Short.toUnsignedInt(directory.getShort(pos + 10));
+            final long compressedSize = Integer.toUnsignedLong(directory.getInt(pos + 20));
+            final int nameLength = Short.toUnsignedInt(directory.getShort(pos + 28));
+            final int extraLength = Short.toUnsignedInt(directory.getShort(pos + 30));
+            final int commentLength = Short.toUnsignedInt(directory.getShort(pos + 32));
+            final long headerOffset = Integer.toUnsignedLong(directory.getInt(pos + 42));
+            if (method == ZipEntry.STORED && compressedSize != BundleEntries.ZIP64_MARKER && headerOffset != BundleEntries.ZIP64_MARKER) {
+                final byte[] name = new byte[nameLength];
+                directory.position(pos + 46);
+                directory.get(name);
+
+                // the local header's variable-length fields can differ from the central directory's
+                localHeader.clear();
+                BundleEntries.readFully(channel, headerOffset, localHeader);
+                if (localHeader.getInt(0) != BundleEntries.LOCAL_FILE_HEADER) {
+                    throw new IOException("Invalid local file header at offset " + headerOffset);
+                }
+                final long dataOffset = headerOffset + 30
+                    + Short.toUnsignedInt(localHeader.getShort(26))
+                    + Short.toUnsignedInt(localHeader.getShort(28));
+                entries.put(new String(name, StandardCharsets.UTF_8), new Region(dataOffset, compressedSize));
+            }
+            pos += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    private static ByteBuffer read(final FileChannel channel, final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        BundleEntries.readFully(channel, position, buffer);
+        return buffer;
+    }
+
+    private static void readFully(final FileChannel channel, final long position, final ByteBuffer buffer) throws IOException {
+        long pos = position;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, pos);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at offset " + pos);
+            }
+            pos += read;
+        }
+    }
+
+    private static final class Region {
+        final long offset;
+        final long size;
+
+        Region(final long offset, final long size) {
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.bundler;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A persistent cache of {@link BundlerMetadata}, keyed by the SHA-1 hash of
+ * the jar it was read from.
+ *
+ * <p>Minecraft jars are already identified by their hash in the version
+ * manifest, so once a jar's metadata is known it can be looked up without
+ * opening the jar again. Jars that are not bundles are recorded as well.</p>
+ */
+public final class BundlerMetadataCache {
+
+    private static final String EXTENSION = ".bundler";
+    private static final int FORMAT = 1;
+
+    private static final String NOT_BUNDLED = "none";
+    private static final String VERSION = "format";
+    private static final String MAIN_CLASS = "main";
+    private static final String SERVER = "server";
+    private static final String LIBRARY = "library";
+
+    // Metadata is immutable for a given hash, so it can be shared for the lifetime of the daemon
+    private static final ConcurrentMap<String, Optional<BundlerMetadata>> LOADED = new ConcurrentHashMap<>();
+
+    private BundlerMetadataCache() {
+    }
+
+    /**
+     * Get the bundler metadata for a jar, only reading the jar itself if
+     * nothing has been recorded for its hash yet.
+     *
+     * @param jar the jar to read
+     * @param sha1 the expected SHA-1 hash of the jar, as a hex string
+     * @return parsed metadata, or an empty optional if the jar is not a bundle
+     * @throws IOException if an error occurs while reading the jar or cache
+     */
+    public static Optional<BundlerMetadata> read(final Path jar, final String sha1) throws IOException {
+        final @Nullable Optional<BundlerMetadata> loaded = BundlerMetadataCache.LOADED.get(sha1);
+        if (loaded != null) {
+            return loaded;
+        }
+
+        final Path cacheFile = jar.resolveSibling(jar.getFileName() + BundlerMetadataCache.EXTENSION);
+        @Nullable Optional<BundlerMetadata> result = BundlerMetadataCache.readCache(cacheFile, sha1);
+        if (result == null) {
+            result = BundlerMetadata.read(jar);
+            BundlerMetadataCache.writeCache(cacheFile, sha1, result.orElse(null));
+        }
+        BundlerMetadataCache.LOADED.putIfAbsent(sha1, result);
+        return result;
+    }
+
+    private static @Nullable Optional<BundlerMetadata> readCache(final Path cacheFile, final String sha1) throws IOException {
+        if (!Files.isRegularFile(cacheFile)) {
+            return null;
+        }
+
+        try (final BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            if (!(BundlerMetadataCache.FORMAT + " " + sha1).equals(reader.readLine())) {
+                return null; // stale, or from another version of this cache
+            }
+
+            @Nullable FormatVersion version = null;
+            @Nullable String mainClass = null;
+            @Nullable BundleElement server = null;
+            final Set<BundleElement> libraries = new HashSet<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int split = line.indexOf(' ');
+                final String key = split == -1 ? line : line.substring(0, split);
+                final String value = split == -1 ? "" : line.substring(split + 1);
+                switch (key) {
+                    case BundlerMetadataCache.NOT_BUNDLED:
+                        return Optional.empty();
+                    case BundlerMetadataCache.VERSION:
+                        version = FormatVersion.parse(value);
+                        break;
+                    case BundlerMetadataCache.MAIN_CLASS:
+                        mainClass = value;
+                        break;
+                    case BundlerMetadataCache.SERVER:
+                        server = BundlerMetadataCache.element(value);
+                        break;
+                    case BundlerMetadataCache.LIBRARY:
+                        libraries.add(BundlerMetadataCache.element(value));
+                        break;
+                    default:
+                        return null;
+                }
+            }
+
+            if (version == null || server == null) {
+                return null;
+            }
+            return Optional.of(BundlerMetadata.of(version, Collections.unmodifiableSet(libraries), server, mainClass));
+        } catch (final IllegalArgumentException ex) {
+            return null; // corrupt, re-read from the jar
+        }
+    }
+
+    private static void writeCache(final Path cacheFile, final String sha1, final @Nullable BundlerMetadata metadata) throws IOException {
+        final Path temp = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+        try {
+            try (final BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(BundlerMetadataCache.FORMAT + " " + sha1);
+                writer.newLine();
+                if (metadata == null) {
+                    writer.write(BundlerMetadataCache.NOT_BUNDLED);
+                    writer.newLine();
+                } else {
+                    writer.write(BundlerMetadataCache.VERSION + " " + metadata.version().major() + "." + metadata.version().minor());
+                    writer.newLine();
+                    if (metadata.mainClass() != null) {
+                        writer.write(BundlerMetadataCache.MAIN_CLASS + " " + metadata.mainClass());
+                        writer.newLine();
+                    }
+                    BundlerMetadataCache.writeElement(writer, BundlerMetadataCache.SERVER, metadata.server());
+                    for (final BundleElement library : metadata.libraries()) {
+                        BundlerMetadataCache.writeElement(writer, BundlerMetadataCache.LIBRARY, library);
+                    }
+                }
+            }
+            Files.move(temp, cacheFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeElement(final BufferedWriter writer, final String key, final BundleElement element) throws IOException {
+        writer.write(key + " " + element.sha256() + '\t' + element.id() + '\t' + element.path());
+        writer.newLine();
+    }
+
+    private static BundleElement element(final String value) {
+        final String[] split = value.split("\t", 3);
+        if (split.length != 3) {
+            throw new IllegalArgumentException("Invalid bundle element " + value);
+        }
+        return BundleElement.of(split[0], split[1], split[2]);
+    }
+
+}
@@ -24,35 +24,134 @@
  */
 package org.spongepowered.gradle.vanilla.internal.model;
 
-import org.immutables.gson.Gson;
-import org.immutables.value.Value;
+import com.google.gson.stream.JsonReader;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.gradle.vanilla.resolver.HashAlgorithm;
 
-import java.util.Map;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BiConsumer;
 
-@Value.Immutable
-@Gson.TypeAdapters
-public interface AssetIndex {
+/**
+ * An index of the assets used by a Minecraft version.
+ *
+ * <p>Indices list several thousand objects, so rather than materializing the
+ * whole index, its objects are streamed to a consumer as they are read.</p>
+ */
+public final class AssetIndex {
+
+    private static final String OBJECTS = "objects";
+    private static final String HASH = "hash";
+    private static final String SIZE = "size";
+
+    private AssetIndex() {
+    }
+
+    /**
+     * Read every object in an asset index.
+     *
+     * @param index the index file
+     * @param consumer a consumer receiving each asset with its name
+     * @throws IOException if the index could not be read or was malformed
+     */
+    public static void read(final Path index, final BiConsumer<String, Asset> consumer) throws IOException {
+        try (final JsonReader reader = new JsonReader(Files.newBufferedReader(index, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!reader.nextName().equals(AssetIndex.OBJECTS)) {
+                    reader.skipValue(); // virtual, map_to_resources
+                    continue;
+                }
 
-    Map<String, Asset> objects();
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    final String name = reader.nextName();
+                    consumer.accept(name, AssetIndex.readAsset(reader, name));
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+        } catch (final IllegalStateException | NumberFormatException ex) {
+            throw new IOException("Malformed asset index " + index, ex);
+        }
+    }
+
+    private static Asset readAsset(final JsonReader reader, final String name) throws IOException {
+        @Nullable String hash = null;
+        int size = -1;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case AssetIndex.HASH:
+                    hash = reader.nextString();
+                    break;
+                case AssetIndex.SIZE:
+                    size = reader.nextInt();
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
 
-    @Value.Immutable
-    @Gson.TypeAdapters
-    interface Asset {
+        if (hash == null || size < 0) {
+            throw new IOException("Incomplete asset entry for " + name);
+        }
+        return new Asset(AssetIndex.parseHash(hash), size);
+    }
+
+    private static byte[] parseHash(final String hash) {
+        if (hash.length() % 2 != 0) {
+            throw new IllegalStateException("Invalid hash " + hash);
+        }
+        final byte[] bytes = new byte[hash.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            final int high = Character.digit(hash.charAt(i * 2), 16);
+            final int low = Character.digit(hash.charAt(i * 2 + 1), 16);
+            if (high == -1 || low == -1) {
+                throw new IllegalStateException("Invalid hash " + hash);
+            }
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * A single object in the index.
+     *
+     * <p>Only the raw hash and size are held, to keep the many in-flight
+     * assets small.</p>
+     */
+    public static final class Asset {
+
+        private final byte[] hash;
+        private final int size;
+
+        Asset(final byte[] hash, final int size) {
+            this.hash = hash;
+            this.size = size;
+        }
 
         /**
          * The SHA-1 hash of an asset.
          *
          * @return the asset's hash as a string
          */
-        @Value.Parameter
-        String hash();
+        public String hash() {
+            return HashAlgorithm.toHexString(this.hash);
+        }
 
-        @Value.Parameter
-        int size();
+        public int size() {
+            return this.size;
+        }
 
-        default String fileName() {
-            return this.hash().substring(0, 2) + "/" + this.hash();
+        public String fileName() {
+            final String hash = this.hash();
+            return hash.substring(0, 2) + "/" + hash;
         }
+
     }
 
 }
@@ -36,6 +36,7 @@
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -48,6 +49,9 @@
 final class DownloaderBasedVersionManifestRepository implements VersionManifestRepository {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DownloaderBasedVersionManifestRepository.class);
+    private static final String MANIFEST_SNAPSHOT = "manifest.bin";
+    // Descriptors are identified by their hash in the manifest, so parsed descriptors can be shared for the lifetime of the daemon
+    private static final Map<String, VersionDescriptor.Full> PARSED_DESCRIPTORS = new ConcurrentHashMap<>();
 
     private final Downloader downloader;
     private volatile @Nullable CompletableFuture<VersionManifestV2> manifest;
@@ -69,11 +73,29 @@ public CompletableFuture<VersionManifestV2> manifest() {
                 throw new IllegalStateException("Constant API URL failed to parse", ex);
             }
             this.manifest = manifest = this.downloader.readString(url, "manifest.json") // it's fine if we download multiple times, the downloader ensures we do it safely
-                .thenApply(res -> GsonUtils.GSON.fromJson(res.get(), VersionManifestV2.class)); // ensure it's present
+                .thenApply(res -> this.parseManifest(res.get())); // ensure it's present
         }
         return manifest;
     }
 
+    private VersionManifestV2 parseManifest(final String json) {
+        // Only go through Gson when the manifest has changed since we last saw it
+        final byte[] hash = HashAlgorithm.SHA1.digest().digest(json.getBytes(StandardCharsets.UTF_8));
+        final Path snapshot = this.downloader.baseDir().resolve(DownloaderBasedVersionManifestRepository.MANIFEST_SNAPSHOT);
+        final @Nullable VersionManifestV2 existing = VersionManifestSnapshot.read(snapshot, hash);
+        if (existing != null) {
+            return existing;
+        }
+
+        final VersionManifestV2 parsed = GsonUtils.GSON.fromJson(json, VersionManifestV2.class);
+        try {
+            VersionManifestSnapshot.write(snapshot, hash, parsed);
+        } catch (final IOException ex) {
+            DownloaderBasedVersionManifestRepository.LOGGER.debug("Failed to write version manifest snapshot to {}", snapshot, ex);
+        }
+        return parsed;
+    }
+
     @Override
     public CompletableFuture<List<? extends VersionDescriptor>> availableVersions() {
         return this.manifest().thenApply(manifest -> {
@@ -107,12 +129,20 @@ public CompletableFuture<ResolutionResult<VersionDescriptor.Full>> fullVersion(f
             if (option == null) {
                 return CompletableFuture.completedFuture(ResolutionResult.notFound());
             }
+            final VersionDescriptor.@Nullable Full parsed = DownloaderBasedVersionManifestRepository.PARSED_DESCRIPTORS.get(option.sha1());
+            if (parsed != null) {
+                return CompletableFuture.completedFuture(ResolutionResult.result(parsed, true));
+            }
             return this.downloader.readStringAndValidate(
                 option.url(),
                 "versions/" + option.id() + ".json",
                 HashAlgorithm.SHA1,
                 option.sha1()
-            ).thenApply(res -> res.mapIfPresent((upToDate, content) -> GsonUtils.GSON.fromJson(content, VersionDescriptor.Full.class)));
+            ).thenApply(res -> res.mapIfPresent((upToDate, content) -> {
+                final VersionDescriptor.Full descriptor = GsonUtils.GSON.fromJson(content, VersionDescriptor.Full.class);
+                DownloaderBasedVersionManifestRepository.PARSED_DESCRIPTORS.put(option.sha1(), descriptor);
+                return descriptor;
+            }));
         }));
     }
 
@@ -0,0 +1,179 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.model;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A binary snapshot of a parsed {@link VersionManifestV2}.
+ *
+ * <p>The snapshot is keyed by a hash of the JSON it was parsed from, so it
+ * can stand in for that JSON until the manifest changes upstream. Decoding
+ * it avoids Gson and date-time parsing entirely.</p>
+ */
+final class VersionManifestSnapshot {
+
+    private static final int MAGIC = 0x56475653; // VGVS
+    private static final int FORMAT = 1;
+
+    private VersionManifestSnapshot() {
+    }
+
+    /**
+     * Read a snapshot, if one exists for the provided source hash.
+     *
+     * @param snapshot the snapshot file
+     * @param sourceHash the hash of the manifest JSON
+     * @return the manifest, or {@code null} if no matching snapshot was found
+     */
+    static @Nullable VersionManifestV2 read(final Path snapshot, final byte[] sourceHash) {
+        if (!Files.isRegularFile(snapshot)) {
+            return null;
+        }
+
+        try {
+            // Read rather than mapped, as a mapping would keep the file from being replaced on Windows
+            final ByteBuffer buf = ByteBuffer.wrap(Files.readAllBytes(snapshot));
+            if (buf.getInt() != VersionManifestSnapshot.MAGIC || buf.getInt() != VersionManifestSnapshot.FORMAT) {
+                return null;
+            }
+            final byte[] storedHash = new byte[buf.get()];
+            buf.get(storedHash);
+            if (!Arrays.equals(storedHash, sourceHash)) {
+                return null;
+            }
+
+            final VersionManifestV2Impl.Builder builder = VersionManifestV2Impl.builder();
+            final int latestCount = buf.getInt();
+            for (int i = 0; i < latestCount; i++) {
+                builder.putLatest(VersionClassifier.valueOf(VersionManifestSnapshot.string(buf)), VersionManifestSnapshot.string(buf));
+            }
+
+            final int versionCount = buf.getInt();
+            for (int i = 0; i < versionCount; i++) {
+                final VersionDescriptorImpl.ReferenceImpl.Builder version = VersionDescriptorImpl.ReferenceImpl.builder()
+                    .id(VersionManifestSnapshot.string(buf))
+                    .type(VersionClassifier.valueOf(VersionManifestSnapshot.string(buf)))
+                    .url(new URL(VersionManifestSnapshot.string(buf)))
+                    .sha1(VersionManifestSnapshot.string(buf))
+                    .time(VersionManifestSnapshot.time(buf))
+                    .releaseTime(VersionManifestSnapshot.time(buf));
+                final int complianceLevel = buf.getInt();
+                if (complianceLevel != -1) {
+                    version.complianceLevel(complianceLevel);
+                }
+                builder.addVersion(version.build());
+            }
+            return builder.build();
+        } catch (final IOException | BufferUnderflowException | IllegalArgumentException | DateTimeException ex) {
+            return null; // unreadable snapshot, fall back to the JSON
+        }
+    }
+
+    /**
+     * Write a snapshot of a parsed manifest.
+     *
+     * @param snapshot the snapshot file
+     * @param sourceHash the hash of the manifest JSON
+     * @param manifest the manifest parsed from that JSON
+     * @throws IOException if the snapshot could not be written
+     */
+    static void write(final Path snapshot, final byte[] sourceHash, final VersionManifestV2 manifest) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(VersionManifestSnapshot.MAGIC);
+            out.writeInt(VersionManifestSnapshot.FORMAT);
+            out.writeByte(sourceHash.length);
+            out.write(sourceHash);
+
+            out.writeInt(manifest.latest().size());
+            for (final Map.Entry<VersionClassifier, String> latest : manifest.latest().entrySet()) {
+                VersionManifestSnapshot.string(out, latest.getKey().name());
+                VersionManifestSnapshot.string(out, latest.getValue());
+            }
+
+            out.writeInt(manifest.versions().size());
+            for (final VersionDescriptor.Reference version : manifest.versions()) {
+                VersionManifestSnapshot.string(out, version.id());
+                VersionManifestSnapshot.string(out, version.type().name());
+                VersionManifestSnapshot.string(out, version.url().toString());
+                VersionManifestSnapshot.string(out, version.sha1());
+                VersionManifestSnapshot.time(out, version.time());
+                VersionManifestSnapshot.time(out, version.releaseTime());
+                out.writeInt(version.complianceLevel().orElse(-1));
+            }
+        }
+
+        Files.createDirectories(snapshot.getParent());
+        final Path temp = Files.createTempFile(snapshot.getParent(), snapshot.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, bytes.toByteArray());
+            Files.move(temp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static String string(final ByteBuffer buf) {
+        final byte[] data = new byte[Short.toUnsignedInt(buf.getShort())];
+        buf.get(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static void string(final DataOutputStream out, final String value) throws IOException {
+        final byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        out.writeShort(data.length);
+        out.write(data);
+    }
+
+    private static ZonedDateTime time(final ByteBuffer buf) {
+        final Instant instant = Instant.ofEpochSecond(buf.getLong(), buf.getInt());
+        return ZonedDateTime.ofInstant(instant, ZoneId.of(VersionManifestSnapshot.string(buf)));
+    }
+
+    private static void time(final DataOutputStream out, final ZonedDateTime time) throws IOException {
+        out.writeLong(time.toEpochSecond());
+        out.writeInt(time.getNano());
+        VersionManifestSnapshot.string(out, time.getZone().getId());
+    }
+
+}
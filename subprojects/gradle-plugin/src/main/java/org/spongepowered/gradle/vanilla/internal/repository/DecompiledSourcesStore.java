@@ -0,0 +1,189 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.repository;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Decompiled sources shared by every project on a machine.
+ *
+ * <p>Each entry holds a sources jar and the matching line-mapped binary jar,
+ * keyed by a fingerprint of everything that determines their contents: the
+ * Minecraft version, the content of any modifiers, and the decompiler and
+ * its libraries. Projects with the same fingerprint, even in different root
+ * projects whose modified jars live in private caches, decompile only
+ * once.</p>
+ *
+ * <p>Entries are locked while they are produced, both within this process
+ * and between processes, so concurrent builds wait for one decompilation
+ * rather than each running their own.</p>
+ */
+public final class DecompiledSourcesStore {
+
+    private static final String SOURCES = "sources.jar";
+    private static final String LINE_MAPPED = "linemapped.jar";
+    private static final String LOCK_SUFFIX = ".lock";
+
+    // File locks are held per-process, so threads in the same process must also be excluded
+    private static final ConcurrentMap<Path, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+    private final Path root;
+
+    public DecompiledSourcesStore(final Path root) {
+        this.root = root;
+    }
+
+    /**
+     * Take exclusive ownership of an entry, waiting until any other owner
+     * in this or another process is done.
+     *
+     * @param fingerprint the entry fingerprint
+     * @return a lock to close once the entry has been read or written
+     * @throws IOException if the lock file could not be created
+     */
+    public Lock lock(final String fingerprint) throws IOException {
+        final Path lockFile = this.entry(fingerprint).resolveSibling(fingerprint + DecompiledSourcesStore.LOCK_SUFFIX);
+        Files.createDirectories(lockFile.getParent());
+        final ReentrantLock local = DecompiledSourcesStore.LOCKS.computeIfAbsent(lockFile.toAbsolutePath(), $ -> new ReentrantLock());
+        local.lock();
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            return new Lock(local, channel, channel.lock());
+        } catch (final IOException | RuntimeException ex) {
+            if (channel != null) {
+                channel.close();
+            }
+            local.unlock();
+            throw ex;
+        }
+    }
+
+    /**
+     * Copy an entry's jars out of the store, if it exists.
+     *
+     * @param fingerprint the entry fingerprint
+     * @param sources the destination of the sources jar
+     * @param lineMapped the destination of the line-mapped jar
+     * @return whether the entry existed
+     * @throws IOException if the entry could not be copied
+     */
+    public boolean retrieve(final String fingerprint, final Path sources, final Path lineMapped) throws IOException {
+        final Path entry = this.entry(fingerprint);
+        final Path storedSources = entry.resolve(DecompiledSourcesStore.SOURCES);
+        final Path storedLineMapped = entry.resolve(DecompiledSourcesStore.LINE_MAPPED);
+        if (!Files.isRegularFile(storedSources) || !Files.isRegularFile(storedLineMapped)) {
+            return false;
+        }
+        Files.createDirectories(sources.getParent());
+        Files.createDirectories(lineMapped.getParent());
+        Files.copy(storedSources, sources, StandardCopyOption.REPLACE_EXISTING);
+        Files.copy(storedLineMapped, lineMapped, StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    /**
+     * Store an entry, replacing any existing entry with the same fingerprint.
+     *
+     * <p>Both jars are copied to a temporary directory first, so readers
+     * never see a partially written entry.</p>
+     *
+     * @param fingerprint the entry fingerprint
+     * @param sources the sources jar
+     * @param lineMapped the line-mapped jar
+     * @throws IOException if the entry could not be written
+     */
+    public void store(final String fingerprint, final Path sources, final Path lineMapped) throws IOException {
+        final Path entry = this.entry(fingerprint);
+        Files.createDirectories(entry.getParent());
+        final Path temp = Files.createTempDirectory(entry.getParent(), fingerprint);
+        try {
+            Files.copy(sources, temp.resolve(DecompiledSourcesStore.SOURCES));
+            Files.copy(lineMapped, temp.resolve(DecompiledSourcesStore.LINE_MAPPED));
+            DecompiledSourcesStore.deleteRecursively(entry);
+            Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            DecompiledSourcesStore.deleteRecursively(temp);
+        }
+    }
+
+    private Path entry(final String fingerprint) {
+        return this.root.resolve(fingerprint.substring(0, 2)).resolve(fingerprint);
+    }
+
+    private static void deleteRecursively(final Path directory) throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (final Stream<Path> files = Files.walk(directory)) {
+            for (final Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Exclusive ownership of a store entry.
+     */
+    public static final class Lock implements AutoCloseable {
+        private final ReentrantLock local;
+        private final FileChannel channel;
+        private @Nullable FileLock lock;
+
+        Lock(final ReentrantLock local, final FileChannel channel, final FileLock lock) {
+            this.local = local;
+            this.channel = channel;
+            this.lock = lock;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.lock == null) {
+                return;
+            }
+            try {
+                this.lock.release();
+                this.channel.close();
+            } finally {
+                this.lock = null;
+                this.local.unlock();
+            }
+        }
+    }
+
+}
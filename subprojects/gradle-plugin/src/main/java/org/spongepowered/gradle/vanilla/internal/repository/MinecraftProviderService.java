@@ -24,10 +24,10 @@
  */
 package org.spongepowered.gradle.vanilla.internal.repository;
 
-import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.gradle.api.GradleException;
 import org.gradle.api.Project;
+import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.ConfigurationContainer;
 import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.provider.Property;
@@ -45,14 +45,20 @@
 import org.spongepowered.gradle.vanilla.repository.MinecraftResolver;
 import org.spongepowered.gradle.vanilla.repository.MinecraftResolverImpl;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Path;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public abstract class MinecraftProviderService implements
     BuildService<MinecraftProviderService.Parameters>,
@@ -64,7 +70,9 @@ public abstract class MinecraftProviderService implements
     private volatile @Nullable Downloader downloader;
     private volatile @Nullable MinecraftResolverImpl resolver;
     private volatile @Nullable VersionManifestRepository versions;
+    private volatile @Nullable ToolClassLoaderPool toolLoaders;
     private final ExecutorService executor;
+    private final ConcurrentMap<Configuration, URL[]> resolvedTools = new ConcurrentHashMap<>();
     private final ThreadLocal<ResolverState> activeState = ThreadLocal.withInitial(ResolverState::new);
 
     public interface Parameters extends BuildServiceParameters {
@@ -72,6 +80,8 @@ public interface Parameters extends BuildServiceParameters {
         DirectoryProperty getRootProjectCache(); // root project cache, used for any transformed artifacts that are reliant on project data
         Property<Boolean> getOfflineMode(); // gradle -o offline mode parameter, only resolve from local cache
         Property<Boolean> getRefreshDependencies(); // gradle --refresh-dependencies start parameter, ignore existing data in local cache
+        Property<Boolean> getDaemonScopedToolLoaders(); // keep tool class loaders alive for the lifetime of the Gradle daemon
+        Property<Boolean> getBundledLibraryRepository(); // expose libraries carried by server bundles as a local repository
     }
 
     public MinecraftProviderService() {
@@ -100,6 +110,25 @@ public void onFinish(final FinishEvent finishEvent) {
     public void primeResolver(final Project project, final Set<ArtifactModifier> modifiers) {
         final ResolverState state = this.activeState.get();
         state.configurationSource = project.getConfigurations();
+        state.toolClasspaths = null;
+        state.modifiers = modifiers;
+    }
+
+    /**
+     * Prepare the resolver to receive a resolution request from a task.
+     *
+     * <p>Unlike {@link #primeResolver(Project, Set)}, this does not resolve
+     * any configurations during the resolution. Tools are instead taken from
+     * classpaths the task has already had resolved as its inputs, so tasks in
+     * different projects can resolve at the same time.</p>
+     *
+     * @param toolClasspaths the resolved classpath of each tool that may be needed
+     * @param modifiers the artifact modifiers to apply to the eventual output artifact
+     */
+    public void primeResolver(final Map<ResolvableTool, ? extends Iterable<File>> toolClasspaths, final Set<ArtifactModifier> modifiers) {
+        final ResolverState state = this.activeState.get();
+        state.configurationSource = null;
+        state.toolClasspaths = toolClasspaths;
         state.modifiers = modifiers;
     }
 
@@ -154,6 +183,10 @@ public MinecraftResolver resolver() {
                         this.getParameters().getRootProjectCache().get().getAsFile().toPath().resolve(Constants.Directories.JARS),
                         this.executor,
                         this::resolveTool,
+                        this.toolLoaders(),
+                        this.getParameters().getBundledLibraryRepository().get()
+                            ? this.getParameters().getSharedCache().get().getAsFile().toPath().resolve(Constants.Directories.LIBRARIES)
+                            : null,
                         this.getParameters().getRefreshDependencies().get()
                     );
                 } else {
@@ -165,11 +198,25 @@ public MinecraftResolver resolver() {
     }
 
     private URL[] resolveTool(final ResolvableTool tool) {
-        final @Nullable ConfigurationContainer configurations = this.activeState.get().configurationSource;
+        final ResolverState state = this.activeState.get();
+        final @Nullable Map<ResolvableTool, ? extends Iterable<File>> toolClasspaths = state.toolClasspaths;
+        if (toolClasspaths != null) {
+            final @Nullable Iterable<File> classpath = toolClasspaths.get(tool);
+            if (classpath == null) {
+                throw new IllegalArgumentException("No classpath was provided for the tool " + tool.id());
+            }
+            return MinecraftProviderService.toUrls(StreamSupport.stream(classpath.spliterator(), false));
+        }
+        final @Nullable ConfigurationContainer configurations = state.configurationSource;
         if (configurations == null) {
             throw new IllegalArgumentException("Tried to perform a configuration resolution outside of a project-managed context!");
         }
-        return configurations.getByName(tool.id()).resolve().stream()
+        // Resolved configurations don't change for the rest of the build, so we only need to gather their files once
+        return this.resolvedTools.computeIfAbsent(configurations.getByName(tool.id()), config -> MinecraftProviderService.toUrls(config.resolve().stream()));
+    }
+
+    private static URL[] toUrls(final Stream<File> files) {
+        return files
             .map(file -> {
                 try {
                     return file.toURI().toURL();
@@ -180,6 +227,24 @@ private URL[] resolveTool(final ResolvableTool tool) {
             .toArray(URL[]::new);
     }
 
+    private ToolClassLoaderPool toolLoaders() {
+        @Nullable ToolClassLoaderPool toolLoaders = this.toolLoaders;
+        if (toolLoaders == null) {
+            synchronized (this) {
+                if (this.toolLoaders == null) {
+                    if (this.getParameters().getDaemonScopedToolLoaders().get()) {
+                        this.toolLoaders = toolLoaders = ToolClassLoaderPool.daemonScoped();
+                    } else {
+                        this.toolLoaders = toolLoaders = ToolClassLoaderPool.create();
+                    }
+                } else {
+                    return this.toolLoaders;
+                }
+            }
+        }
+        return toolLoaders;
+    }
+
     public VersionManifestRepository versions() {
         @Nullable VersionManifestRepository versions = this.versions;
         if (versions == null) {
@@ -217,11 +282,19 @@ public void close() throws IOException {
         if (downloader != null) {
             downloader.close();
         }
+
+        this.resolvedTools.clear();
+        final @Nullable ToolClassLoaderPool toolLoaders = this.toolLoaders;
+        this.toolLoaders = null;
+        if (toolLoaders != null) {
+            toolLoaders.close(); // no-op for daemon-scoped pools
+        }
     }
 
     static final class ResolverState {
 
-        @MonotonicNonNull ConfigurationContainer configurationSource;
+        @Nullable ConfigurationContainer configurationSource;
+        @Nullable Map<ResolvableTool, ? extends Iterable<File>> toolClasspaths;
         @Nullable Set<ArtifactModifier> modifiers;
 
     }
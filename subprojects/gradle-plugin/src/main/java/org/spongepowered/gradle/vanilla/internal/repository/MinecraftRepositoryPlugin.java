@@ -26,6 +26,7 @@
 
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.gradle.api.Action;
+import org.gradle.api.GradleException;
 import org.gradle.api.InvalidUserDataException;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
@@ -37,6 +38,7 @@
 import org.gradle.api.artifacts.dsl.DependencyHandler;
 import org.gradle.api.artifacts.dsl.RepositoryHandler;
 import org.gradle.api.artifacts.repositories.IvyArtifactRepository;
+import org.gradle.api.artifacts.repositories.MavenArtifactRepository;
 import org.gradle.api.initialization.Settings;
 import org.gradle.api.invocation.Gradle;
 import org.gradle.api.plugins.ExtensionAware;
@@ -46,17 +48,22 @@
 import org.spongepowered.gradle.vanilla.MinecraftExtension;
 import org.spongepowered.gradle.vanilla.internal.Constants;
 import org.spongepowered.gradle.vanilla.internal.MinecraftExtensionImpl;
+import org.spongepowered.gradle.vanilla.internal.bundler.BundleEntries;
 import org.spongepowered.gradle.vanilla.internal.model.VersionClassifier;
 import org.spongepowered.gradle.vanilla.internal.repository.modifier.ArtifactModifier;
 import org.spongepowered.gradle.vanilla.internal.repository.rule.JoinedProvidesClientAndServerRule;
 import org.spongepowered.gradle.vanilla.internal.repository.rule.MinecraftIvyModuleExtraDataApplierRule;
+import org.spongepowered.gradle.vanilla.internal.repository.rule.UnmodifiedArtifactRule;
 import org.spongepowered.gradle.vanilla.internal.util.ConfigurationUtils;
 import org.spongepowered.gradle.vanilla.repository.MinecraftPlatform;
 import org.spongepowered.gradle.vanilla.repository.MinecraftRepositoryExtension;
 import org.spongepowered.gradle.vanilla.repository.MinecraftResolver;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.regex.Pattern;
 
@@ -73,6 +80,12 @@ public class MinecraftRepositoryPlugin implements Plugin<Object> {
 
     private static final String GRADLE_PROPERTY_ROOT_PROJECT_CACHE = MinecraftRepositoryPlugin.GRADLE_PROPERTY_PREFIX + "projectCacheRoot";
 
+    private static final String GRADLE_PROPERTY_DAEMON_SCOPED_TOOLS = MinecraftRepositoryPlugin.GRADLE_PROPERTY_PREFIX + "daemonScopedToolLoaders";
+
+    private static final String GRADLE_PROPERTY_TRANSFORM_MODIFIERS = MinecraftRepositoryPlugin.GRADLE_PROPERTY_PREFIX + "transformModifiers";
+
+    private static final String GRADLE_PROPERTY_BUNDLED_LIBRARIES = MinecraftRepositoryPlugin.GRADLE_PROPERTY_PREFIX + "bundledLibraryRepository";
+
     /**
      * A variant of {@link IvyArtifactRepository#MAVEN_IVY_PATTERN} that takes
      * into account our metadata revision number.
@@ -83,6 +96,8 @@ public class MinecraftRepositoryPlugin implements Plugin<Object> {
 
     private final BuildEventsListenerRegistry repositoryServiceLifetimeHack;
     private @Nullable Provider<MinecraftProviderService> service;
+    private boolean transformModifiers;
+    private boolean daemonScopedToolLoaders;
 
     @Inject
     public MinecraftRepositoryPlugin(final BuildEventsListenerRegistry registry) {
@@ -111,9 +126,31 @@ public Provider<MinecraftProviderService> service() {
         return service;
     }
 
+    /**
+     * Whether artifact modifiers are applied by Gradle artifact transforms,
+     * rather than by the resolver when producing Minecraft artifacts.
+     *
+     * @return whether modifiers are applied as artifact transforms
+     */
+    public boolean transformModifiers() {
+        return this.transformModifiers;
+    }
+
+    /**
+     * Whether tool class loaders are kept alive for the lifetime of the Gradle
+     * daemon.
+     *
+     * @return whether tool loaders are daemon-scoped
+     */
+    public boolean daemonScopedToolLoaders() {
+        return this.daemonScopedToolLoaders;
+    }
+
     private void applyToProject(final Project project) {
         // Setup
         final ProviderFactory providers = project.getProviders();
+        this.transformModifiers = MinecraftRepositoryPlugin.booleanProperty(providers, MinecraftRepositoryPlugin.GRADLE_PROPERTY_TRANSFORM_MODIFIERS).get();
+        this.daemonScopedToolLoaders = MinecraftRepositoryPlugin.booleanProperty(providers, MinecraftRepositoryPlugin.GRADLE_PROPERTY_DAEMON_SCOPED_TOOLS).get();
         final Provider<File> sharedCacheDirectory = MinecraftRepositoryPlugin.resolveCache(
             project.getRootDir(),
             providers,
@@ -126,11 +163,11 @@ private void applyToProject(final Project project) {
             MinecraftRepositoryPlugin.GRADLE_PROPERTY_ROOT_PROJECT_CACHE,
             new File(project.getRootDir(), ".gradle")
         );
-        final Provider<MinecraftProviderService> service = this.registerService(project.getGradle(), sharedCacheDirectory, rootProjectCache);
+        final Provider<MinecraftProviderService> service = this.registerService(project.getGradle(), providers, sharedCacheDirectory, rootProjectCache);
 
         // Apply vanillagradle caches
         if (!project.getGradle().getPlugins().hasPlugin(MinecraftRepositoryPlugin.class)) {
-            this.createRepositories(project.getRepositories(), service, sharedCacheDirectory, rootProjectCache);
+            this.createRepositories(project.getRepositories(), providers, service, sharedCacheDirectory, rootProjectCache);
             this.registerComponentMetadataRules(project.getDependencies().getComponents());
             this.registerPostTaskListener(service, project.getGradle());
         }
@@ -189,13 +226,15 @@ private void configureResolutionStrategy(
                 // We need to bypass the metadata supplier, or else we will produce artifacts for every single version Gradle tests
                 final @Nullable String version = this.preProcessVersion(providerService, dep.getVersion());
                 if (extension != null) {
+                    // When modifiers are applied as artifact transforms, the resolver only provides the unmodified jar
+                    final Set<ArtifactModifier> modifiers = this.transformModifiers ? Collections.emptySet() : extension.modifiers();
                     dependency.useTarget(
                         MinecraftPlatform.GROUP
-                            + ':' + ArtifactModifier.decorateArtifactId(platform.get().artifactId(), extension.modifiers())
+                            + ':' + ArtifactModifier.decorateArtifactId(platform.get().artifactId(), modifiers)
                             + (version == null ? "" : ':' + version)
                     );
                     minecraftResolved[0] = true;
-                    service.get().primeResolver(project, extension.modifiers());
+                    service.get().primeResolver(project, modifiers);
                     final MinecraftResolver resolver = providerService.resolver();
 
                     // If we do have a version, try to resolve that fixed version
@@ -245,6 +284,8 @@ private void configureResolutionStrategy(
     private void applyToSettings(final Settings settings) {
         // Setup
         final ProviderFactory providers = settings.getProviders();
+        this.transformModifiers = MinecraftRepositoryPlugin.booleanProperty(providers, MinecraftRepositoryPlugin.GRADLE_PROPERTY_TRANSFORM_MODIFIERS).get();
+        this.daemonScopedToolLoaders = MinecraftRepositoryPlugin.booleanProperty(providers, MinecraftRepositoryPlugin.GRADLE_PROPERTY_DAEMON_SCOPED_TOOLS).get();
         final Provider<File> sharedCacheDirectory = MinecraftRepositoryPlugin.resolveCache(
             settings.getRootDir(),
             providers,
@@ -257,10 +298,10 @@ private void applyToSettings(final Settings settings) {
             MinecraftRepositoryPlugin.GRADLE_PROPERTY_ROOT_PROJECT_CACHE,
             new File(settings.getRootDir(), ".gradle")
         );
-        final Provider<MinecraftProviderService> service = this.registerService(settings.getGradle(), sharedCacheDirectory, rootProjectCache);
+        final Provider<MinecraftProviderService> service = this.registerService(settings.getGradle(), providers, sharedCacheDirectory, rootProjectCache);
 
         // Apply VanillaGradle caches
-        this.createRepositories(settings.getDependencyResolutionManagement().getRepositories(), service, sharedCacheDirectory, rootProjectCache);
+        this.createRepositories(settings.getDependencyResolutionManagement().getRepositories(), providers, service, sharedCacheDirectory, rootProjectCache);
         this.registerComponentMetadataRules(settings.getDependencyResolutionManagement().getComponents());
         this.registerPostTaskListener(service, settings.getGradle());
 
@@ -316,8 +357,16 @@ private static Provider<File> resolveCache(
             .map(loc -> new File(loc, "v" + MinecraftResolver.STORAGE_VERSION));
     }
 
+    private static Provider<Boolean> booleanProperty(final ProviderFactory providers, final String propertyName) {
+        return providers.gradleProperty(propertyName)
+            .forUseAtConfigurationTime()
+            .map(Boolean::parseBoolean)
+            .orElse(false);
+    }
+
     private void createRepositories(
         final RepositoryHandler repositories,
+        final ProviderFactory providers,
         final Provider<MinecraftProviderService> service,
         final Provider<File> sharedCache,
         final Provider<File> rootProjectCache
@@ -334,6 +383,34 @@ private void createRepositories(
             rootProjectCache.map(f -> new File(f, Constants.Directories.JARS)),
             service
         ));
+        // Libraries extracted from server bundles, so server-only builds don't have to download them again
+        if (MinecraftRepositoryPlugin.booleanProperty(providers, MinecraftRepositoryPlugin.GRADLE_PROPERTY_BUNDLED_LIBRARIES).get()) {
+            final File libraries = sharedCache.map(f -> new File(f, Constants.Directories.LIBRARIES)).get();
+            final Set<String> bundled;
+            try {
+                bundled = BundleEntries.extractedModules(libraries.toPath());
+            } catch (final IOException ex) {
+                throw new GradleException("Failed to read the index of bundled libraries in " + libraries, ex);
+            }
+            // Libraries are only extracted while resolving a server, so the first build downloads them as usual
+            if (!bundled.isEmpty()) {
+                repositories.maven(maven -> {
+                    maven.setName("VanillaGradle Bundled Libraries");
+                    maven.setUrl(libraries.toURI());
+                    // bundles only carry jars, but their library lists are already complete
+                    maven.metadataSources(MavenArtifactRepository.MetadataSources::artifact);
+                    // without a POM, any other module would lose its transitive dependencies
+                    maven.content(content -> {
+                        for (final String module : bundled) {
+                            final String[] coordinates = module.split(":");
+                            if (coordinates.length >= 3) {
+                                content.includeVersion(coordinates[0], coordinates[1], coordinates[2]);
+                            }
+                        }
+                    });
+                });
+            }
+        }
     }
 
     private static Action<IvyArtifactRepository> repositoryConfiguration(
@@ -370,11 +447,15 @@ private void registerComponentMetadataRules(final ComponentMetadataHandler handl
 
         for (final MinecraftPlatform platform : MinecraftPlatform.all()) {
             handler.withModule(platform.moduleName(), MinecraftIvyModuleExtraDataApplierRule.class);
+            if (this.transformModifiers) {
+                // only Minecraft artifacts are inputs to the modifier transforms
+                handler.withModule(platform.moduleName(), UnmodifiedArtifactRule.class);
+            }
         }
     }
 
     private Provider<MinecraftProviderService> registerService(
-        final Gradle gradle, final Provider<File> sharedCacheDir, final Provider<File> rootProjectCacheDir
+        final Gradle gradle, final ProviderFactory providers, final Provider<File> sharedCacheDir, final Provider<File> rootProjectCacheDir
     ) {
         final Provider<MinecraftProviderService> service = this.service = gradle.getSharedServices().registerIfAbsent("vanillaGradleMinecraft", MinecraftProviderService.class, params -> {
             final MinecraftProviderService.Parameters options = params.getParameters();
@@ -382,6 +463,8 @@ private Provider<MinecraftProviderService> registerService(
             options.getRootProjectCache().fileProvider(rootProjectCacheDir);
             options.getOfflineMode().set(gradle.getStartParameter().isOffline());
             options.getRefreshDependencies().set(gradle.getStartParameter().isRefreshDependencies());
+            options.getDaemonScopedToolLoaders().set(this.daemonScopedToolLoaders);
+            options.getBundledLibraryRepository().set(MinecraftRepositoryPlugin.booleanProperty(providers, MinecraftRepositoryPlugin.GRADLE_PROPERTY_BUNDLED_LIBRARIES));
         });
 
         // see https://github.com/diffplug/spotless/pull/720#issuecomment-713399731
@@ -30,7 +30,6 @@
  * Tools used for specific operations in the Minecraft preparation pipeline.
  */
 public enum ResolvableTool {
-    JAR_MERGE(Constants.Configurations.MERGETOOL, Constants.WorkerDependencies.MERGE_TOOL),
     ACCESS_WIDENER(Constants.Configurations.ACCESS_WIDENER, Constants.WorkerDependencies.ACCESS_WIDENER)
     ;
 
@@ -0,0 +1,197 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.repository;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongepowered.gradle.vanilla.internal.util.SelfPreferringClassLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A pool of class loaders for tools executed in-process.
+ *
+ * <p>Each tool has at most one loader, so a loader (and any code the JIT has
+ * compiled within it) is reused for as long as the tool's classpath is
+ * unchanged. A loader is replaced and closed once it is requested with a
+ * different classpath or parent, such as after the plugin itself has been
+ * updated or reloaded, or once a file on its classpath changes size or
+ * modification time.</p>
+ *
+ * <p>Loaders handed out by a pool are owned by the pool, and must not be
+ * closed by their users.</p>
+ */
+public final class ToolClassLoaderPool implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ToolClassLoaderPool.class);
+
+    private static volatile @Nullable ToolClassLoaderPool daemonPool;
+
+    private final ConcurrentMap<ResolvableTool, PooledLoader> loaders = new ConcurrentHashMap<>();
+    private final boolean shared;
+
+    private ToolClassLoaderPool(final boolean shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * Create a new pool, which will close its loaders when it is closed.
+     *
+     * @return a new pool
+     */
+    public static ToolClassLoaderPool create() {
+        return new ToolClassLoaderPool(false);
+    }
+
+    /**
+     * Get a pool that lives as long as the current Gradle daemon.
+     *
+     * <p>Closing this pool has no effect.</p>
+     *
+     * @return the daemon-scoped pool
+     */
+    public static ToolClassLoaderPool daemonScoped() {
+        @Nullable ToolClassLoaderPool pool = ToolClassLoaderPool.daemonPool;
+        if (pool == null) {
+            synchronized (ToolClassLoaderPool.class) {
+                if (ToolClassLoaderPool.daemonPool == null) {
+                    ToolClassLoaderPool.daemonPool = pool = new ToolClassLoaderPool(true);
+                } else {
+                    return ToolClassLoaderPool.daemonPool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Get a loader for a tool, creating one if necessary.
+     *
+     * @param tool the tool the loader is for
+     * @param classPath the classpath of the loader
+     * @param parent the parent loader
+     * @return a pooled class loader
+     */
+    public URLClassLoader loader(final ResolvableTool tool, final URL[] classPath, final ClassLoader parent) {
+        final List<String> urls = new ArrayList<>(classPath.length);
+        for (final URL url : classPath) {
+            urls.add(url.toExternalForm());
+        }
+        final long[] stamps = ToolClassLoaderPool.stamps(classPath);
+        final @Nullable URLClassLoader[] superseded = new URLClassLoader[1];
+        final PooledLoader pooled = this.loaders.compute(tool, ($, existing) -> {
+            if (existing != null) {
+                if (existing.parent == parent && existing.classPath.equals(urls) && Arrays.equals(existing.stamps, stamps)) {
+                    return existing;
+                }
+                superseded[0] = existing.loader;
+            }
+            ToolClassLoaderPool.LOGGER.debug("Creating new {} class loader for {}", tool.id(), urls);
+            return new PooledLoader(new SelfPreferringClassLoader(classPath, parent), parent, urls, stamps);
+        });
+
+        if (superseded[0] != null) {
+            // Any tool still running in the old loader has already loaded what it needs
+            try {
+                superseded[0].close();
+            } catch (final IOException ex) {
+                ToolClassLoaderPool.LOGGER.debug("Failed to close superseded {} class loader", tool.id(), ex);
+            }
+        }
+        return pooled.loader;
+    }
+
+    private static long[] stamps(final URL[] classPath) {
+        final long[] stamps = new long[classPath.length * 2];
+        for (int i = 0; i < classPath.length; i++) {
+            final @Nullable File file = ToolClassLoaderPool.toFile(classPath[i]);
+            if (file != null) {
+                stamps[i * 2] = file.length();
+                stamps[i * 2 + 1] = file.lastModified();
+            }
+        }
+        return stamps;
+    }
+
+    private static @Nullable File toFile(final URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (final URISyntaxException | IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.shared) {
+            return;
+        }
+
+        IOException error = null;
+        for (final PooledLoader pooled : this.loaders.values()) {
+            try {
+                pooled.loader.close();
+            } catch (final IOException ex) {
+                if (error == null) {
+                    error = ex;
+                } else {
+                    error.addSuppressed(ex);
+                }
+            }
+        }
+        this.loaders.clear();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private static final class PooledLoader {
+        final URLClassLoader loader;
+        final ClassLoader parent;
+        final List<String> classPath;
+        final long[] stamps;
+
+        PooledLoader(final URLClassLoader loader, final ClassLoader parent, final List<String> classPath, final long[] stamps) {
+            this.loader = loader;
+            this.parent = parent;
+            this.classPath = classPath;
+            this.stamps = stamps;
+        }
+    }
+
+}
@@ -29,26 +29,34 @@
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.spongepowered.gradle.vanilla.internal.repository.ResolvableTool;
 import org.spongepowered.gradle.vanilla.internal.resolver.AsyncUtils;
+import org.spongepowered.gradle.vanilla.internal.resolver.FileFingerprints;
+import org.spongepowered.gradle.vanilla.internal.transformer.ClassReferenceIndex;
 import org.spongepowered.gradle.vanilla.repository.MinecraftResolver;
 import org.spongepowered.gradle.vanilla.resolver.HashAlgorithm;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.CompletableFuture;
-import java.util.function.Function;
+import java.util.function.BiFunction;
 import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public final class AccessWidenerModifier implements ArtifactModifier {
 
-    private static final String KEY = "aw";
+    static final String KEY = "aw";
+    private static final String HEADER = "accessWidener";
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
 
     private final Set<Path> wideners;
     private volatile @MonotonicNonNull String stateKey;
@@ -67,14 +75,12 @@ public String key() {
     @Override
     public String stateKey() {
         if (this.stateKey == null) {
+            // Per-file digests are shared across projects, so only the combination is computed here
+            final FileFingerprints fingerprints = FileFingerprints.shared();
             final MessageDigest digest = HashAlgorithm.SHA1.digest();
-            for (final Path widenerFile : this.wideners) {
-                try (final InputStream is = Files.newInputStream(widenerFile)) {
-                    final byte[] buf = new byte[4096];
-                    int read;
-                    while ((read = is.read(buf)) != -1) {
-                        digest.update(buf, 0, read);
-                    }
+            for (final Path widenerFile : new TreeSet<>(this.wideners)) {
+                try {
+                    digest.update(fingerprints.digest(widenerFile, HashAlgorithm.SHA1));
                 } catch (final IOException ex) {
                     // ignore, will show up when we try to actually access-widen the jar
                 }
@@ -84,38 +90,98 @@ public String stateKey() {
         return this.stateKey;
     }
 
-    @Override
+    /**
+     * Load the access widener worker from a class loader containing the
+     * access widener tool.
+     *
+     * <p>Only JDK types can cross into the tool's class loader, so the worker
+     * takes the widener files and a {@link ClassReferenceIndex} as plain
+     * collections.</p>
+     *
+     * @param loader the tool class loader
+     * @return a factory for access-widening transformers
+     * @throws ReflectiveOperationException if the worker could not be loaded
+     */
     @SuppressWarnings("unchecked")
+    static BiFunction<Set<Path>, Map<String, Set<String>>, Transformer> transformerFactory(final ClassLoader loader) throws ReflectiveOperationException {
+        return (BiFunction<Set<Path>, Map<String, Set<String>>, Transformer>) Class.forName(
+            "org.spongepowered.gradle.vanilla.internal.worker.AccessWidenerTransformerProvider",
+            true,
+            loader
+        )
+            .getConstructor()
+            .newInstance();
+    }
+
+    @Override
     public CompletableFuture<TransformerProvider> providePopulator(
         final MinecraftResolver.Context context
     ) {
         final Supplier<URLClassLoader> loaderProvider = context.classLoaderWithTool(ResolvableTool.ACCESS_WIDENER);
-        return AsyncUtils.failableFuture(() -> new TransformerProvider() {
+        return AsyncUtils.failableFuture(() -> new IncrementalTransformerProvider() {
             private final URLClassLoader loader = loaderProvider.get();
-            private @Nullable Function<Set<Path>, Transformer> accessWidenerLoader = (Function<Set<Path>, Transformer>) Class.forName(
-                "org.spongepowered.gradle.vanilla.internal.worker.AccessWidenerTransformerProvider",
-                true,
-                this.loader
-            )
-                .getConstructor()
-                .newInstance();
+            private @Nullable BiFunction<Set<Path>, Map<String, Set<String>>, Transformer> accessWidenerLoader =
+                AccessWidenerModifier.transformerFactory(this.loader);
 
             @Override
-            public Transformer provide() {
+            public Transformer provide(final Path inputJar) throws IOException {
                 if (this.accessWidenerLoader == null) {
                     throw new IllegalStateException("Already closed!");
                 }
-                return this.accessWidenerLoader.apply(AccessWidenerModifier.this.wideners);
+                return this.accessWidenerLoader.apply(AccessWidenerModifier.this.wideners, ClassReferenceIndex.forJar(inputJar));
+            }
+
+            @Override
+            public Set<String> stateEntries() throws IOException {
+                return AccessWidenerModifier.this.entries();
+            }
+
+            @Override
+            public @Nullable Set<String> affectedClasses(final Path inputJar, final Set<String> changedEntries) throws IOException {
+                final Map<String, Set<String>> referenceIndex = ClassReferenceIndex.forJar(inputJar);
+                final Set<String> affected = new HashSet<>();
+                for (final String entry : changedEntries) {
+                    final String[] tokens = AccessWidenerModifier.WHITESPACE.split(entry);
+                    if (tokens.length < 3 || tokens[0].equals(AccessWidenerModifier.HEADER)) {
+                        return null; // header changed, we can't narrow this down
+                    }
+                    // <access> <type> <owner> [<name> <descriptor>]
+                    final String owner = tokens[2];
+                    affected.add(owner);
+                    affected.addAll(referenceIndex.getOrDefault(owner, Collections.emptySet()));
+                }
+                return affected;
             }
 
             @Override
-            public void close() throws IOException {
-                this.loader.close();
+            public void close() {
+                // the loader itself is pooled by the resolver, so we only drop our reference
                 this.accessWidenerLoader = null;
             }
         }, context.executor());
     }
 
+    /**
+     * Read the normalized entries of every widener file, with comments and
+     * redundant whitespace removed.
+     *
+     * @return the widener entries
+     * @throws IOException if any widener could not be read
+     */
+    Set<String> entries() throws IOException {
+        final Set<String> entries = new HashSet<>();
+        for (final Path widenerFile : this.wideners) {
+            for (final String line : Files.readAllLines(widenerFile, StandardCharsets.UTF_8)) {
+                final int commentIdx = line.indexOf('#');
+                final String entry = (commentIdx == -1 ? line : line.substring(0, commentIdx)).trim();
+                if (!entry.isEmpty()) {
+                    entries.add(AccessWidenerModifier.WHITESPACE.matcher(entry).replaceAll(" "));
+                }
+            }
+        }
+        return entries;
+    }
+
     @Override
     public boolean requiresLocalStorage() {
         return true;
@@ -0,0 +1,146 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.repository.modifier;
+
+import net.minecraftforge.fart.api.Renamer;
+import org.gradle.api.GradleException;
+import org.gradle.api.artifacts.transform.CacheableTransform;
+import org.gradle.api.artifacts.transform.InputArtifact;
+import org.gradle.api.artifacts.transform.TransformAction;
+import org.gradle.api.artifacts.transform.TransformOutputs;
+import org.gradle.api.artifacts.transform.TransformParameters;
+import org.gradle.api.attributes.Attribute;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.FileSystemLocation;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.spongepowered.gradle.vanilla.internal.repository.ResolvableTool;
+import org.spongepowered.gradle.vanilla.internal.repository.ToolClassLoaderPool;
+import org.spongepowered.gradle.vanilla.internal.transformer.ClassReferenceIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Applies access wideners to Minecraft jars as a Gradle artifact transform.
+ *
+ * <p>This is an alternative to producing modified artifacts in the resolver,
+ * letting Gradle schedule the work in parallel and store the result in the
+ * build cache. Only Minecraft artifacts are marked as unmodified, so no other
+ * artifact is an input to this transform.</p>
+ */
+@CacheableTransform
+public abstract class AccessWidenerTransform implements TransformAction<AccessWidenerTransform.Parameters> {
+
+    /**
+     * An attribute marking whether modifiers have been applied to an artifact.
+     */
+    public static final Attribute<Boolean> MODIFIED = Attribute.of("org.spongepowered.gradle.vanilla.modified", Boolean.class);
+
+    public interface Parameters extends TransformParameters {
+
+        @InputFiles
+        @PathSensitive(PathSensitivity.NONE)
+        ConfigurableFileCollection getAccessWideners();
+
+        @Classpath
+        ConfigurableFileCollection getToolClasspath();
+
+        @Internal
+        Property<Boolean> getDaemonScopedToolLoaders();
+
+    }
+
+    @InputArtifact
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract Provider<FileSystemLocation> getInputArtifact();
+
+    @Override
+    public void transform(final TransformOutputs outputs) {
+        final File input = this.getInputArtifact().get().getAsFile();
+        final Set<File> wideners = this.getParameters().getAccessWideners().getFiles();
+        if (wideners.isEmpty()) {
+            outputs.file(input);
+            return;
+        }
+
+        final String fileName = input.getName();
+        final File output = outputs.file(fileName.substring(0, fileName.length() - ".jar".length()) + "-" + AccessWidenerModifier.KEY + ".jar");
+        try {
+            if (this.getParameters().getDaemonScopedToolLoaders().get()) {
+                this.widen(ToolClassLoaderPool.daemonScoped(), input, output, wideners);
+            } else {
+                try (final ToolClassLoaderPool loaders = ToolClassLoaderPool.create()) {
+                    this.widen(loaders, input, output, wideners);
+                }
+            }
+        } catch (final IOException | ReflectiveOperationException ex) {
+            throw new GradleException("Failed to access-widen " + input, ex);
+        }
+    }
+
+    private void widen(
+        final ToolClassLoaderPool loaders,
+        final File input,
+        final File output,
+        final Set<File> wideners
+    ) throws IOException, ReflectiveOperationException {
+        final ClassLoader loader = loaders.loader(
+            ResolvableTool.ACCESS_WIDENER,
+            AccessWidenerTransform.toolClassPath(this.getParameters().getToolClasspath().getFiles()),
+            AccessWidenerTransform.class.getClassLoader()
+        );
+
+        final Set<Path> widenerPaths = wideners.stream().map(File::toPath).collect(Collectors.toSet());
+        Renamer.builder()
+            .input(input)
+            .output(output)
+            .add(AccessWidenerModifier.transformerFactory(loader).apply(widenerPaths, ClassReferenceIndex.forJar(input.toPath())))
+            .build()
+            .run();
+    }
+
+    private static URL[] toolClassPath(final Set<File> files) throws MalformedURLException {
+        // Like the resolver's tool loaders, our own code source comes first, so that our classes are loaded alongside the tool
+        final URL[] urls = new URL[files.size() + 1];
+        urls[0] = AccessWidenerTransform.class.getProtectionDomain().getCodeSource().getLocation();
+        int idx = 1;
+        for (final File file : files) {
+            urls[idx++] = file.toURI().toURL();
+        }
+        return urls;
+    }
+
+}
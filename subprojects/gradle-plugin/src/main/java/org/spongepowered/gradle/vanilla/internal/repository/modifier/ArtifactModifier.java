@@ -26,9 +26,11 @@
 
 import net.minecraftforge.fart.api.Renamer;
 import net.minecraftforge.fart.api.Transformer;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.spongepowered.gradle.vanilla.repository.MinecraftResolver;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
@@ -101,11 +103,48 @@ static String decorateArtifactId(final String originalId, final Set<ArtifactModi
      */
     @FunctionalInterface
     interface TransformerProvider extends AutoCloseable {
-        Transformer provide();
+        /**
+         * Create a transformer for a specific input jar.
+         *
+         * @param inputJar the jar that will be transformed, which may be
+         *     inspected ahead of time to narrow the work done
+         * @return a transformer
+         * @throws IOException if an error occurs while inspecting the input
+         */
+        Transformer provide(Path inputJar) throws IOException;
 
         @Override
         default void close() throws IOException {
         }
     }
 
+    /**
+     * A {@link TransformerProvider} whose inputs can be described as a set of
+     * independent entries, allowing a previous output to be reused when only
+     * some of those entries change.
+     */
+    interface IncrementalTransformerProvider extends TransformerProvider {
+
+        /**
+         * Get the individual entries making up this provider's current inputs.
+         *
+         * @return the state entries
+         * @throws IOException if an error occurs while reading inputs
+         */
+        Set<String> stateEntries() throws IOException;
+
+        /**
+         * Get the internal names of every class in the input jar whose output
+         * may differ because of a change to the provided entries.
+         *
+         * @param inputJar the jar that will be transformed
+         * @param changedEntries entries that were either added or removed
+         * @return the affected classes, or {@code null} if the change cannot
+         *     be narrowed down and a full transformation is required
+         * @throws IOException if an error occurs while inspecting the input
+         */
+        @Nullable Set<String> affectedClasses(Path inputJar, Set<String> changedEntries) throws IOException;
+
+    }
+
 }
@@ -35,6 +35,13 @@ public enum AssociatedResolutionFlags {
      */
     MODIFIES_ORIGINAL,
 
+    /**
+     * Like {@link #MODIFIES_ORIGINAL}, but for generators that write a
+     * replacement for the original input without reading it, so the original
+     * does not need to be copied first.
+     */
+    REPLACES_ORIGINAL,
+
     /**
      * If an input already exists, this forces re-computation
      */
@@ -0,0 +1,252 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.repository.modifier;
+
+import net.minecraftforge.fart.api.Transformer;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongepowered.gradle.vanilla.internal.resolver.FileUtils;
+import org.spongepowered.gradle.vanilla.internal.worker.ParallelJarWriter;
+import org.spongepowered.gradle.vanilla.repository.MinecraftResolverImpl;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reuse of a previous modified artifact when only some of a modifier's
+ * inputs have changed.
+ *
+ * <p>Each modified jar has a state file next to it listing the entries it was
+ * produced from, and a pointer file shared by every state of the same
+ * modifier refers to the most recently produced jar. When a new state is
+ * requested, classes affected by added or removed entries are re-transformed
+ * from the unmodified input, and everything else is copied from the previous
+ * jar.</p>
+ *
+ * <p>Entries are copied from the previous jar as it was produced, which is
+ * kept aside if the jar has since been replaced, such as by its line-mapped
+ * copy once sources are installed. If neither matches the size and
+ * modification time recorded with the state, a full transformation is
+ * used instead.</p>
+ */
+public final class IncrementalModification {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IncrementalModification.class);
+
+    private static final String STATE_SUFFIX = ".modstate";
+    private static final String INPUT_PREFIX = "input ";
+    private static final String OUTPUT_PREFIX = "output ";
+    private static final String CLASS_EXTENSION = ".class";
+    private static final String VERSIONED_PREFIX = "META-INF/versions/";
+
+    private IncrementalModification() {
+    }
+
+    /**
+     * Attempt to produce {@code outputJar} by updating the previous output
+     * referenced by {@code pointer}.
+     *
+     * @param provider the provider for the new state
+     * @param inputJar the unmodified input jar
+     * @param pointer the file referring to the previous output
+     * @param outputJar the destination jar
+     * @param executor the executor to transform and compress entries on
+     * @return whether the output was produced incrementally, if {@code false}
+     *     a full transformation is required
+     * @throws IOException if an error occurs while writing the output
+     */
+    public static boolean tryApply(
+        final ArtifactModifier.IncrementalTransformerProvider provider,
+        final Path inputJar,
+        final Path pointer,
+        final Path outputJar,
+        final Executor executor
+    ) throws IOException {
+        final Path previousJar;
+        final List<String> previousState;
+        try {
+            previousJar = pointer.resolveSibling(new String(Files.readAllBytes(pointer), StandardCharsets.UTF_8).trim()).normalize();
+            previousState = Files.readAllLines(IncrementalModification.stateFile(previousJar), StandardCharsets.UTF_8);
+        } catch (final NoSuchFileException ex) {
+            return false;
+        }
+
+        // The jar we produced may since have been replaced, with its original kept alongside
+        final Path original = MinecraftResolverImpl.originalJar(previousJar);
+        final Path previousSource = Files.isRegularFile(original) ? original : previousJar;
+        if (previousState.size() < 2
+            || !Files.isRegularFile(previousSource)
+            || !previousState.get(0).equals(IncrementalModification.inputLine(inputJar))
+            || !previousState.get(1).equals(IncrementalModification.stampLine(IncrementalModification.OUTPUT_PREFIX, previousSource))) {
+            return false;
+        }
+
+        final Set<String> previousEntries = new HashSet<>(previousState.subList(2, previousState.size()));
+        final Set<String> currentEntries = provider.stateEntries();
+        final Set<String> changed = new HashSet<>(currentEntries);
+        changed.addAll(previousEntries);
+        final Set<String> unchanged = new HashSet<>(currentEntries);
+        unchanged.retainAll(previousEntries);
+        changed.removeAll(unchanged);
+
+        final Set<String> affected = provider.affectedClasses(inputJar, changed);
+        if (affected == null) {
+            return false;
+        }
+
+        try (final ZipFile previous = new ZipFile(previousSource.toFile())) {
+            // multi-release entries are not handled here, fall back to a full transformation
+            if (previous.stream().anyMatch(entry -> entry.getName().startsWith(IncrementalModification.VERSIONED_PREFIX))) {
+                return false;
+            }
+
+            IncrementalModification.LOGGER.info(
+                "Updating {} from {}: {} changed entries affecting {} classes",
+                outputJar.getFileName(),
+                previousJar.getFileName(),
+                changed.size(),
+                affected.size()
+            );
+            IncrementalModification.write(provider.provide(inputJar), affected, previous, inputJar, outputJar, executor);
+        }
+        return true;
+    }
+
+    private static void write(
+        final Transformer transformer,
+        final Set<String> affected,
+        final ZipFile previous,
+        final Path inputJar,
+        final Path outputJar,
+        final Executor executor
+    ) throws IOException {
+        try (
+            final ZipFile input = new ZipFile(inputJar.toFile());
+            final ParallelJarWriter output = new ParallelJarWriter(outputJar, executor, ParallelJarWriter.Compression.DEFAULT)
+        ) {
+            // The previous jar was normalized, so its entries are already in order
+            final Enumeration<? extends ZipEntry> entries = previous.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                final String name = entry.getName();
+                final @Nullable ZipEntry original = name.endsWith(IncrementalModification.CLASS_EXTENSION)
+                    && affected.contains(name.substring(0, name.length() - IncrementalModification.CLASS_EXTENSION.length()))
+                    ? input.getEntry(name)
+                    : null;
+                if (original != null) {
+                    output.write(name, CompletableFuture.supplyAsync(
+                        () -> transformer.process(Transformer.ClassEntry.create(name, original.getTime(), IncrementalModification.read(input, original))).getData(),
+                        executor
+                    ));
+                } else {
+                    output.write(name, CompletableFuture.supplyAsync(() -> IncrementalModification.read(previous, entry), executor));
+                }
+            }
+            output.finish();
+        }
+    }
+
+    /**
+     * Record the state used to produce {@code outputJar}, and make it the
+     * base for future incremental updates.
+     *
+     * @param provider the provider used to produce the output
+     * @param inputJar the unmodified input jar
+     * @param pointer the file referring to the most recent output
+     * @param outputJar the output jar, at its final location
+     * @throws IOException if an error occurs while writing state
+     */
+    public static void record(
+        final ArtifactModifier.IncrementalTransformerProvider provider,
+        final Path inputJar,
+        final Path pointer,
+        final Path outputJar
+    ) throws IOException {
+        final Path stateFile = IncrementalModification.stateFile(outputJar);
+        final Path stateTmp = FileUtils.temporaryPath(stateFile.getParent(), "modstate");
+        try (final BufferedWriter writer = Files.newBufferedWriter(stateTmp, StandardCharsets.UTF_8)) {
+            writer.write(IncrementalModification.inputLine(inputJar));
+            writer.write('\n');
+            writer.write(IncrementalModification.stampLine(IncrementalModification.OUTPUT_PREFIX, outputJar));
+            writer.write('\n');
+            for (final String entry : new TreeSet<>(provider.stateEntries())) {
+                writer.write(entry);
+                writer.write('\n');
+            }
+        }
+        FileUtils.atomicMove(stateTmp, stateFile);
+
+        FileUtils.createDirectoriesSymlinkSafe(pointer.getParent());
+        final Path pointerTmp = FileUtils.temporaryPath(pointer.getParent(), "modpointer");
+        Files.write(pointerTmp, pointer.getParent().relativize(outputJar).toString().getBytes(StandardCharsets.UTF_8));
+        FileUtils.atomicMove(pointerTmp, pointer);
+    }
+
+    private static Path stateFile(final Path jar) {
+        return jar.resolveSibling(jar.getFileName().toString() + IncrementalModification.STATE_SUFFIX);
+    }
+
+    private static String inputLine(final Path inputJar) throws IOException {
+        return IncrementalModification.stampLine(IncrementalModification.INPUT_PREFIX, inputJar);
+    }
+
+    private static String stampLine(final String prefix, final Path jar) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+        return prefix + attributes.size() + ' ' + attributes.lastModifiedTime().toMillis();
+    }
+
+    private static byte[] read(final ZipFile jar, final ZipEntry entry) {
+        try (final InputStream is = jar.getInputStream(entry)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buf = new byte[8192];
+            int read;
+            while ((read = is.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+            return out.toByteArray();
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+}
@@ -0,0 +1,251 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.transformer;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongepowered.gradle.vanilla.internal.Constants;
+import org.spongepowered.gradle.vanilla.internal.resolver.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * An index of which classes in a jar refer to which other classes through
+ * their class-level attributes.
+ *
+ * <p>This covers the {@code InnerClasses}, {@code NestHost},
+ * {@code NestMembers}, and {@code PermittedSubclasses} attributes, which are
+ * the places where a class can carry access information about another class.
+ * Transformations that only affect a known set of classes can use this to
+ * find every other class they need to visit.</p>
+ *
+ * <p>The index is stored next to the jar it describes, and is only rebuilt
+ * when that jar changes.</p>
+ */
+public final class ClassReferenceIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClassReferenceIndex.class);
+
+    private static final int MAGIC = 0x56475249; // VGRI
+    private static final int FORMAT_VERSION = 1;
+    private static final String CLASS_EXTENSION = ".class";
+    private static final String INDEX_SUFFIX = "-refs.bin";
+
+    private ClassReferenceIndex() {
+    }
+
+    /**
+     * Get the reference index for a jar, building it if necessary.
+     *
+     * @param jar the jar to index
+     * @return a map from a class name, to the names of every other class
+     *     that refers to it
+     * @throws IOException if an error occurs while reading the jar or index
+     */
+    public static Map<String, Set<String>> forJar(final Path jar) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+        final Path indexFile = ClassReferenceIndex.indexFile(jar);
+        try {
+            final @Nullable Map<String, Set<String>> existing = ClassReferenceIndex.read(indexFile, attributes);
+            if (existing != null) {
+                return existing;
+            }
+        } catch (final NoSuchFileException ex) {
+            // not yet built
+        } catch (final IOException ex) {
+            ClassReferenceIndex.LOGGER.info("Unable to read class reference index from {}, rebuilding", indexFile, ex);
+        }
+
+        final Map<String, Set<String>> index = ClassReferenceIndex.build(jar);
+        final Path tempFile = FileUtils.temporaryPath(indexFile.getParent(), "refindex");
+        try {
+            ClassReferenceIndex.write(tempFile, attributes, index);
+            FileUtils.atomicMove(tempFile, indexFile);
+        } catch (final IOException ex) {
+            Files.deleteIfExists(tempFile);
+            ClassReferenceIndex.LOGGER.warn("Failed to store class reference index for {}", jar, ex);
+        }
+        return index;
+    }
+
+    static Path indexFile(final Path jar) {
+        String fileName = jar.getFileName().toString();
+        if (fileName.endsWith(".jar")) {
+            fileName = fileName.substring(0, fileName.length() - 4);
+        }
+        return jar.resolveSibling(fileName + ClassReferenceIndex.INDEX_SUFFIX);
+    }
+
+    static Map<String, Set<String>> build(final Path jar) throws IOException {
+        final Map<String, Set<String>> index = new HashMap<>();
+        try (final ZipFile zip = new ZipFile(jar.toFile())) {
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().endsWith(ClassReferenceIndex.CLASS_EXTENSION)) {
+                    continue;
+                }
+
+                try (final InputStream is = zip.getInputStream(entry)) {
+                    final ClassReader reader = new ClassReader(is);
+                    reader.accept(new ReferenceCollector(reader.getClassName(), index), ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+                }
+            }
+        }
+        return ClassReferenceIndex.freeze(index);
+    }
+
+    private static @Nullable Map<String, Set<String>> read(final Path indexFile, final BasicFileAttributes jarAttributes) throws IOException {
+        try (final DataInputStream is = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (is.readInt() != ClassReferenceIndex.MAGIC || is.readInt() != ClassReferenceIndex.FORMAT_VERSION) {
+                return null;
+            }
+            if (is.readLong() != jarAttributes.size() || is.readLong() != jarAttributes.lastModifiedTime().toMillis()) {
+                return null; // stale
+            }
+
+            final String[] names = new String[is.readInt()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = is.readUTF();
+            }
+
+            final int owners = is.readInt();
+            final Map<String, Set<String>> index = new HashMap<>(owners * 2);
+            for (int i = 0; i < owners; i++) {
+                final String owner = names[is.readInt()];
+                final int count = is.readInt();
+                final Set<String> referrers = new HashSet<>(count * 2);
+                for (int j = 0; j < count; j++) {
+                    referrers.add(names[is.readInt()]);
+                }
+                index.put(owner, referrers);
+            }
+            return ClassReferenceIndex.freeze(index);
+        }
+    }
+
+    private static void write(final Path indexFile, final BasicFileAttributes jarAttributes, final Map<String, Set<String>> index) throws IOException {
+        // Class names are repeated many times, so write them once and refer to them by index
+        final Map<String, Integer> ids = new HashMap<>();
+        final List<String> names = new ArrayList<>();
+        for (final Map.Entry<String, Set<String>> entry : index.entrySet()) {
+            ids.computeIfAbsent(entry.getKey(), k -> { names.add(k); return names.size() - 1; });
+            for (final String referrer : entry.getValue()) {
+                ids.computeIfAbsent(referrer, k -> { names.add(k); return names.size() - 1; });
+            }
+        }
+
+        try (final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile)))) {
+            os.writeInt(ClassReferenceIndex.MAGIC);
+            os.writeInt(ClassReferenceIndex.FORMAT_VERSION);
+            os.writeLong(jarAttributes.size());
+            os.writeLong(jarAttributes.lastModifiedTime().toMillis());
+
+            os.writeInt(names.size());
+            for (final String name : names) {
+                os.writeUTF(name);
+            }
+
+            os.writeInt(index.size());
+            for (final Map.Entry<String, Set<String>> entry : index.entrySet()) {
+                os.writeInt(ids.get(entry.getKey()));
+                os.writeInt(entry.getValue().size());
+                for (final String referrer : entry.getValue()) {
+                    os.writeInt(ids.get(referrer));
+                }
+            }
+        }
+    }
+
+    private static Map<String, Set<String>> freeze(final Map<String, Set<String>> index) {
+        for (final Map.Entry<String, Set<String>> entry : index.entrySet()) {
+            entry.setValue(Collections.unmodifiableSet(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(index);
+    }
+
+    static final class ReferenceCollector extends ClassVisitor {
+
+        private final String className;
+        private final Map<String, Set<String>> index;
+
+        ReferenceCollector(final String className, final Map<String, Set<String>> index) {
+            super(Constants.ASM_VERSION);
+            this.className = className;
+            this.index = index;
+        }
+
+        private void reference(final String owner) {
+            if (owner != null && !owner.equals(this.className)) {
+                this.index.computeIfAbsent(owner, k -> new HashSet<>()).add(this.className);
+            }
+        }
+
+        @Override
+        public void visitInnerClass(final String name, final String outerName, final String innerName, final int access) {
+            this.reference(name);
+            this.reference(outerName);
+        }
+
+        @Override
+        public void visitNestHost(final String nestHost) {
+            this.reference(nestHost);
+        }
+
+        @Override
+        public void visitNestMember(final String nestMember) {
+            this.reference(nestMember);
+        }
+
+        @Override
+        public void visitPermittedSubclass(final String permittedSubclass) {
+            this.reference(permittedSubclass);
+        }
+
+    }
+
+}
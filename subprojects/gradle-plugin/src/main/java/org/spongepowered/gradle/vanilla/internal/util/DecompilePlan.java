@@ -0,0 +1,141 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.util;
+
+import org.immutables.value.Value;
+
+/**
+ * The resources chosen for one decompilation.
+ *
+ * @see DecompilePlanner
+ */
+@Value.Immutable
+@ImmutablesStyle
+public interface DecompilePlan {
+
+    /**
+     * The number of classes in the jar being decompiled.
+     *
+     * @return the class count
+     */
+    @Value.Parameter
+    int classes();
+
+    /**
+     * The number of CPUs available to decompile with.
+     *
+     * @return the CPU count
+     */
+    @Value.Parameter
+    int cpus();
+
+    /**
+     * The memory available to decompiler workers, after the Gradle daemon
+     * and any other decompilations running in the same build.
+     *
+     * @return the available memory, in megabytes
+     */
+    @Value.Parameter
+    long availableMegabytes();
+
+    /**
+     * Where the memory and CPU limits were read from.
+     *
+     * @return a description of the limit source
+     */
+    @Value.Parameter
+    String limitSource();
+
+    /**
+     * The number of shard workers to run, or {@code 1} to only run a single
+     * worker.
+     *
+     * @return the shard count
+     */
+    @Value.Parameter
+    int shards();
+
+    /**
+     * The maximum heap of each shard worker.
+     *
+     * @return the heap size, in megabytes
+     */
+    @Value.Parameter
+    long shardHeapMegabytes();
+
+    /**
+     * The number of decompiler threads in each shard worker.
+     *
+     * @return the thread count
+     */
+    @Value.Parameter
+    int shardThreads();
+
+    /**
+     * The maximum heap of the worker that assembles the output, which runs
+     * once any shards are complete.
+     *
+     * @return the heap size, in megabytes
+     */
+    @Value.Parameter
+    long heapMegabytes();
+
+    /**
+     * The number of decompiler threads in the assembling worker.
+     *
+     * @return the thread count
+     */
+    @Value.Parameter
+    int threads();
+
+    /**
+     * The most memory this plan uses at once, including per-process
+     * overhead.
+     *
+     * @return the peak memory use, in megabytes
+     */
+    default long peakMegabytes() {
+        final long shardPeak = this.shards() > 1 ? this.shards() * (this.shardHeapMegabytes() + DecompilePlanner.PROCESS_OVERHEAD_MEGABYTES) : 0;
+        return Math.max(shardPeak, this.heapMegabytes() + DecompilePlanner.PROCESS_OVERHEAD_MEGABYTES);
+    }
+
+    /**
+     * Describe this plan as sorted {@code key=value} lines.
+     *
+     * @return the description
+     */
+    default String describe() {
+        return "assemble.heap.mb=" + this.heapMegabytes() + '\n'
+            + "assemble.threads=" + this.threads() + '\n'
+            + "available.cpus=" + this.cpus() + '\n'
+            + "available.memory.mb=" + this.availableMegabytes() + '\n'
+            + "classes=" + this.classes() + '\n'
+            + "limit.source=" + this.limitSource() + '\n'
+            + "shard.heap.mb=" + this.shardHeapMegabytes() + '\n'
+            + "shard.threads=" + this.shardThreads() + '\n'
+            + "shards=" + this.shards() + '\n';
+    }
+
+}
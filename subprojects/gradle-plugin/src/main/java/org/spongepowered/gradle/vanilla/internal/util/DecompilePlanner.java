@@ -0,0 +1,326 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.util;
+
+import com.sun.management.OperatingSystemMXBean;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Choose heap sizes, thread counts and shard counts for decompiler workers.
+ *
+ * <p>Plans are derived from the memory and CPUs actually available to the
+ * build, which in a container are the cgroup limits rather than those of the
+ * host, along with Gradle's worker limit and the size of the jar. Memory and
+ * CPUs used by other decompilations running in the same build are reserved
+ * until they complete, since decompiles in different projects may run
+ * concurrently.</p>
+ *
+ * <p>Gradle only reuses a worker process that was started with the same
+ * heap size, so plans for warm workers use a heap derived from the jar
+ * alone.</p>
+ */
+public final class DecompilePlanner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DecompilePlanner.class);
+
+    /**
+     * Memory used by a worker process beyond its heap: metaspace, code
+     * cache, thread stacks, and the decompiler's off-heap bytecode cache.
+     */
+    static final long PROCESS_OVERHEAD_MEGABYTES = 512;
+    private static final long BASE_HEAP_MEGABYTES = 768;
+    private static final long MIN_HEAP_MEGABYTES = 1024;
+    // Every worker loads every class for context, but only decompiles its own share
+    private static final long CONTEXT_KILOBYTES_PER_CLASS = 128;
+    private static final long SOURCE_KILOBYTES_PER_CLASS = 200;
+    private static final int MIN_THREADS_PER_SHARD = 4;
+    // Stable heaps are rounded up, so small differences between jars still share a worker
+    private static final long STABLE_HEAP_STEP_MEGABYTES = 1024;
+    private static final long UNLIMITED_THRESHOLD = 1L << 60;
+
+    private static final Path CGROUP_ROOT = Paths.get("/sys/fs/cgroup");
+
+    private static long reservedMegabytes;
+    private static int reservedCpus;
+
+    private DecompilePlanner() {
+    }
+
+    /**
+     * Plan a decompilation, and reserve its resources until the returned
+     * lease is closed.
+     *
+     * @param classes the number of classes in the jar
+     * @param maxWorkers Gradle's maximum number of concurrent workers
+     * @param shards the number of shards requested by the user, or
+     *     {@code null} to choose automatically
+     * @param stableHeap whether heap sizes must not depend on the memory
+     *     currently available, so worker processes can be reused
+     * @return a lease on the planned resources
+     */
+    public static synchronized Lease acquire(final int classes, final int maxWorkers, final @Nullable Integer shards, final boolean stableHeap) {
+        final Limits limits = Limits.probe(DecompilePlanner.CGROUP_ROOT);
+        final long daemonHeap = Runtime.getRuntime().maxMemory() == Long.MAX_VALUE ? 0 : Runtime.getRuntime().maxMemory() / (1024 * 1024);
+        final long available = Math.max(0, limits.memoryMegabytes - daemonHeap - DecompilePlanner.reservedMegabytes);
+        final int cpus = Math.max(1, limits.cpus - DecompilePlanner.reservedCpus);
+
+        final DecompilePlan plan = DecompilePlanner.plan(classes, cpus, available, limits.source, maxWorkers, shards, stableHeap);
+        final long reservedMemory = plan.peakMegabytes();
+        final int reservedCpus = plan.shards() > 1 ? plan.shards() * plan.shardThreads() : plan.threads();
+        DecompilePlanner.reservedMegabytes += reservedMemory;
+        DecompilePlanner.reservedCpus += reservedCpus;
+        return new Lease(plan, reservedMemory, reservedCpus);
+    }
+
+    /**
+     * Plan a decompilation.
+     *
+     * @param classes the number of classes in the jar
+     * @param cpus the number of CPUs available
+     * @param availableMegabytes the memory available to worker processes
+     * @param limitSource where the limits were read from
+     * @param maxWorkers Gradle's maximum number of concurrent workers
+     * @param requestedShards the number of shards requested by the user, or
+     *     {@code null} to choose automatically
+     * @param stableHeap whether heap sizes must only depend on the jar, in
+     *     which case nothing is sharded unless requested
+     * @return the plan
+     */
+    static DecompilePlan plan(
+        final int classes,
+        final int cpus,
+        final long availableMegabytes,
+        final String limitSource,
+        final int maxWorkers,
+        final @Nullable Integer requestedShards,
+        final boolean stableHeap
+    ) {
+        final int automaticShards = stableHeap ? 1 : cpus / DecompilePlanner.MIN_THREADS_PER_SHARD;
+        final int maxShards = Math.max(1, Math.min(maxWorkers, requestedShards != null ? requestedShards : automaticShards));
+        int shards = maxShards;
+        if (requestedShards == null) {
+            // Only shard as far as every shard still fits in memory alongside the others
+            while (shards > 1 && shards * (DecompilePlanner.heapFor(classes, shards) + DecompilePlanner.PROCESS_OVERHEAD_MEGABYTES) > availableMegabytes) {
+                shards--;
+            }
+        }
+
+        final long heap = DecompilePlanner.heap(DecompilePlanner.heapFor(classes, 1), availableMegabytes, stableHeap);
+        final int threads = Math.max(1, cpus - 1);
+        if (shards <= 1) {
+            return new DecompilePlanImpl(classes, cpus, availableMegabytes, limitSource, 1, heap, threads, heap, threads);
+        }
+        final long shardHeap = DecompilePlanner.heap(DecompilePlanner.heapFor(classes, shards), availableMegabytes / shards, stableHeap);
+        final int shardThreads = Math.max(1, cpus / shards);
+        return new DecompilePlanImpl(classes, cpus, availableMegabytes, limitSource, shards, shardHeap, shardThreads, heap, threads);
+    }
+
+    /**
+     * Estimate the heap a worker needs to decompile its share of a jar.
+     *
+     * @param classes the number of classes in the jar
+     * @param shards the number of workers the jar is split between
+     * @return the estimated heap, in megabytes
+     */
+    static long heapFor(final int classes, final int shards) {
+        final long share = (classes + shards - 1) / shards;
+        return DecompilePlanner.BASE_HEAP_MEGABYTES
+            + classes * DecompilePlanner.CONTEXT_KILOBYTES_PER_CLASS / 1024
+            + share * DecompilePlanner.SOURCE_KILOBYTES_PER_CLASS / 1024;
+    }
+
+    private static long heap(final long wanted, final long availableMegabytes, final boolean stable) {
+        final long limit = availableMegabytes - DecompilePlanner.PROCESS_OVERHEAD_MEGABYTES;
+        if (stable) {
+            final long step = DecompilePlanner.STABLE_HEAP_STEP_MEGABYTES;
+            final long heap = (wanted + step - 1) / step * step;
+            if (heap > limit) {
+                DecompilePlanner.LOGGER.warn(
+                    "A warm decompiler needs a fixed {}M heap, but only {}M of memory is currently available",
+                    heap, Math.max(0, limit)
+                );
+            }
+            return heap;
+        }
+        if (wanted <= limit) {
+            return wanted;
+        }
+        final long heap = Math.max(DecompilePlanner.MIN_HEAP_MEGABYTES, limit);
+        DecompilePlanner.LOGGER.warn(
+            "Only {}M of memory is available for a decompiler that is estimated to need {}M, decompilation may fail or be slow",
+            heap, wanted
+        );
+        return heap;
+    }
+
+    private static synchronized void release(final long megabytes, final int cpus) {
+        DecompilePlanner.reservedMegabytes -= megabytes;
+        DecompilePlanner.reservedCpus -= cpus;
+    }
+
+    /**
+     * A plan, with its resources reserved.
+     */
+    public static final class Lease implements AutoCloseable {
+        private final DecompilePlan plan;
+        private final long megabytes;
+        private final int cpus;
+        private boolean released;
+
+        Lease(final DecompilePlan plan, final long megabytes, final int cpus) {
+            this.plan = plan;
+            this.megabytes = megabytes;
+            this.cpus = cpus;
+        }
+
+        public DecompilePlan plan() {
+            return this.plan;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!this.released) {
+                this.released = true;
+                DecompilePlanner.release(this.megabytes, this.cpus);
+            }
+        }
+    }
+
+    /**
+     * The memory and CPUs available to this machine or container.
+     */
+    static final class Limits {
+        final long memoryMegabytes;
+        final int cpus;
+        final String source;
+
+        Limits(final long memoryMegabytes, final int cpus, final String source) {
+            this.memoryMegabytes = memoryMegabytes;
+            this.cpus = cpus;
+            this.source = source;
+        }
+
+        /**
+         * Read limits from the cgroup filesystem, falling back to those of
+         * the host.
+         *
+         * <p>Both cgroup v2 and v1 layouts are supported.</p>
+         *
+         * @param cgroupRoot the root of the cgroup filesystem
+         * @return the limits
+         */
+        static Limits probe(final Path cgroupRoot) {
+            final long physical = ((OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getTotalPhysicalMemorySize() / (1024L * 1024L);
+            final int processors = Runtime.getRuntime().availableProcessors();
+
+            String source = "host";
+            long memory = physical;
+            int cpus = processors;
+
+            final long cgroupMemory = Limits.memoryLimit(cgroupRoot);
+            if (cgroupMemory > 0 && cgroupMemory / (1024L * 1024L) < memory) {
+                memory = cgroupMemory / (1024L * 1024L);
+                source = "cgroup";
+            }
+            final double cgroupCpus = Limits.cpuLimit(cgroupRoot);
+            if (cgroupCpus > 0 && Math.ceil(cgroupCpus) < cpus) {
+                cpus = (int) Math.ceil(cgroupCpus);
+                source = "cgroup";
+            }
+            return new Limits(memory, Math.max(1, cpus), source);
+        }
+
+        /**
+         * Read the cgroup memory limit.
+         *
+         * @param root the root of the cgroup filesystem
+         * @return the limit in bytes, or {@code -1} if unlimited or unknown
+         */
+        static long memoryLimit(final Path root) {
+            final @Nullable String v2 = Limits.read(root.resolve("memory.max"));
+            final @Nullable String value = v2 != null ? v2 : Limits.read(root.resolve("memory").resolve("memory.limit_in_bytes"));
+            if (value == null || value.equals("max")) {
+                return -1;
+            }
+            try {
+                final long limit = Long.parseLong(value);
+                return limit <= 0 || limit >= DecompilePlanner.UNLIMITED_THRESHOLD ? -1 : limit;
+            } catch (final NumberFormatException ex) {
+                return -1;
+            }
+        }
+
+        /**
+         * Read the cgroup CPU quota.
+         *
+         * @param root the root of the cgroup filesystem
+         * @return the number of CPUs, possibly fractional, or {@code -1} if
+         *     unlimited or unknown
+         */
+        static double cpuLimit(final Path root) {
+            try {
+                final @Nullable String v2 = Limits.read(root.resolve("cpu.max"));
+                if (v2 != null) {
+                    final String[] parts = v2.split(" ");
+                    if (parts.length != 2 || parts[0].equals("max")) {
+                        return -1;
+                    }
+                    return Double.parseDouble(parts[0]) / Double.parseDouble(parts[1]);
+                }
+                final @Nullable String quota = Limits.read(root.resolve("cpu").resolve("cpu.cfs_quota_us"));
+                final @Nullable String period = Limits.read(root.resolve("cpu").resolve("cpu.cfs_period_us"));
+                if (quota == null || period == null || Long.parseLong(quota) <= 0) {
+                    return -1;
+                }
+                return Double.parseDouble(quota) / Double.parseDouble(period);
+            } catch (final NumberFormatException ex) {
+                return -1;
+            }
+        }
+
+        private static @Nullable String read(final Path file) {
+            if (!Files.isRegularFile(file)) {
+                return null;
+            }
+            try {
+                final List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+                return lines.isEmpty() ? null : lines.get(0).trim();
+            } catch (final IOException ex) {
+                return null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.util;
+
+import org.spongepowered.gradle.vanilla.internal.model.AssetIndex;
+import org.spongepowered.gradle.vanilla.resolver.HashAlgorithm;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Asset stores on the local machine that objects can be taken from
+ * instead of being downloaded.
+ *
+ * <p>Each store is an assets directory in the layout used by the launcher,
+ * with objects at {@code objects/<first two hash characters>/<hash>}.</p>
+ */
+public final class LocalAssetStores {
+
+    private static final String OBJECTS = "objects";
+
+    private final List<Path> objectDirectories;
+
+    /**
+     * Create a chain of stores, consulted in order.
+     *
+     * @param assetRoots the root directories of each store
+     * @param target the assets directory being populated, which is never
+     *     used as a source
+     */
+    public LocalAssetStores(final Collection<Path> assetRoots, final Path target) {
+        final Path normalizedTarget = target.toAbsolutePath().normalize();
+        final List<Path> objectDirectories = new ArrayList<>();
+        for (final Path root : assetRoots) {
+            final Path normalized = root.toAbsolutePath().normalize();
+            if (!normalized.equals(normalizedTarget) && Files.isDirectory(normalized.resolve(LocalAssetStores.OBJECTS))) {
+                objectDirectories.add(normalized.resolve(LocalAssetStores.OBJECTS));
+            }
+        }
+        this.objectDirectories = Collections.unmodifiableList(objectDirectories);
+    }
+
+    public boolean isEmpty() {
+        return this.objectDirectories.isEmpty();
+    }
+
+    /**
+     * Try to place an object at its destination from one of the stores.
+     *
+     * <p>Objects are only taken from a store if their size and hash match
+     * the index. They are hard-linked into place where possible, and copied
+     * otherwise.</p>
+     *
+     * @param asset the asset to find
+     * @param destination the location to place the asset at
+     * @return whether the asset was found in any store
+     * @throws IOException if an object was found but could not be placed
+     */
+    public boolean provide(final AssetIndex.Asset asset, final Path destination) throws IOException {
+        final String hash = asset.hash();
+        for (final Path objects : this.objectDirectories) {
+            final Path candidate = objects.resolve(asset.fileName());
+            if (!Files.isRegularFile(candidate)
+                || Files.size(candidate) != asset.size()
+                || !HashAlgorithm.SHA1.validate(hash, candidate)) {
+                continue;
+            }
+
+            Files.createDirectories(destination.getParent());
+            try {
+                Files.createLink(destination, candidate);
+            } catch (final FileAlreadyExistsException ex) {
+                // another index entry shares this object, and has already placed it
+            } catch (final IOException | UnsupportedOperationException ex) {
+                // different file store, or no hard link support
+                final Path temp = Files.createTempFile(destination.getParent(), hash, ".tmp");
+                try {
+                    Files.copy(candidate, temp, StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(temp, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.util;
+
+import org.spongepowered.gradle.vanilla.internal.resolver.FileUtils;
+import org.spongepowered.gradle.vanilla.internal.worker.ParallelJarWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Normalization for jars produced by VanillaGradle, so that identical
+ * contents always produce byte-identical files.
+ *
+ * <p>Normalized jars have their entries sorted (with the manifest first, as
+ * {@link java.util.jar.JarInputStream} expects), and are written by a
+ * {@link ParallelJarWriter}, giving a fixed timestamp on every entry, no
+ * extra fields, and a consistent compression level.</p>
+ */
+public final class ReproducibleJars {
+
+    private static final String META_INF = "META-INF/";
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+    /**
+     * The order of entries in a normalized jar.
+     */
+    public static final Comparator<String> ENTRY_ORDER = Comparator.comparingInt(ReproducibleJars::rank)
+        .thenComparing(Comparator.naturalOrder());
+
+    private ReproducibleJars() {
+    }
+
+    /**
+     * Rewrite a jar in place as a normalized jar.
+     *
+     * @param jar the jar to normalize
+     * @param executor the executor to read and compress entries on
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public static void normalize(final Path jar, final Executor executor) throws IOException {
+        final Path tmp = FileUtils.temporaryPath(jar.toAbsolutePath().getParent(), "normalize");
+        try {
+            ReproducibleJars.normalize(jar, tmp, executor);
+            FileUtils.atomicMove(tmp, jar);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Write a normalized copy of a jar.
+     *
+     * @param input the jar to read
+     * @param output the destination
+     * @param executor the executor to read and compress entries on
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public static void normalize(final Path input, final Path output, final Executor executor) throws IOException {
+        try (
+            final ZipFile in = new ZipFile(input.toFile());
+            final ParallelJarWriter out = new ParallelJarWriter(output, executor, ParallelJarWriter.Compression.DEFAULT)
+        ) {
+            final List<ZipEntry> entries = new ArrayList<>(in.size());
+            final Enumeration<? extends ZipEntry> it = in.entries();
+            while (it.hasMoreElements()) {
+                entries.add(it.nextElement());
+            }
+            entries.sort(Comparator.comparing(ZipEntry::getName, ReproducibleJars.ENTRY_ORDER));
+
+            for (final ZipEntry entry : entries) {
+                out.write(entry.getName(), CompletableFuture.supplyAsync(() -> ReproducibleJars.read(in, entry), executor));
+            }
+            out.finish();
+        }
+    }
+
+    private static byte[] read(final ZipFile jar, final ZipEntry entry) {
+        try (final InputStream is = jar.getInputStream(entry)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(entry.getSize() > 0 ? (int) entry.getSize() : 4096);
+            final byte[] buf = new byte[8192];
+            int read;
+            while ((read = is.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+            return out.toByteArray();
+        } catch (final IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static int rank(final String name) {
+        if (name.equals(ReproducibleJars.META_INF)) {
+            return 0;
+        } else if (name.equals(ReproducibleJars.MANIFEST)) {
+            return 1;
+        } else {
+            return 2;
+        }
+    }
+
+}
@@ -81,7 +81,8 @@ public interface MinecraftResolver {
      *
      * <p>This variant will synchronize back to the current thread before executing
      * the provider function. This allows for operating in concurrency-sensitive
-     * environments, such as a Gradle build.</p>
+     * environments, such as a Gradle build. The calling thread must therefore wait
+     * on the returned future with {@link #processSyncTasksUntilComplete(CompletableFuture)}.</p>
      *
      * <p>To de-duplicate resolution actions, a future may be returned if this
      * action has already been performed, or is in process on another thread. In
@@ -134,6 +135,20 @@ interface MinecraftEnvironment {
          */
         Path jar();
 
+        /**
+         * The output jar of this environment, as it was before any associated
+         * artifact modified or replaced it.
+         *
+         * <p>This is the same as {@link #jar()} until an associated artifact
+         * is produced with {@link AssociatedResolutionFlags#MODIFIES_ORIGINAL}
+         * or {@link AssociatedResolutionFlags#REPLACES_ORIGINAL}.</p>
+         *
+         * @return the unmodified jar
+         */
+        default Path originalJar() {
+            return this.jar();
+        }
+
         /**
          * The dependencies to apply for this environment, given the active OS.
          *
@@ -184,6 +199,9 @@ interface Context {
          * An executor for performing main-thread synchronous operations, like some
          * dependency resolution.
          *
+         * <p>Tasks are run by the thread that requested the resolution this
+         * context belongs to.</p>
+         *
          * @return the synchronous executor
          */
         Executor syncExecutor();
@@ -196,6 +214,9 @@ interface Context {
          * overridden at runtime. Classes from Gradle, VanillaGradle's dependencies, and
          * the JDK can be safely shared, but VanillaGradle classes CAN NOT.</p>
          *
+         * <p>Loaders are shared between every user of the same tool classpath,
+         * and are owned by the resolver. They must not be closed by callers.</p>
+         *
          * <p>This must be run on the {@link #syncExecutor()}.</p>
          *
          * @param tool the tool to resolve
@@ -35,35 +35,37 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.spongepowered.gradle.vanilla.internal.Constants;
+import org.spongepowered.gradle.vanilla.internal.bundler.BundleEntries;
 import org.spongepowered.gradle.vanilla.internal.bundler.BundlerMetadata;
+import org.spongepowered.gradle.vanilla.internal.bundler.BundlerMetadataCache;
 import org.spongepowered.gradle.vanilla.internal.model.Download;
 import org.spongepowered.gradle.vanilla.internal.model.GroupArtifactVersion;
 import org.spongepowered.gradle.vanilla.internal.model.VersionDescriptor;
 import org.spongepowered.gradle.vanilla.internal.model.VersionManifestRepository;
 import org.spongepowered.gradle.vanilla.internal.repository.IvyModuleWriter;
 import org.spongepowered.gradle.vanilla.internal.repository.ResolvableTool;
+import org.spongepowered.gradle.vanilla.internal.repository.ToolClassLoaderPool;
 import org.spongepowered.gradle.vanilla.internal.repository.modifier.ArtifactModifier;
 import org.spongepowered.gradle.vanilla.internal.repository.modifier.AssociatedResolutionFlags;
+import org.spongepowered.gradle.vanilla.internal.repository.modifier.IncrementalModification;
 import org.spongepowered.gradle.vanilla.internal.resolver.AsyncUtils;
 import org.spongepowered.gradle.vanilla.internal.resolver.FileUtils;
 import org.spongepowered.gradle.vanilla.internal.transformer.Transformers;
 import org.spongepowered.gradle.vanilla.internal.util.FunctionalUtils;
-import org.spongepowered.gradle.vanilla.internal.util.SelfPreferringClassLoader;
+import org.spongepowered.gradle.vanilla.internal.util.ReproducibleJars;
+import org.spongepowered.gradle.vanilla.internal.worker.JarMerger;
 import org.spongepowered.gradle.vanilla.resolver.Downloader;
 import org.spongepowered.gradle.vanilla.resolver.HashAlgorithm;
 import org.spongepowered.gradle.vanilla.resolver.ResolutionResult;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Arrays;
+import java.nio.file.StandardCopyOption;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
@@ -75,14 +77,14 @@
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
 import javax.xml.stream.XMLStreamException;
 
-public class MinecraftResolverImpl implements MinecraftResolver, MinecraftResolver.Context {
+public class MinecraftResolverImpl implements MinecraftResolver {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(MinecraftResolverImpl.class);
     private final VersionManifestRepository manifests;
@@ -90,11 +92,14 @@ public class MinecraftResolverImpl implements MinecraftResolver, MinecraftResolv
     private final ExecutorService executor;
     private final Path privateCache;
     private final Function<ResolvableTool, URL[]> toolResolver;
+    private final ToolClassLoaderPool toolLoaders;
+    private final @Nullable Path bundledLibraries; // a maven repository to expose libraries from server bundles in, if enabled
     private final ConcurrentMap<EnvironmentKey, CompletableFuture<ResolutionResult<MinecraftEnvironment>>> artifacts = new ConcurrentHashMap<>();
     private final ConcurrentMap<EnvironmentKey, CompletableFuture<ResolutionResult<Path>>> associatedArtifacts = new ConcurrentHashMap<>();
     private final boolean forceRefresh;
-    private final BlockingQueue<Runnable> syncTasks = new SynchronousQueue<>();
-    private final Executor syncExecutor = run -> this.syncTasks.add(run);
+    // Each thread waiting on a resolution processes its own synchronous tasks, so independent resolutions can run at once.
+    // The queue is captured when a request is made, since the request's callbacks run on the executor's threads.
+    private final ThreadLocal<BlockingQueue<Runnable>> syncTasks = ThreadLocal.withInitial(LinkedBlockingQueue::new);
 
     public MinecraftResolverImpl(
         final VersionManifestRepository manifests,
@@ -102,6 +107,8 @@ public MinecraftResolverImpl(
         final Path privateCache,
         final ExecutorService executor,
         final Function<ResolvableTool, URL[]> toolResolver,
+        final ToolClassLoaderPool toolLoaders,
+        final @Nullable Path bundledLibraries,
         final boolean forceRefresh
     ) {
         this.manifests = manifests;
@@ -109,6 +116,8 @@ public MinecraftResolverImpl(
         this.privateCache = privateCache;
         this.executor = executor;
         this.toolResolver = toolResolver;
+        this.toolLoaders = toolLoaders;
+        this.bundledLibraries = bundledLibraries;
         this.forceRefresh = forceRefresh;
     }
 
@@ -117,38 +126,6 @@ public VersionManifestRepository versions() {
         return this.manifests;
     }
 
-    @Override
-    public Downloader downloader() {
-        return this.downloader;
-    }
-
-    @Override
-    public Executor executor() {
-        return this.executor;
-    }
-
-    @Override
-    public Executor syncExecutor() {
-        return this.syncExecutor;
-    }
-
-    @Override
-    public Supplier<URLClassLoader> classLoaderWithTool(final ResolvableTool tool) {
-        final @Nullable Function<ResolvableTool, URL[]> toolResolver = this.toolResolver;
-        if (toolResolver == null) {
-            throw new IllegalStateException("No tool resolver has been configured to resolve " + tool);
-        }
-        final URL[] toolUrls = toolResolver.apply(tool);
-
-        // Create a ClassLoader containing the resolved configuration, plus our own code source to be able to access our own classes
-        final URL[] classPath = new URL[toolUrls.length + 1];
-        classPath[0] = this.getClass().getProtectionDomain().getCodeSource().getLocation();
-        System.arraycopy(toolUrls, 0, classPath, 1, toolUrls.length);
-        // Use a custom classloader that prefers classes from the child loader
-        // This means we cannot
-        return AsyncUtils.memoizedSupplier(() -> new SelfPreferringClassLoader(classPath, MinecraftResolverImpl.class.getClassLoader()));
-    }
-
     // remap a single-sided jar
     CompletableFuture<ResolutionResult<MinecraftEnvironment>> provide(final MinecraftPlatform platform, final MinecraftSide side, final String version, final Path outputJar) {
         return this.artifacts.computeIfAbsent(EnvironmentKey.of(platform, version, null), key -> {
@@ -163,7 +140,6 @@ CompletableFuture<ResolutionResult<MinecraftEnvironment>> provide(final Minecraf
 
                 // download to temp path
                 final String tempJarPath = this.sharedArtifactFileName(platform.artifactId() + "_m-obf_b-bundled", version, null, "jar");
-                final String jarPath = this.sharedArtifactFileName(platform.artifactId() + "_m-obf", version, null, "jar");
                 final String mappingsPath = this.sharedArtifactFileName(platform.artifactId() + "_m-obf", version, "mappings", "txt");
 
                 final CompletableFuture<ResolutionResult<Path>> jarFuture = this.downloader.downloadAndValidate(
@@ -182,13 +158,16 @@ CompletableFuture<ResolutionResult<MinecraftEnvironment>> provide(final Minecraf
                 return jarFuture.thenCombineAsync(mappingsFuture, (jar, mappingsFile) -> {
                     try {
                         final boolean outputExists = Files.exists(outputJar);
-                        final @Nullable BundlerMetadata bundlerMeta = BundlerMetadata.read(jar.get()).orElse(null);
+                        // Looked up by the hash the manifest gives us, so the jar is only opened the first time we see it
+                        final @Nullable BundlerMetadata bundlerMeta = BundlerMetadataCache.read(jar.get(), jarDownload.sha1()).orElse(null);
                         if (bundlerMeta != null) {
                             MinecraftResolverImpl.LOGGER.info("Resolved bundler metadata {} from jar at '{}'", bundlerMeta, jar.get());
                         } else {
                             MinecraftResolverImpl.LOGGER.info("No bundler metadata found in jar {}", jar.get());
                         }
-                        final Supplier<Set<GroupArtifactVersion>> dependencies = () -> side.dependencies(descriptor, bundlerMeta);
+                        final Supplier<Set<GroupArtifactVersion>> dependencies = AsyncUtils.memoizedSupplier(() -> side.dependencies(descriptor, bundlerMeta));
+                        // Independent of our output, so the repository is populated however the jar was prepared
+                        this.extractBundledLibraries(jar.get(), bundlerMeta);
                         if (!this.forceRefresh && jar.upToDate() && mappingsFile.upToDate() && outputExists) {
                             // Our inputs are up-to-date, and the output exists, so we can assume (for now) that the output is up-to-date
                             // Check meta here too, before returning
@@ -208,8 +187,8 @@ CompletableFuture<ResolutionResult<MinecraftEnvironment>> provide(final Minecraf
                         final Path outputTmp = Files.createTempDirectory("vanillagradle").resolve("output" + side.name() + ".jar");
                         FileUtils.createDirectoriesSymlinkSafe(outputJar.getParent());
 
-                        // Extract jar
-                        final Path extracted = this.downloader.baseDir().resolve(jarPath);
+                        // Extract jar, only for as long as the Renamer needs it as an input
+                        final Path extracted = outputTmp.resolveSibling("input" + side.name() + ".jar");
                         side.extractJar(jar.get(), extracted, bundlerMeta);
 
                         final IMappingFile scratchMappings;
@@ -242,6 +221,8 @@ CompletableFuture<ResolutionResult<MinecraftEnvironment>> provide(final Minecraf
                         // todo: dependencies
                         .build()
                         .run();
+                        Files.deleteIfExists(extracted);
+                        ReproducibleJars.normalize(outputTmp, this.executor);
 
                         this.writeMetaIfNecessary(platform, potentialDescriptor, dependencies, outputJar.getParent());
                         FileUtils.atomicMove(outputTmp, outputJar);
@@ -256,6 +237,16 @@ CompletableFuture<ResolutionResult<MinecraftEnvironment>> provide(final Minecraf
         });
     }
 
+    private void extractBundledLibraries(final Path bundle, final @Nullable BundlerMetadata bundlerMeta) throws IOException {
+        final @Nullable Path bundledLibraries = this.bundledLibraries;
+        if (bundlerMeta != null && bundledLibraries != null) {
+            // Libraries already present are skipped, so this only copies anything after a new bundle is seen
+            try (final BundleEntries entries = BundleEntries.open(bundle)) {
+                entries.extractLibraries(bundlerMeta, bundledLibraries);
+            }
+        }
+    }
+
     // prepare the joined artifact
     CompletableFuture<ResolutionResult<MinecraftEnvironment>> provideJoined(
         final CompletableFuture<ResolutionResult<MinecraftEnvironment>> clientFuture,
@@ -264,12 +255,7 @@ CompletableFuture<ResolutionResult<MinecraftEnvironment>> provideJoined(
         final Path outputJar
     ) {
         return this.artifacts.computeIfAbsent(EnvironmentKey.of(MinecraftPlatform.JOINED, version, null), key -> {
-            // To use Gradle's dependency management, we MUST be on a Gradle thread.
-            // For now, let's resolve everything ahead-of-time
-            // Shouldn't really do this in a `computeIfAbsent`, but oh well... what gradle tells us, we must do
             final CompletableFuture<ResolutionResult<VersionDescriptor.Full>> descriptorFuture = this.manifests.fullVersion(key.versionId());
-            final Executable merge = this.prepareChildLoader(ResolvableTool.JAR_MERGE, "org.spongepowered.gradle.vanilla.internal.worker.JarMerger", "execute");
-
             return descriptorFuture.thenComposeAsync(potentialDescriptor -> clientFuture.thenCombineAsync(serverFuture, (client, server) -> {
                 try {
                     if (!potentialDescriptor.isPresent()) {
@@ -293,8 +279,8 @@ CompletableFuture<ResolutionResult<MinecraftEnvironment>> provideJoined(
 
                     final Path outputTmp = FileUtils.temporaryPath(outputJar.getParent(), "mergetmp" + version);
 
-                    // apply jar merge worker as a (Path client, Path server, Path merged)
-                    merge.execute(client.get().jar(), server.get().jar(), outputTmp);
+                    // merge in-process, only divergent classes need to be parsed
+                    JarMerger.execute(client.get().jar(), server.get().jar(), outputTmp, this.executor);
 
                     this.writeMetaIfNecessary(MinecraftPlatform.JOINED, potentialDescriptor, dependencies, outputJar.getParent());
                     FileUtils.atomicMove(outputTmp, outputJar);
@@ -314,40 +300,6 @@ private static Set<GroupArtifactVersion> mergedDependencies(final MinecraftEnvir
         return Collections.unmodifiableSet(deps);
     }
 
-    /**
-     * Single-use executable interface
-     */
-    @FunctionalInterface
-    interface Executable {
-        <T> T execute(final Object... args) throws Exception;
-    }
-
-    private Executable prepareChildLoader(final ResolvableTool tool, final String className, final String methodName) {
-        final Supplier<URLClassLoader> loader = this.classLoaderWithTool(tool);
-        return new Executable() {
-            @SuppressWarnings("unchecked")
-            @Override
-            public <T> T execute(final Object... args) throws Exception {
-                try (final URLClassLoader child = loader.get()) {
-                    final Class<?> action = Class.forName(className, true, child);
-                    for (final Method method : action.getMethods()) {
-                        if (method.getName().equals(methodName) && Modifier.isStatic(method.getModifiers())
-                            && method.getParameters().length == args.length) {
-                            return (T) method.invoke(null, args);
-                        }
-                    }
-                } catch (final InvocationTargetException ex) {
-                    if (ex.getCause() != null && ex.getCause() instanceof Exception) {
-                        throw (Exception) ex.getCause();
-                    } else {
-                        throw ex;
-                    }
-                }
-                throw new IllegalStateException("Could not find method matching name " + methodName + " with arguments " + Arrays.toString(args));
-            }
-        };
-    }
-
     // todo: state storage
     // do we have some sort of sidecar file that we compare?
     // could have things like:
@@ -385,6 +337,7 @@ public CompletableFuture<ResolutionResult<MinecraftEnvironment>> provide(
 
         final String decoratedArtifact = ArtifactModifier.decorateArtifactId(side.artifactId(), modifiers);
         boolean requiresLocalStorage = false;
+        final MinecraftResolver.Context context = new RequestContext(this.syncTasks.get());
         // Synchronously compute the modifier populator providers
         @SuppressWarnings({"unchecked", "rawtypes"})
         final CompletableFuture<ArtifactModifier.TransformerProvider>[] populators = new CompletableFuture[modifiers.size()];
@@ -392,7 +345,7 @@ public CompletableFuture<ResolutionResult<MinecraftEnvironment>> provide(
         int idx = 0;
         for (final ArtifactModifier modifier : modifiers) {
             requiresLocalStorage |= modifier.requiresLocalStorage();
-            populators[idx++] = modifier.providePopulator(this);
+            populators[idx++] = modifier.providePopulator(context);
         }
 
         final boolean finalRequiresLocalStorage = requiresLocalStorage;
@@ -418,19 +371,44 @@ public CompletableFuture<ResolutionResult<MinecraftEnvironment>> provide(
 
                         final Path outputTmp = Files.createTempDirectory("vanillagradle").resolve("output" + decoratedArtifact + ".jar");
                         FileUtils.createDirectoriesSymlinkSafe(output.getParent());
+                        // The input may have been replaced by its line-mapped copy, modify the jar as it was produced
+                        final Path inputJar = input.get().originalJar();
+
+                        // A single incremental modifier can start from its previous output, if one exists
+                        final ArtifactModifier.@Nullable IncrementalTransformerProvider incremental =
+                            populators.length == 1 && populators[0].get() instanceof ArtifactModifier.IncrementalTransformerProvider
+                                ? (ArtifactModifier.IncrementalTransformerProvider) populators[0].get()
+                                : null;
+                        final Path previousPointer = incremental == null ? null : this.artifactPath(
+                            finalRequiresLocalStorage ? this.privateCache : this.downloader.baseDir(),
+                            side.artifactId(),
+                            version,
+                            modifiers.iterator().next().key(),
+                            "previous"
+                        );
 
-                        final Renamer.Builder builder = Renamer.builder()
-                            .input(input.get().jar().toFile())
-                            .output(outputTmp.toFile());
+                        if (incremental == null
+                            || this.forceRefresh
+                            || !IncrementalModification.tryApply(incremental, inputJar, previousPointer, outputTmp, this.executor)) {
+                            final Renamer.Builder builder = Renamer.builder()
+                                .input(inputJar.toFile())
+                                .output(outputTmp.toFile());
 
-                        for (final CompletableFuture<ArtifactModifier.TransformerProvider> populator : populators) {
-                            builder.add(populator.get().provide());
-                        }
+                            for (final CompletableFuture<ArtifactModifier.TransformerProvider> populator : populators) {
+                                builder.add(populator.get().provide(inputJar));
+                            }
 
-                        builder.build()
-                            .run();
+                            builder.build()
+                                .run();
+                            ReproducibleJars.normalize(outputTmp, this.executor);
+                        }
 
                         FileUtils.atomicMove(outputTmp, output);
+                        // Associated artifacts of modified environments are not cleaned, but this one would be stale
+                        Files.deleteIfExists(MinecraftResolverImpl.originalJar(output));
+                        if (incremental != null) {
+                            IncrementalModification.record(incremental, inputJar, previousPointer, output);
+                        }
                         this.writeMetaIfNecessary(side, decoratedArtifact, input.mapIfPresent((upToDate, env) -> env.metadata()), input.get()::dependencies, output.getParent());
                         return ResolutionResult.result(new MinecraftEnvironmentImpl(decoratedArtifact, output, input.get()::dependencies, input.get().metadata()), false);
                     }
@@ -486,57 +464,78 @@ public CompletableFuture<ResolutionResult<Path>> produceAssociatedArtifact(
         // there's nothing yet, it's our time to resolve
         return this.associatedArtifacts.computeIfAbsent(
             EnvironmentKey.of(side, version, decoratedArtifact),
-            key -> this.provide(side, version, modifiers).thenComposeAsync(
-                envResult -> {
-                    if (!envResult.isPresent()) {
-                        throw new IllegalStateException("No environment could be found for '" + side + "' version " + version);
+            key -> this.produceAssociatedArtifact(key, this.provide(side, version, modifiers), id, flags, action)
+        );
+    }
+
+    CompletableFuture<ResolutionResult<Path>> produceAssociatedArtifact(
+        final EnvironmentKey key,
+        final CompletableFuture<ResolutionResult<MinecraftEnvironment>> environment,
+        final String id,
+        final Set<AssociatedResolutionFlags> flags,
+        final BiFunction<MinecraftEnvironment, Path, CompletableFuture<?>> action
+    ) {
+        // The action is run back on the requesting thread, which will be waiting on the result
+        final BlockingQueue<Runnable> requester = this.syncTasks.get();
+        return environment.thenComposeAsync(
+            envResult -> {
+                if (!envResult.isPresent()) {
+                    throw new IllegalStateException("No environment could be found for '" + key.platform() + "' version " + key.versionId());
+                }
+                final MinecraftEnvironment env = envResult.get();
+                final Path output = env.jar().resolveSibling(env.decoratedArtifactId() + "-" + env.metadata().id() + "-" + id + ".jar");
+                if (this.forceRefresh || !envResult.upToDate() || flags.contains(AssociatedResolutionFlags.FORCE_REGENERATE) || !Files.exists(output)) {
+                    final Path tempOutDir;
+                    try {
+                        tempOutDir = Files.createTempDirectory("vanillagradle-" + env.decoratedArtifactId() + "-" + id);
+                    } catch (final IOException ex) {
+                        throw new CompletionException(ex);
                     }
-                    final MinecraftEnvironment env = envResult.get();
-                    final Path output = env.jar().resolveSibling(env.decoratedArtifactId() + "-" + env.metadata().id() + "-" + id + ".jar");
-                    if (this.forceRefresh || !envResult.upToDate() || flags.contains(AssociatedResolutionFlags.FORCE_REGENERATE) || !Files.exists(output)) {
-                        final Path tempOutDir;
-                        try {
-                            tempOutDir = Files.createTempDirectory("vanillagradle-" + env.decoratedArtifactId() + "-" + id);
-                        } catch (final IOException ex) {
-                            throw new CompletionException(ex);
-                        }
-                        final Path tempOut = tempOutDir.resolve(id + ".jar");
+                    final Path tempOut = tempOutDir.resolve(id + ".jar");
 
-                        final CompletableFuture<?> actionResult;
-                        if (flags.contains(AssociatedResolutionFlags.MODIFIES_ORIGINAL)) {
-                            // To safely modify the input, we copy it to a temporary location, then copy back when the action successfully completes
-                            final Path tempInput = tempOutDir.resolve("original-to-modify.jar");
+                    final CompletableFuture<?> actionResult;
+                    if (flags.contains(AssociatedResolutionFlags.MODIFIES_ORIGINAL) || flags.contains(AssociatedResolutionFlags.REPLACES_ORIGINAL)) {
+                        // To safely modify the input, we copy it to a temporary location, then copy back when the action successfully completes
+                        final Path tempInput = tempOutDir.resolve("original-to-modify.jar");
+                        if (!flags.contains(AssociatedResolutionFlags.REPLACES_ORIGINAL)) {
                             try {
                                 Files.copy(env.jar(), tempInput);
                             } catch (final IOException ex) {
                                 throw new CompletionException(ex);
                             }
-                            actionResult = action.apply(new MinecraftEnvironmentImpl(env.decoratedArtifactId(), tempInput, env::dependencies, env.metadata()), tempOut)
-                                .thenApply(in -> {
-                                    try {
-                                        FileUtils.atomicMove(tempInput, env.jar());
-                                    } catch (final IOException ex) {
-                                        throw new CompletionException(ex);
-                                    }
-                                    return in;
-                                });
-                        } else {
-                            actionResult = action.apply(env, tempOut);
                         }
-                        return actionResult.thenApply(in -> {
-                            try {
-                                FileUtils.atomicMove(tempOut, output);
-                            } catch (final IOException ex) {
-                                throw new CompletionException(ex);
-                            }
-                            return ResolutionResult.result(output, false);
-                        });
+                        actionResult = action.apply(new MinecraftEnvironmentImpl(env.decoratedArtifactId(), tempInput, env::dependencies, env.metadata()), tempOut)
+                            .thenApply(in -> {
+                                try {
+                                    // Only the first modification sees the jar as it was produced, so that is what we keep
+                                    final Path original = MinecraftResolverImpl.originalJar(env.jar());
+                                    if (!Files.exists(original)) {
+                                        final Path originalTmp = FileUtils.temporaryPath(original.getParent(), "original");
+                                        Files.copy(env.jar(), originalTmp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                                        FileUtils.atomicMove(originalTmp, original);
+                                    }
+                                    FileUtils.atomicMove(tempInput, env.jar());
+                                } catch (final IOException ex) {
+                                    throw new CompletionException(ex);
+                                }
+                                return in;
+                            });
                     } else {
-                        return CompletableFuture.completedFuture(ResolutionResult.result(output, true)); // todo: find some better way of checking validity? for ex. when decompiler version changes
+                        actionResult = action.apply(env, tempOut);
                     }
-                },
-                this.executor()
-            )
+                    return actionResult.thenApply(in -> {
+                        try {
+                            FileUtils.atomicMove(tempOut, output);
+                        } catch (final IOException ex) {
+                            throw new CompletionException(ex);
+                        }
+                        return ResolutionResult.result(output, false);
+                    });
+                } else {
+                    return CompletableFuture.completedFuture(ResolutionResult.result(output, true)); // todo: find some better way of checking validity? for ex. when decompiler version changes
+                }
+            },
+            requester::add
         );
     }
 
@@ -546,9 +545,10 @@ public <T> T processSyncTasksUntilComplete(final CompletableFuture<T> future) th
             return future.get();
         }
 
+        final BlockingQueue<Runnable> tasks = this.syncTasks.get();
         future.handleAsync(
             (res, err) -> {
-                this.syncTasks.add(new CompleteEvaluation(future));
+                tasks.add(new CompleteEvaluation(future));
                 return res;
             },
             this.executor
@@ -556,15 +556,14 @@ public <T> T processSyncTasksUntilComplete(final CompletableFuture<T> future) th
 
         Runnable action;
         for (;;) {
-            action = this.syncTasks.take();
+            action = tasks.take();
 
             // todo: rethrow exceptions with an ExecutionException
             if (action instanceof CompleteEvaluation) {
                 if (((CompleteEvaluation) action).completed == future) {
                     break;
-                } else {
-                    this.syncTasks.add(action);
                 }
+                continue; // left over from an earlier resolution on this thread, which has already returned
             }
 
             try {
@@ -690,6 +689,22 @@ static EnvironmentKey of(final MinecraftPlatform platform, final String versionI
 
     }
 
+    /**
+     * The location an environment's jar is kept at once an associated
+     * artifact has modified it.
+     *
+     * <p>This is named like an associated artifact, so it is cleaned with
+     * them when the environment is prepared again. It keeps the size and
+     * modification time of the jar it was copied from.</p>
+     *
+     * @param jar the environment jar
+     * @return the location of the unmodified jar
+     */
+    public static Path originalJar(final Path jar) {
+        final String name = jar.getFileName().toString();
+        return jar.resolveSibling(name.substring(0, name.length() - ".jar".length()) + "-original.jar");
+    }
+
     static final class MinecraftEnvironmentImpl implements MinecraftEnvironment {
 
         private final String decoratedArtifactId;
@@ -714,6 +729,12 @@ public Path jar() {
             return this.jar;
         }
 
+        @Override
+        public Path originalJar() {
+            final Path original = MinecraftResolverImpl.originalJar(this.jar);
+            return Files.isRegularFile(original) ? original : this.jar;
+        }
+
         @Override
         public Set<GroupArtifactVersion> dependencies() {
             return this.dependencies.get();
@@ -726,6 +747,57 @@ public VersionDescriptor.Full metadata() {
 
     }
 
+    /**
+     * The context for a single resolution request, bound to the thread that
+     * made the request.
+     */
+    final class RequestContext implements MinecraftResolver.Context {
+
+        private final BlockingQueue<Runnable> syncTasks;
+
+        RequestContext(final BlockingQueue<Runnable> syncTasks) {
+            this.syncTasks = syncTasks;
+        }
+
+        @Override
+        public VersionManifestRepository versions() {
+            return MinecraftResolverImpl.this.manifests;
+        }
+
+        @Override
+        public Downloader downloader() {
+            return MinecraftResolverImpl.this.downloader;
+        }
+
+        @Override
+        public Executor executor() {
+            return MinecraftResolverImpl.this.executor;
+        }
+
+        @Override
+        public Executor syncExecutor() {
+            return this.syncTasks::add;
+        }
+
+        @Override
+        public Supplier<URLClassLoader> classLoaderWithTool(final ResolvableTool tool) {
+            final @Nullable Function<ResolvableTool, URL[]> toolResolver = MinecraftResolverImpl.this.toolResolver;
+            if (toolResolver == null) {
+                throw new IllegalStateException("No tool resolver has been configured to resolve " + tool);
+            }
+            final URL[] toolUrls = toolResolver.apply(tool);
+
+            // Create a ClassLoader containing the resolved configuration, plus our own code source to be able to access our own classes
+            final URL[] classPath = new URL[toolUrls.length + 1];
+            classPath[0] = MinecraftResolverImpl.class.getProtectionDomain().getCodeSource().getLocation();
+            System.arraycopy(toolUrls, 0, classPath, 1, toolUrls.length);
+            // Use a custom classloader that prefers classes from the child loader
+            // Loaders are pooled by tool, so tools stay warm across resolutions
+            return AsyncUtils.memoizedSupplier(() -> MinecraftResolverImpl.this.toolLoaders.loader(tool, classPath, MinecraftResolverImpl.class.getClassLoader()));
+        }
+
+    }
+
     static final class CompleteEvaluation implements Runnable {
 
         final CompletableFuture<?> completed;
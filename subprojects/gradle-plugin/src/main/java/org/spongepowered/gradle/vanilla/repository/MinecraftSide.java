@@ -26,6 +26,7 @@
 
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.spongepowered.gradle.vanilla.internal.Constants;
+import org.spongepowered.gradle.vanilla.internal.bundler.BundleEntries;
 import org.spongepowered.gradle.vanilla.internal.bundler.BundlerMetadata;
 import org.spongepowered.gradle.vanilla.internal.model.DownloadClassifier;
 import org.spongepowered.gradle.vanilla.internal.model.GroupArtifactVersion;
@@ -41,8 +42,6 @@
 import java.util.HashSet;
 import java.util.Set;
 import java.util.function.Predicate;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
 import java.util.stream.Collectors;
 
 public enum MinecraftSide {
@@ -94,12 +93,8 @@ public void extractJar(
             if (metadata == null) {
                 super.extractJar(downloaded, output, metadata);
             } else {
-                try (final JarFile jf = new JarFile(downloaded.toFile())) {
-                    final JarEntry ent = jf.getJarEntry(metadata.server().path());
-                    if (ent == null) {
-                        throw new IOException("Could not locate server artifact in " + downloaded + " at " + metadata.server().path());
-                    }
-                    Files.copy(jf.getInputStream(ent), output, StandardCopyOption.REPLACE_EXISTING);
+                try (final BundleEntries entries = BundleEntries.open(downloaded)) {
+                    entries.extract(metadata.server(), output);
                 }
             }
         }
@@ -0,0 +1,381 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.task;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Nested;
+import org.gradle.api.tasks.Optional;
+import org.gradle.jvm.toolchain.JavaLauncher;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+import org.spongepowered.gradle.vanilla.internal.Constants;
+import org.spongepowered.gradle.vanilla.internal.repository.MinecraftProviderService;
+import org.spongepowered.gradle.vanilla.internal.repository.ResolvableTool;
+import org.spongepowered.gradle.vanilla.internal.repository.modifier.ArtifactModifier;
+import org.spongepowered.gradle.vanilla.internal.resolver.FileFingerprints;
+import org.spongepowered.gradle.vanilla.internal.util.DecompilePlan;
+import org.spongepowered.gradle.vanilla.internal.util.DecompilePlanner;
+import org.spongepowered.gradle.vanilla.internal.worker.DecompilerEngine;
+import org.spongepowered.gradle.vanilla.internal.worker.JarDecompileWorker;
+import org.spongepowered.gradle.vanilla.repository.MinecraftPlatform;
+import org.spongepowered.gradle.vanilla.repository.MinecraftResolver;
+import org.spongepowered.gradle.vanilla.resolver.HashAlgorithm;
+import org.spongepowered.gradle.vanilla.resolver.ResolutionResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.inject.Inject;
+
+/**
+ * Common configuration for tasks that run the jar decompile worker.
+ *
+ * <p>Every decompile task shares the per-class decompile cache, so classes
+ * decompiled by one are reused by the others.</p>
+ */
+public abstract class AbstractDecompileTask extends DefaultTask {
+
+    protected AbstractDecompileTask() {
+        this.setGroup(Constants.TASK_GROUP);
+        this.getWarmWorker().convention(false);
+        this.getDecompilerEngine().convention(DecompilerEngine.DEFAULT);
+        this.getMaxWorkers().convention(this.getProject().getGradle().getStartParameter().getMaxWorkerCount());
+    }
+
+    /**
+     * Get the classpath used to execute the jar decompile worker.
+     *
+     * <p>This must contain the library of the selected
+     * {@link #getDecompilerEngine() decompiler engine} and its dependencies,
+     * by default {@code net.minecraftforge:forgeflower}.</p>
+     *
+     * @return the classpath.
+     */
+    @Classpath
+    public abstract FileCollection getWorkerClasspath();
+
+    public abstract void setWorkerClasspath(final FileCollection collection);
+
+    /**
+     * Get the libraries Minecraft depends on, excluding Minecraft itself.
+     *
+     * @return the decompile classpath
+     */
+    @Classpath
+    public abstract ConfigurableFileCollection getDecompileClasspath();
+
+    @Input
+    public abstract Property<MinecraftPlatform> getMinecraftPlatform();
+
+    @Input
+    public abstract Property<String> getMinecraftVersion();
+
+    /**
+     * The Minecraft artifact ID, decorated with the state of any modifiers.
+     *
+     * @return the decorated artifact ID
+     */
+    @Input
+    public abstract Property<String> getDecoratedArtifactId();
+
+    /**
+     * The plugin version, since the Minecraft jar's contents depend on how
+     * VanillaGradle produces it.
+     *
+     * @return the plugin version
+     */
+    @Input
+    public String getVanillaGradleVersion() {
+        return Constants.VERSION;
+    }
+
+    @Internal
+    public abstract Property<MinecraftProviderService> getMinecraftProvider();
+
+    /**
+     * The artifact modifiers applied to the Minecraft jar.
+     *
+     * <p>Their state is already part of {@link #getDecoratedArtifactId()}.</p>
+     *
+     * @return the artifact modifiers
+     */
+    @Internal
+    public abstract SetProperty<ArtifactModifier> getModifiers();
+
+    /**
+     * The classpath of the access widener tool, used if the Minecraft jar
+     * has not yet been access widened.
+     *
+     * <p>This is resolved by Gradle before the task runs, so the task itself
+     * never has to resolve a configuration.</p>
+     *
+     * @return the access widener classpath
+     */
+    @Classpath
+    public abstract ConfigurableFileCollection getAccessWidenerClasspath();
+
+    @Nested
+    @Optional
+    public abstract Property<JavaLauncher> getJavaLauncher();
+
+    /**
+     * The ID of the decompiler engine to use, which must be available on the
+     * {@link #getWorkerClasspath() worker classpath}.
+     *
+     * @return the engine ID
+     */
+    @Input
+    public abstract Property<String> getDecompilerEngine();
+
+    /**
+     * Extra arguments to pass to the decompiler engine (fernflower by default),
+     * to override VanillaGradle's defaults.
+     *
+     * @return extra arguments
+     */
+    @Input
+    @Optional
+    public abstract MapProperty<String, String> getExtraFernFlowerArgs();
+
+    /**
+     * A directory to cache individual decompiled classes in.
+     *
+     * <p>This does not affect the task's outputs, only how quickly they can
+     * be produced when only some classes have changed.</p>
+     *
+     * @return the class cache directory
+     */
+    @Internal
+    public abstract DirectoryProperty getClassCache();
+
+    /**
+     * Whether to keep the decompiler worker warm between decompilations.
+     *
+     * <p>Gradle keeps worker processes alive for the lifetime of the daemon,
+     * and reuses one for any work started with the same options, so a warm
+     * worker is given a heap that depends only on the jar, and is not
+     * sharded unless {@code --shards} is passed. Repeated decompiles (for
+     * example while iterating on access wideners) then skip process startup
+     * and JIT warm-up.</p>
+     *
+     * <p>A warm worker also keeps its libraries memory-mapped and indexed,
+     * along with recently inflated classes, so classes the decompiler loads
+     * lazily are read without touching the jar again. The decompiler itself
+     * still scans every library when each decompilation starts.</p>
+     *
+     * @return whether to keep the worker warm
+     */
+    @Internal
+    public abstract Property<Boolean> getWarmWorker();
+
+    /**
+     * The maximum number of workers Gradle may run at once, defaulting to
+     * the build's {@code --max-workers}.
+     *
+     * @return the worker limit
+     */
+    @Internal
+    public abstract Property<Integer> getMaxWorkers();
+
+    /**
+     * A record of the heap sizes, thread counts and shard count chosen for
+     * the last decompilation, and the limits they were derived from.
+     *
+     * <p>This describes the machine that ran the task rather than its
+     * outputs, so it is not tracked as an output or cached.</p>
+     *
+     * @return the resource plan file
+     */
+    @Internal
+    public abstract RegularFileProperty getResourcePlan();
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    /**
+     * Resolve the Minecraft environment to decompile.
+     *
+     * <p>Everything that needs a configuration resolved is a task input, so
+     * this does not need a project lock.</p>
+     *
+     * @return the environment
+     */
+    protected MinecraftResolver.MinecraftEnvironment resolveEnvironment() {
+        final MinecraftResolver.MinecraftEnvironment env;
+        try {
+            final MinecraftProviderService minecraftProvider = this.getMinecraftProvider().get();
+            final Set<ArtifactModifier> modifiers = this.getModifiers().get();
+
+            minecraftProvider.primeResolver(Collections.singletonMap(ResolvableTool.ACCESS_WIDENER, this.getAccessWidenerClasspath()), modifiers);
+            final ResolutionResult<MinecraftResolver.MinecraftEnvironment> result = minecraftProvider.resolver().processSyncTasksUntilComplete(
+                minecraftProvider.resolver().provide(this.getMinecraftPlatform().get(), this.getMinecraftVersion().get(), modifiers)
+            );
+            if (!result.isPresent()) {
+                throw new InvalidUserDataException("No Minecraft environment could be found for '" + this.getMinecraftPlatform().get()
+                    + "' version " + this.getMinecraftVersion().get());
+            }
+            env = result.get();
+        } catch (final ExecutionException ex) {
+            throw new GradleException("Failed to resolve Minecraft " + this.getMinecraftVersion().get(), ex.getCause());
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted");
+        }
+
+        if (this.getDecompileClasspath().isEmpty()) {
+            throw new InvalidUserDataException("No dependencies were found as part of the classpath");
+        }
+        return env;
+    }
+
+    /**
+     * Plan the resources to decompile a jar with, and record the plan.
+     *
+     * <p>The returned lease must be closed once every worker has completed,
+     * so its resources are available to other decompilations.</p>
+     *
+     * @param jar the jar to decompile
+     * @param shards the number of shards requested by the user, or
+     *     {@code null} to choose automatically
+     * @return a lease on the planned resources
+     */
+    protected DecompilePlanner.Lease planResources(final Path jar, final @Nullable Integer shards) {
+        int classes = 0;
+        try (final ZipFile zip = new ZipFile(jar.toFile())) {
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                if (entries.nextElement().getName().endsWith(".class")) {
+                    classes++;
+                }
+            }
+        } catch (final IOException ex) {
+            throw new GradleException("Failed to read " + jar, ex);
+        }
+
+        final DecompilePlanner.Lease lease = DecompilePlanner.acquire(classes, this.getMaxWorkers().get(), shards, this.getWarmWorker().get());
+        final DecompilePlan plan = lease.plan();
+        this.getLogger().lifecycle(
+            "Decompiling {} classes with {} shard(s) of {}M heap and {} thread(s), assembling with {}M heap and {} thread(s) ({} CPUs and {}M available, limited by {})",
+            plan.classes(), plan.shards(), plan.shardHeapMegabytes(), plan.shardThreads(), plan.heapMegabytes(), plan.threads(),
+            plan.cpus(), plan.availableMegabytes(), plan.limitSource()
+        );
+        final Path planFile = this.getResourcePlan().get().getAsFile().toPath();
+        try {
+            Files.createDirectories(planFile.getParent());
+            Files.write(planFile, plan.describe().getBytes(StandardCharsets.UTF_8));
+        } catch (final IOException ex) {
+            lease.close();
+            throw new GradleException("Failed to record the decompile plan in " + planFile, ex);
+        }
+        return lease;
+    }
+
+    protected WorkQueue workQueue(final long heapMegabytes) {
+        return this.getWorkerExecutor().processIsolation(spec -> {
+            spec.forkOptions(options -> {
+                options.setMaxHeapSize(heapMegabytes + "M");
+                // Enable toolchain support
+                if (this.getJavaLauncher().isPresent()) {
+                    final JavaLauncher launcher = this.getJavaLauncher().get();
+                    options.setExecutable(launcher.getExecutablePath());
+                }
+            });
+            spec.getClasspath().from(this.getWorkerClasspath());
+        });
+    }
+
+    /**
+     * Configure the parameters shared by every decompiler worker.
+     *
+     * @param parameters the worker parameters
+     * @param input the jar to decompile
+     * @param output the sources jar to write
+     * @param decompilerKey the result of {@link #decompilerKey()}
+     */
+    protected void configure(
+        final JarDecompileWorker.Parameters parameters,
+        final Path input,
+        final RegularFileProperty output,
+        final String decompilerKey
+    ) {
+        parameters.getDecompileClasspath().from(this.getDecompileClasspath());
+        parameters.getEngine().set(this.getDecompilerEngine());
+        parameters.getExtraArgs().set(this.getExtraFernFlowerArgs().orElse(Collections.emptyMap()));
+        parameters.getInputJar().set(input.toFile());
+        parameters.getOutputJar().set(output);
+        parameters.getClassCache().set(this.getClassCache());
+        parameters.getCacheKey().set(decompilerKey);
+        parameters.getKeepWarm().set(this.getWarmWorker());
+    }
+
+    /**
+     * Compute a key identifying the decompiler and everything it decompiles
+     * against, other than the jar being decompiled.
+     *
+     * @return the key
+     */
+    protected String decompilerKey() {
+        final FileFingerprints fingerprints = FileFingerprints.shared();
+        final MessageDigest digest = HashAlgorithm.SHA1.digest();
+        digest.update(Constants.VERSION.getBytes(StandardCharsets.UTF_8));
+        try {
+            for (final File file : this.getWorkerClasspath()) {
+                digest.update(fingerprints.digest(file.toPath(), HashAlgorithm.SHA1));
+            }
+            // Library order matters to the decompiler
+            digest.update((byte) 0);
+            for (final File file : this.getDecompileClasspath()) {
+                digest.update(fingerprints.digest(file.toPath(), HashAlgorithm.SHA1));
+            }
+        } catch (final IOException ex) {
+            throw new GradleException("Failed to fingerprint the decompile classpath", ex);
+        }
+        return HashAlgorithm.toHexString(digest.digest());
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.task;
+
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
+import org.spongepowered.gradle.vanilla.internal.util.DecompilePlan;
+import org.spongepowered.gradle.vanilla.internal.util.DecompilePlanner;
+import org.spongepowered.gradle.vanilla.internal.worker.JarDecompileWorker;
+import org.spongepowered.gradle.vanilla.repository.MinecraftResolver;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Decompile only some classes of the Minecraft jar, producing a partial
+ * sources jar.
+ *
+ * <p>Each requested class is decompiled together with its inner classes,
+ * against the rest of the jar and its libraries. Results are shared with
+ * {@link DecompileJarTask} through the per-class decompile cache, so classes
+ * that either task has already decompiled are served straight from the
+ * cache.</p>
+ *
+ * <p>Unlike a full decompile, the Minecraft jar is left untouched, so line
+ * numbers in the jar will not match the partial sources.</p>
+ */
+public abstract class DecompileClassesTask extends AbstractDecompileTask {
+
+    /**
+     * The binary names of the classes to decompile.
+     *
+     * @return the class names
+     */
+    @Input
+    public abstract SetProperty<String> getClassNames();
+
+    @Option(option = "class", description = "The binary name of a class to decompile, may be given more than once")
+    public void setClassNames(final List<String> classNames) {
+        this.getClassNames().set(classNames);
+    }
+
+    /**
+     * The partial sources jar, containing only the requested classes.
+     *
+     * @return the sources jar
+     */
+    @OutputFile
+    public abstract RegularFileProperty getOutputJar();
+
+    @TaskAction
+    public void execute() {
+        final Set<String> classes = this.getClassNames().get().stream()
+            .map(name -> name.replace('.', '/'))
+            .collect(Collectors.toSet());
+        if (classes.isEmpty()) {
+            throw new InvalidUserDataException("No classes were requested for decompilation, specify some with --class");
+        }
+
+        final MinecraftResolver.MinecraftEnvironment env = this.resolveEnvironment();
+        final String decompilerKey = this.decompilerKey();
+        // Classes are cached by their bytes, so match those a full decompile would have seen
+        final Path input = env.originalJar();
+        try (final DecompilePlanner.Lease lease = this.planResources(input, 1)) {
+            final DecompilePlan plan = lease.plan();
+            this.workQueue(plan.heapMegabytes()).submit(JarDecompileWorker.class, parameters -> {
+                this.configure(parameters, input, this.getOutputJar(), decompilerKey);
+                parameters.getThreads().set(plan.threads());
+                parameters.getClasses().set(classes);
+            });
+            this.getWorkerExecutor().await();
+        }
+    }
+
+}
@@ -24,182 +24,213 @@
  */
 package org.spongepowered.gradle.vanilla.task;
 
-import com.sun.management.OperatingSystemMXBean;
-import org.gradle.api.DefaultTask;
 import org.gradle.api.GradleException;
 import org.gradle.api.InvalidUserDataException;
-import org.gradle.api.artifacts.ArtifactCollection;
-import org.gradle.api.artifacts.result.ResolvedArtifactResult;
-import org.gradle.api.file.FileCollection;
-import org.gradle.api.provider.MapProperty;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.provider.Property;
-import org.gradle.api.tasks.Classpath;
-import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Internal;
-import org.gradle.api.tasks.Nested;
-import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.api.tasks.options.Option;
-import org.gradle.internal.component.external.model.ModuleComponentArtifactIdentifier;
-import org.gradle.jvm.toolchain.JavaLauncher;
-import org.gradle.workers.WorkerExecutor;
-import org.spongepowered.gradle.vanilla.MinecraftExtension;
-import org.spongepowered.gradle.vanilla.internal.Constants;
-import org.spongepowered.gradle.vanilla.internal.MinecraftExtensionImpl;
-import org.spongepowered.gradle.vanilla.internal.repository.MinecraftProviderService;
-import org.spongepowered.gradle.vanilla.internal.repository.modifier.ArtifactModifier;
-import org.spongepowered.gradle.vanilla.internal.repository.modifier.AssociatedResolutionFlags;
+import org.gradle.workers.WorkQueue;
+import org.spongepowered.gradle.vanilla.internal.repository.DecompiledSourcesStore;
+import org.spongepowered.gradle.vanilla.internal.util.DecompilePlan;
+import org.spongepowered.gradle.vanilla.internal.util.DecompilePlanner;
+import org.spongepowered.gradle.vanilla.internal.util.ReproducibleJars;
 import org.spongepowered.gradle.vanilla.internal.worker.JarDecompileWorker;
-import org.spongepowered.gradle.vanilla.repository.MinecraftPlatform;
 import org.spongepowered.gradle.vanilla.repository.MinecraftResolver;
-import org.spongepowered.gradle.vanilla.resolver.ResolutionResult;
+import org.spongepowered.gradle.vanilla.resolver.HashAlgorithm;
 
-import java.io.File;
-import java.lang.management.ManagementFactory;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Collections;
-import java.util.EnumSet;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
-import javax.inject.Inject;
-
-public abstract class DecompileJarTask extends DefaultTask {
-
-    private static final ReentrantLock DECOMPILE_LOCK = new ReentrantLock();
+/**
+ * Decompile the Minecraft jar, producing a sources jar and a copy of the
+ * binary jar with line numbers matching those sources.
+ *
+ * <p>The outputs of this task are cacheable. Inputs are identified by the
+ * decorated Minecraft artifact rather than the jar itself, since the jar
+ * in the repository is rewritten with mapped line numbers once
+ * {@link InstallDecompiledJarTask} has run.</p>
+ *
+ * <p>Outputs are also shared between every project on the machine through
+ * the {@link #getSourcesStore() sources store}, whether or not a build cache
+ * is in use.</p>
+ */
+@CacheableTask
+public abstract class DecompileJarTask extends AbstractDecompileTask {
 
     public DecompileJarTask() {
-        this.setGroup(Constants.TASK_GROUP);
+        this.getOutputs().upToDateWhen(task -> !((DecompileJarTask) task).getForced().getOrElse(false));
+        this.getOutputs().doNotCacheIf("A re-decompile was forced", task -> ((DecompileJarTask) task).getForced().getOrElse(false));
     }
 
     /**
-     * Get the classpath used to execute the jar decompile worker.
+     * The number of worker processes to split decompilation between.
+     *
+     * <p>Each shard decompiles a share of the top-level classes against the
+     * same libraries, in its own JVM with a smaller heap. This is limited by
+     * {@link #getMaxWorkers()}.</p>
      *
-     * <p>This must contain the {@code net.minecraftforge:forgeflower} library and
-     * its dependencies.</p>
+     * <p>If unset, a shard count is chosen from the available CPUs and
+     * memory.</p>
      *
-     * @return the classpath.
+     * @return the requested number of shards
      */
-    @Classpath
-    public abstract FileCollection getWorkerClasspath();
-
-    public abstract void setWorkerClasspath(final FileCollection collection);
-
-    @Input
-    public abstract Property<ArtifactCollection> getInputArtifacts();
-
-    @Input
-    public abstract Property<MinecraftPlatform> getMinecraftPlatform();
+    @Internal
+    public abstract Property<Integer> getShards();
 
-    @Input
-    public abstract Property<String> getMinecraftVersion();
+    @Option(option = "shards", description = "The number of worker processes to split decompilation between")
+    public void setShards(final String shards) {
+        try {
+            this.getShards().set(Integer.parseInt(shards));
+        } catch (final NumberFormatException ex) {
+            throw new InvalidUserDataException("Invalid shard count '" + shards + "'", ex);
+        }
+    }
 
     @Internal
-    public abstract Property<MinecraftProviderService> getMinecraftProvider();
-
-    @Input
-    @Optional
-    public abstract Property<JavaLauncher> getJavaLauncher();
+    @Option(option = "force", description = "Whether to decompile again, even if an input file already exists")
+    public abstract Property<Boolean> getForced();
 
     /**
-     * Extra arguments to pass to fernflower, to override VanillaGradle's defaults.
+     * The decompiled sources jar.
      *
-     * @return extra arguments
+     * @return the sources jar
      */
-    @Nested
-    @Optional
-    public abstract MapProperty<String, String> getExtraFernFlowerArgs();
+    @OutputFile
+    public abstract RegularFileProperty getOutputJar();
 
-    @Input
-    @Optional
-    @Option(option = "force", description = "Whether to decompile again, even if an input file already exists")
-    public abstract Property<Boolean> getForced();
+    /**
+     * A copy of the Minecraft jar, with line numbers remapped to match the
+     * decompiled sources.
+     *
+     * @return the line-mapped jar
+     */
+    @OutputFile
+    public abstract RegularFileProperty getLineMappedJar();
 
-    @Inject
-    protected abstract WorkerExecutor getWorkerExecutor();
+    /**
+     * A directory of decompiled sources shared between every project on
+     * this machine.
+     *
+     * <p>Entries are keyed by the Minecraft version, the decorated artifact
+     * ID (which captures the content of any modifiers, such as access
+     * wideners), and the decompiler and its libraries, so identical
+     * environments in different root projects are only decompiled once.</p>
+     *
+     * @return the shared sources directory
+     */
+    @Internal
+    public abstract DirectoryProperty getSourcesStore();
 
     @TaskAction
     public void execute() {
-        // TODO: get rid of these project references... somehow
-        // TODO: also find a less hacky way to ensure we don't acquire a Project lock before a task executing on a different thread can resolve the
-        // dependencies necessary (mergetool, AW, etc)
-        DecompileJarTask.DECOMPILE_LOCK.lock(); // gradle is super picky about how we resolve configurations, so this lock is a hack fix...
-        final CompletableFuture<ResolutionResult<Path>> resultFuture;
-        try {
-            final MinecraftProviderService minecraftProvider = this.getMinecraftProvider().get();
-            final Set<ArtifactModifier> modifiers =
-                ((MinecraftExtensionImpl) this.getProject().getExtensions().getByType(MinecraftExtension.class)).modifiers();
-
-            minecraftProvider.primeResolver(this.getProject(), modifiers);
-            final Set<AssociatedResolutionFlags> flags = EnumSet.of(AssociatedResolutionFlags.MODIFIES_ORIGINAL);
-            if (this.getForced().getOrElse(false)) {
-                flags.add(AssociatedResolutionFlags.FORCE_REGENERATE);
+        final String decompilerKey = this.decompilerKey();
+        final Path sources = this.getOutputJar().get().getAsFile().toPath();
+        final Path lineMapped = this.getLineMappedJar().get().getAsFile().toPath();
+        final DecompiledSourcesStore store = new DecompiledSourcesStore(this.getSourcesStore().get().getAsFile().toPath());
+        final String fingerprint = this.sourcesFingerprint(decompilerKey);
+
+        // Held while decompiling, so other projects with the same environment wait for our result
+        try (final DecompiledSourcesStore.Lock lock = store.lock(fingerprint)) {
+            if (!this.getForced().getOrElse(false) && store.retrieve(fingerprint, sources, lineMapped)) {
+                this.getLogger().lifecycle("Using shared decompiled sources for {} {}", this.getDecoratedArtifactId().get(), this.getMinecraftVersion().get());
+                final Path planFile = this.getResourcePlan().get().getAsFile().toPath();
+                Files.createDirectories(planFile.getParent());
+                Files.write(planFile, ("shared.sources=" + fingerprint + '\n').getBytes(StandardCharsets.UTF_8));
+                return;
             }
-            resultFuture = minecraftProvider.resolver().produceAssociatedArtifact(
-                this.getMinecraftPlatform().get(),
-                this.getMinecraftVersion().get(),
-                modifiers,
-                "sources",
-                flags,
-                (env, output) -> {
-                    final long totalSystemMemoryBytes =
-                        ((OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getTotalPhysicalMemorySize() / (1024L * 1024L);
-                    return CompletableFuture.runAsync(() -> {
-                        // Determine which parts of the configuration are MC, and which are its dependencies
-                        final Set<File> dependencies = new HashSet<>();
-                        for (final ResolvedArtifactResult artifact : this.getInputArtifacts().get()) {
-                            if (artifact.getId() instanceof ModuleComponentArtifactIdentifier) {
-                                final ModuleComponentArtifactIdentifier id = (ModuleComponentArtifactIdentifier) artifact.getId();
-                                if (id.getComponentIdentifier().getGroup().equals(MinecraftPlatform.GROUP)) {
-                                    if (env.decoratedArtifactId().equals(id.getComponentIdentifier().getModule())) {
-                                        continue;
-                                    }
-                                }
-                            }
-                            dependencies.add(artifact.getFile());
-                        }
-
-                        if (dependencies.isEmpty()) {
-                            throw new InvalidUserDataException("No dependencies were found as part of the classpath");
-                        }
-
-                        // Execute in an isolated JVM that can access our customized classpath
-                        // This actually performs the decompile
-                        this.getWorkerExecutor().processIsolation(spec -> {
-                            spec.forkOptions(options -> {
-                                options.setMaxHeapSize(Math.max(totalSystemMemoryBytes / 4, 4096) + "M");
-                                // Enable toolchain support
-                                if (this.getJavaLauncher().isPresent()) {
-                                    final JavaLauncher launcher = this.getJavaLauncher().get();
-                                    options.setExecutable(launcher.getExecutablePath());
-                                }
-                            });
-                            spec.getClasspath().from(this.getWorkerClasspath());
-                        }).submit(JarDecompileWorker.class, parameters -> {
-                            parameters.getDecompileClasspath().from(dependencies);
-                            parameters.getExtraArgs().set(this.getExtraFernFlowerArgs().orElse(Collections.emptyMap()));
-                            parameters.getInputJar().set(env.jar().toFile()); // Use the temporary jar
-                            parameters.getOutputJar().set(output.toFile());
-                        });
-                        this.getWorkerExecutor().await();
-                    }, ((MinecraftResolver.Context) minecraftProvider.resolver()).syncExecutor());
-                }
-            );
+
+            // Any failure in a worker is rethrown here, so only complete outputs are shared
+            this.decompile(decompilerKey, lineMapped);
 
             try {
-                final ResolutionResult<Path> result = minecraftProvider.resolver().processSyncTasksUntilComplete(resultFuture);
-                this.setDidWork(!result.upToDate());
-            } catch (final ExecutionException ex) {
-                throw new GradleException("Failed to decompile " + this.getMinecraftVersion().get(), ex.getCause());
-            } catch (final InterruptedException ex) {
-                Thread.currentThread().interrupt();
-                throw new GradleException("Interrupted");
+                store.store(fingerprint, sources, lineMapped);
+            } catch (final IOException ex) {
+                this.getLogger().warn("Failed to share decompiled sources for {}, other projects will decompile again", this.getDecoratedArtifactId().get(), ex);
+            }
+        } catch (final IOException ex) {
+            throw new GradleException("Failed to access shared decompiled sources", ex);
+        }
+    }
+
+    /**
+     * Compute a key for the outputs of this task, independent of which
+     * project it runs in.
+     *
+     * @param decompilerKey the result of {@link #decompilerKey()}
+     * @return the fingerprint
+     */
+    private String sourcesFingerprint(final String decompilerKey) {
+        final StringBuilder key = new StringBuilder()
+            .append(this.getMinecraftPlatform().get().artifactId()).append('\n')
+            .append(this.getMinecraftVersion().get()).append('\n')
+            .append(this.getDecoratedArtifactId().get()).append('\n')
+            .append(decompilerKey).append('\n')
+            .append(this.getDecompilerEngine().get());
+        for (final Map.Entry<String, String> arg : new TreeMap<>(this.getExtraFernFlowerArgs().getOrElse(Collections.emptyMap())).entrySet()) {
+            key.append('\n').append(arg.getKey()).append('=').append(arg.getValue());
+        }
+        return HashAlgorithm.toHexString(HashAlgorithm.SHA1.digest().digest(key.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void decompile(final String decompilerKey, final Path lineMapped) {
+        final MinecraftResolver.MinecraftEnvironment env = this.resolveEnvironment();
+
+        // The decompiler remaps line numbers in its input, so we work on our own copy of the jar
+        // Once sources are installed the repository jar is itself line-mapped, so start from the jar as it was produced
+        final Path input = env.originalJar();
+        try {
+            Files.createDirectories(lineMapped.getParent());
+            Files.copy(input, lineMapped, StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException ex) {
+            throw new GradleException("Failed to prepare " + input + " for decompilation", ex);
+        }
+
+        try (final DecompilePlanner.Lease lease = this.planResources(lineMapped, this.getShards().getOrNull())) {
+            final DecompilePlan plan = lease.plan();
+
+            // Execute in an isolated JVM that can access our customized classpath
+            // This actually performs the decompile
+            if (plan.shards() > 1) {
+                final WorkQueue shardQueue = this.workQueue(plan.shardHeapMegabytes());
+                for (int i = 0; i < plan.shards(); i++) {
+                    final int shard = i;
+                    shardQueue.submit(JarDecompileWorker.class, parameters -> {
+                        this.configure(parameters, lineMapped, this.getOutputJar(), decompilerKey);
+                        parameters.getThreads().set(plan.shardThreads());
+                        parameters.getShard().set(shard);
+                        parameters.getShardCount().set(plan.shards());
+                        parameters.getAssemble().set(false);
+                    });
+                }
+                this.getWorkerExecutor().await();
             }
-        } finally {
-            DecompileJarTask.DECOMPILE_LOCK.unlock();
+
+            // Assemble outputs from the class cache, decompiling anything still missing
+            this.workQueue(plan.heapMegabytes()).submit(JarDecompileWorker.class, parameters -> {
+                this.configure(parameters, lineMapped, this.getOutputJar(), decompilerKey);
+                parameters.getThreads().set(plan.threads());
+            });
+            this.getWorkerExecutor().await();
+        }
+
+        // Neither the decompiler nor the line mapper write entries in a stable order
+        try {
+            ReproducibleJars.normalize(this.getOutputJar().get().getAsFile().toPath(), ForkJoinPool.commonPool());
+            ReproducibleJars.normalize(lineMapped, ForkJoinPool.commonPool());
+        } catch (final IOException ex) {
+            throw new GradleException("Failed to normalize decompiler output", ex);
         }
     }
 
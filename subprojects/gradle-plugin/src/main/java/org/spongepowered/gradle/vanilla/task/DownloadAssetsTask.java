@@ -27,34 +27,52 @@
 import org.gradle.api.DefaultTask;
 import org.gradle.api.GradleException;
 import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
 import org.spongepowered.gradle.vanilla.internal.Constants;
 import org.spongepowered.gradle.vanilla.internal.model.AssetIndex;
 import org.spongepowered.gradle.vanilla.internal.model.AssetIndexReference;
 import org.spongepowered.gradle.vanilla.resolver.Downloader;
 import org.spongepowered.gradle.vanilla.resolver.HashAlgorithm;
 import org.spongepowered.gradle.vanilla.internal.repository.MinecraftProviderService;
+import org.spongepowered.gradle.vanilla.internal.util.LocalAssetStores;
 import org.spongepowered.gradle.vanilla.resolver.ResolutionResult;
-import org.spongepowered.gradle.vanilla.internal.util.GsonUtils;
-import org.spongepowered.gradle.vanilla.internal.util.Pair;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashSet;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
-import java.util.Set;
+import java.util.Queue;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public abstract class DownloadAssetsTask extends DefaultTask {
 
+    private static final String INDEXES = "indexes";
+    private static final String OBJECTS = "objects";
+    private static final String INDEX_EXTENSION = ".json";
+    private static final String VERIFIED_EXTENSION = ".verified";
+
     @Input
     public abstract Property<String> getAssetsDirectory();
 
@@ -64,6 +82,34 @@ public abstract class DownloadAssetsTask extends DefaultTask {
     @Internal
     public abstract Property<MinecraftProviderService> getMinecraftProvider();
 
+    /**
+     * Other asset directories to take objects from before downloading them.
+     *
+     * <p>Objects are verified against the index before they're used.</p>
+     *
+     * @return the asset source directories
+     */
+    @Internal
+    public abstract ConfigurableFileCollection getAssetSources();
+
+    /**
+     * Whether to check every asset against its hash, even if nothing appears
+     * to have changed.
+     *
+     * <p>Without this, assets are only checked again when objects are added
+     * to or removed from the store. A file that is modified in place, such
+     * as by disk corruption, is only detected by a full verification.</p>
+     *
+     * @return whether to verify every asset
+     */
+    @Internal
+    @Option(
+        option = "verify",
+        description = "Whether to check every asset against its hash, even if nothing appears to have changed. "
+            + "Needed to detect assets that were modified in place"
+    )
+    public abstract Property<Boolean> getVerify();
+
     public DownloadAssetsTask() {
         this.setGroup(Constants.TASK_GROUP);
         this.getOutputs().upToDateWhen(t -> false);
@@ -77,88 +123,209 @@ public void execute() {
 
         // Fetch asset index
         this.getLogger().info("Fetching asset index for {}", this.getTargetVersion().get());
-        final CompletableFuture<ResolutionResult<AssetIndex>> assets = this.getMinecraftProvider().get().versions().fullVersion(this.getTargetVersion().get())
-            .thenCompose(result -> {
-                if (!result.isPresent()) {
-                    return CompletableFuture.completedFuture(ResolutionResult.notFound());
-                }
-                final AssetIndexReference ref = result.get().assetIndex();
-                return downloader.readStringAndValidate(ref.url(), "indexes/" + ref.id() + ".json", HashAlgorithm.SHA1, ref.sha1())
-                    .thenApply(idx -> idx.mapIfPresent((upToDate, contents) -> GsonUtils.GSON.fromJson(contents, AssetIndex.class)));
-            });
-
-        final AssetIndex index;
+        final AssetIndexReference ref;
+        final Path index;
         try {
-            index = assets.get()
+            ref = this.getMinecraftProvider().get().versions().fullVersion(this.getTargetVersion().get()).get()
+                .orElseThrow(() -> new InvalidUserDataException("Could not resolve a version descriptor for '" + this.getTargetVersion().get() + "'!"))
+                .assetIndex();
+
+            // If every object has been verified against this index before, and nothing in the store has changed since, we're done
+            final Path objectsDirectory = assetsDirectory.resolve(DownloadAssetsTask.OBJECTS);
+            final Path indexes = assetsDirectory.resolve(DownloadAssetsTask.INDEXES);
+            final Path marker = indexes.resolve(ref.id() + DownloadAssetsTask.VERIFIED_EXTENSION);
+            final Path existingIndex = indexes.resolve(ref.id() + DownloadAssetsTask.INDEX_EXTENSION);
+            if (!this.getVerify().getOrElse(false) && DownloadAssetsTask.isVerified(marker, ref.sha1(), existingIndex, objectsDirectory)) {
+                this.getLogger().info("All assets for {} were already verified", this.getTargetVersion().get());
+                this.setDidWork(false);
+                return;
+            }
+            Files.deleteIfExists(marker);
+
+            index = downloader.downloadAndValidate(ref.url(), DownloadAssetsTask.INDEXES + "/" + ref.id() + DownloadAssetsTask.INDEX_EXTENSION, HashAlgorithm.SHA1, ref.sha1())
+                .get()
                 .orElseThrow(() -> new InvalidUserDataException("Could not resolve an asset index for version '" + this.getTargetVersion().get() + "'!"));
         } catch (final InterruptedException ex) {
             Thread.currentThread().interrupt();
             throw new GradleException("interrupted");
         } catch (final ExecutionException ex) {
             throw new GradleException("Failed to download asset index", ex.getCause());
+        } catch (final IOException ex) {
+            throw new GradleException("Failed to check asset verification state", ex);
         }
 
-        this.getLogger().info("Downloading and verifying {} assets for {}", index.objects().size(), this.getTargetVersion().get());
-        final Path objectsDirectory = assetsDirectory.resolve("objects");
+        this.getLogger().info("Downloading and verifying assets for {}", this.getTargetVersion().get());
+        final Path objectsDirectory = assetsDirectory.resolve(DownloadAssetsTask.OBJECTS);
         final Downloader objectDownloader = downloader.withBaseDir(objectsDirectory);
-        // For every asset in the index, resolve create a future providing the resolution result
-        // The asset index will handle resolution
-        final Set<CompletableFuture<ResolutionResult<AssetIndex.Asset>>> results = new HashSet<>();
-        final Set<Pair<Pair<String, AssetIndex.Asset>, Throwable>> failedAssets = ConcurrentHashMap.newKeySet();
-
-        // Send out all the requests
-        for (final Map.Entry<String, AssetIndex.Asset> asset : index.objects().entrySet()) {
-            results.add(objectDownloader.downloadAndValidate(
-                this.assetUrl(asset.getValue()),
-                asset.getValue().fileName(),
-                HashAlgorithm.SHA1,
-                asset.getValue().hash()
-            )
-                .thenApply(result -> result.mapIfPresent((upToDate, unused) -> asset.getValue()))
-                .exceptionally(err -> {
-                    failedAssets.add(Pair.of(Pair.of(asset), err));
-                    return null;
-                }));
+
+        // Every asset is sent out as soon as it's read from the index, and only tallied once resolved
+        // We start with one pending task for the index itself, so completion can't be signalled before it has been read entirely
+        final AtomicInteger pending = new AtomicInteger(1);
+        final CompletableFuture<Void> allResolved = new CompletableFuture<>();
+        final AtomicInteger total = new AtomicInteger();
+        final AtomicInteger upToDate = new AtomicInteger();
+        final AtomicInteger notFound = new AtomicInteger();
+        final AtomicInteger downloaded = new AtomicInteger();
+        final LocalAssetStores stores = new LocalAssetStores(
+            this.getAssetSources().getFiles().stream().map(File::toPath).collect(Collectors.toList()),
+            assetsDirectory
+        );
+        final Queue<Map.Entry<String, Throwable>> failedAssets = new ConcurrentLinkedQueue<>();
+
+        try {
+            AssetIndex.read(index, (name, asset) -> {
+                pending.incrementAndGet();
+                final Path destination = objectsDirectory.resolve(asset.fileName());
+                final CompletableFuture<Boolean> fromStore;
+                if (stores.isEmpty() || Files.exists(destination)) {
+                    fromStore = CompletableFuture.completedFuture(false);
+                } else {
+                    // Objects missing locally are looked for in other stores first, and only downloaded if they're missing everywhere
+                    fromStore = CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return stores.provide(asset, destination);
+                        } catch (final IOException ex) {
+                            this.getLogger().info("Failed to take asset {} from a local store, will download it instead", name, ex);
+                            return false;
+                        }
+                    }, ForkJoinPool.commonPool());
+                }
+                fromStore.thenCompose(found -> found
+                    ? CompletableFuture.completedFuture(ResolutionResult.result(destination, false))
+                    : objectDownloader.downloadAndValidate(
+                        this.assetUrl(asset),
+                        asset.fileName(),
+                        HashAlgorithm.SHA1,
+                        asset.hash()
+                    ).thenApply(result -> {
+                        if (result.isPresent() && !result.upToDate()) {
+                            downloaded.incrementAndGet();
+                        }
+                        return result;
+                    })
+                ).whenComplete((result, err) -> {
+                    if (err != null) {
+                        failedAssets.add(new AbstractMap.SimpleImmutableEntry<>(name, err));
+                    } else {
+                        total.incrementAndGet();
+                        if (result.upToDate()) {
+                            upToDate.incrementAndGet();
+                        }
+                        if (!result.isPresent()) {
+                            notFound.incrementAndGet();
+                        }
+                    }
+                    if (pending.decrementAndGet() == 0) {
+                        allResolved.complete(null);
+                    }
+                });
+            });
+        } catch (final IOException ex) {
+            throw new GradleException("Failed to read asset index " + index, ex);
+        } finally {
+            if (pending.decrementAndGet() == 0) {
+                allResolved.complete(null);
+            }
         }
 
         // Then await them all, see how many had errors,
         // We handle all errors above, so we can use the simple join() here without worrying about a dangling future
-        CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+        allResolved.join();
 
         if (!failedAssets.isEmpty()) {
             this.getLogger().warn("Failed to download the following assets! Client may appear in an unexpected state.");
-            for (final Pair<Pair<String, AssetIndex.Asset>, Throwable> asset : failedAssets) {
-                this.getLogger().warn("- {}", asset.first().first(), asset.second());
+            for (final Map.Entry<String, Throwable> asset : failedAssets) {
+                this.getLogger().warn("- {}", asset.getKey(), asset.getValue());
             }
         }
 
-        final ResolutionResult.Statistics stats = results.stream()
-            .map(CompletableFuture::join)
-            .filter(Objects::nonNull)
-            .collect(ResolutionResult.statisticCollector());
+        if (failedAssets.isEmpty() && notFound.get() == 0) {
+            // Everything is present and matches its hash, so it only has to be checked again if the store changes
+            final Path marker = assetsDirectory.resolve(DownloadAssetsTask.INDEXES).resolve(ref.id() + DownloadAssetsTask.VERIFIED_EXTENSION);
+            try {
+                DownloadAssetsTask.markVerified(marker, ref.sha1(), total.get(), objectsDirectory);
+            } catch (final IOException ex) {
+                this.getLogger().info("Failed to record verified assets for {}", this.getTargetVersion().get(), ex);
+            }
+        }
 
-        if (stats.upToDate() == stats.total()) {
+        if (upToDate.get() == total.get()) {
             this.setDidWork(false);
             return; // all up-to-date
         }
         this.setDidWork(true);
 
-        if (stats.notFound() > 0) {
+        if (notFound.get() > 0) {
             this.getLogger().warn(
                 "A total of {} assets in the {} index could not be found. Results may be incorrect.",
-                stats.notFound(),
+                notFound.get(),
                 this.getTargetVersion().get()
             );
         }
 
         this.getLogger().lifecycle(
-            "Downloaded {} assets (out of {} total, {} already up-to-date",
-            stats.found() - stats.upToDate(),
-            stats.total(),
-            stats.upToDate()
+            "Downloaded {} assets (out of {} total, {} already up-to-date, {} taken from local stores)",
+            downloaded.get(),
+            total.get(),
+            upToDate.get(),
+            total.get() - notFound.get() - upToDate.get() - downloaded.get()
         );
     }
 
+    // Whether a marker records a verification of the index with this hash, with the object store unchanged since then
+    // Adding or removing objects changes the modification time of their directory, so only those directories have to be checked
+    private static boolean isVerified(final Path marker, final String indexHash, final Path index, final Path objectsDirectory) throws IOException {
+        if (!Files.isRegularFile(marker) || !Files.isRegularFile(index)) {
+            return false;
+        }
+        final List<String> lines = Files.readAllLines(marker, StandardCharsets.UTF_8);
+        if (lines.size() != 3 || !lines.get(0).equals("index " + indexHash)) {
+            return false;
+        }
+
+        // The index itself must still describe as many objects as were verified
+        final AtomicInteger objects = new AtomicInteger();
+        try {
+            AssetIndex.read(index, (name, asset) -> objects.incrementAndGet());
+        } catch (final IOException | RuntimeException ex) {
+            return false; // unreadable, so it will be downloaded again
+        }
+        return lines.get(1).equals("objects " + objects.get())
+            && lines.get(2).equals("stamp " + DownloadAssetsTask.objectsStamp(objectsDirectory));
+    }
+
+    private static void markVerified(final Path marker, final String indexHash, final int objectCount, final Path objectsDirectory) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        lines.add("index " + indexHash);
+        lines.add("objects " + objectCount);
+        lines.add("stamp " + DownloadAssetsTask.objectsStamp(objectsDirectory));
+        Files.createDirectories(marker.getParent());
+        final Path temp = Files.createTempFile(marker.getParent(), marker.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, lines, StandardCharsets.UTF_8);
+            Files.move(temp, marker, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static String objectsStamp(final Path objectsDirectory) throws IOException {
+        final MessageDigest digest = HashAlgorithm.SHA1.digest();
+        if (Files.isDirectory(objectsDirectory)) {
+            final List<Path> directories;
+            try (final Stream<Path> children = Files.list(objectsDirectory)) {
+                directories = children.sorted().collect(Collectors.toList());
+            }
+            for (final Path directory : directories) {
+                final BasicFileAttributes attributes = Files.readAttributes(directory, BasicFileAttributes.class);
+                digest.update(directory.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+                digest.update(Long.toString(attributes.lastModifiedTime().toMillis()).getBytes(StandardCharsets.UTF_8));
+                digest.update(Long.toString(attributes.size()).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        return HashAlgorithm.toHexString(digest.digest());
+    }
+
     private URL assetUrl(final AssetIndex.Asset asset) {
         try {
             return new URL("https", Constants.MINECRAFT_RESOURCES_HOST, '/' + asset.fileName());
@@ -0,0 +1,150 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.task;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.InputFile;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.spongepowered.gradle.vanilla.internal.Constants;
+import org.spongepowered.gradle.vanilla.internal.repository.MinecraftProviderService;
+import org.spongepowered.gradle.vanilla.internal.repository.ResolvableTool;
+import org.spongepowered.gradle.vanilla.internal.repository.modifier.ArtifactModifier;
+import org.spongepowered.gradle.vanilla.internal.repository.modifier.AssociatedResolutionFlags;
+import org.spongepowered.gradle.vanilla.internal.resolver.AsyncUtils;
+import org.spongepowered.gradle.vanilla.repository.MinecraftPlatform;
+import org.spongepowered.gradle.vanilla.resolver.ResolutionResult;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Install the outputs of a {@link DecompileJarTask} into the Minecraft
+ * repository, so that IDEs can attach the sources to the Minecraft jar.
+ *
+ * <p>This runs even when the decompile task's outputs came from the build
+ * cache, and does nothing if the repository is already up to date.</p>
+ */
+public abstract class InstallDecompiledJarTask extends DefaultTask {
+
+    public InstallDecompiledJarTask() {
+        this.setGroup(Constants.TASK_GROUP);
+    }
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getSourcesJar();
+
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getLineMappedJar();
+
+    @Internal
+    public abstract Property<MinecraftPlatform> getMinecraftPlatform();
+
+    @Internal
+    public abstract Property<String> getMinecraftVersion();
+
+    @Internal
+    public abstract Property<MinecraftProviderService> getMinecraftProvider();
+
+    @Internal
+    public abstract SetProperty<ArtifactModifier> getModifiers();
+
+    /**
+     * The classpath of the access widener tool, resolved before the task runs.
+     *
+     * @return the access widener classpath
+     */
+    @Classpath
+    public abstract ConfigurableFileCollection getAccessWidenerClasspath();
+
+    /**
+     * Whether to replace the installed sources even if they already exist,
+     * for example because the decompile task has just run again.
+     *
+     * @return whether to force installation
+     */
+    @Internal
+    public abstract Property<Boolean> getForced();
+
+    @TaskAction
+    public void execute() {
+        final MinecraftProviderService minecraftProvider = this.getMinecraftProvider().get();
+        final Set<ArtifactModifier> modifiers = this.getModifiers().get();
+        minecraftProvider.primeResolver(Collections.singletonMap(ResolvableTool.ACCESS_WIDENER, this.getAccessWidenerClasspath()), modifiers);
+
+        final Set<AssociatedResolutionFlags> flags = EnumSet.of(AssociatedResolutionFlags.REPLACES_ORIGINAL);
+        if (this.getForced().getOrElse(false)) {
+            flags.add(AssociatedResolutionFlags.FORCE_REGENERATE);
+        }
+        final Path sources = this.getSourcesJar().get().getAsFile().toPath();
+        final Path lineMapped = this.getLineMappedJar().get().getAsFile().toPath();
+        final CompletableFuture<ResolutionResult<Path>> resultFuture = minecraftProvider.resolver().produceAssociatedArtifact(
+            this.getMinecraftPlatform().get(),
+            this.getMinecraftVersion().get(),
+            modifiers,
+            "sources",
+            flags,
+            (env, output) -> {
+                // the resolver runs this on our own thread, while we wait below
+                try {
+                    // env.jar() is a temporary path, moved over the original once we are done
+                    Files.copy(lineMapped, env.jar(), StandardCopyOption.REPLACE_EXISTING);
+                    Files.copy(sources, output, StandardCopyOption.REPLACE_EXISTING);
+                } catch (final IOException ex) {
+                    return AsyncUtils.failedFuture(ex);
+                }
+                return CompletableFuture.completedFuture(null);
+            }
+        );
+
+        try {
+            final ResolutionResult<Path> result = minecraftProvider.resolver().processSyncTasksUntilComplete(resultFuture);
+            this.setDidWork(!result.upToDate());
+        } catch (final ExecutionException ex) {
+            throw new GradleException("Failed to install decompiled sources for " + this.getMinecraftVersion().get(), ex.getCause());
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted");
+        }
+    }
+
+}
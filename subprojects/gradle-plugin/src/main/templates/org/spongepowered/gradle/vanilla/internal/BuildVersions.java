@@ -34,7 +34,6 @@ private BuildVersions() {
 
     public static final String ASM = "${asmVersion}";
     public static final String FORGEFLOWER = "${forgeFlowerVersion}";
-    public static final String MERGE_TOOL = "${mergeToolVersion}";
     public static final String ACCESS_WIDENER = "${accessWidenerVersion}";
 
 }
\ No newline at end of file
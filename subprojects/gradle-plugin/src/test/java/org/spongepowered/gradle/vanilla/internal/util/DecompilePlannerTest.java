@@ -0,0 +1,120 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class DecompilePlannerTest {
+
+    private static final int CLASSES = 10_000;
+
+    private @TempDir Path tempDir;
+
+    @Test
+    void testSmallContainerUsesOneWorker() {
+        final DecompilePlan plan = DecompilePlanner.plan(DecompilePlannerTest.CLASSES, 4, 6 * 1024, "cgroup", 4, null, false);
+        assertEquals(1, plan.shards());
+        assertEquals(3, plan.threads());
+        assertTrue(plan.peakMegabytes() <= 6 * 1024, () -> "Plan exceeds available memory: " + plan);
+    }
+
+    @Test
+    void testHeapIsLimitedByAvailableMemory() {
+        final DecompilePlan plan = DecompilePlanner.plan(DecompilePlannerTest.CLASSES, 2, 3 * 1024, "cgroup", 2, null, false);
+        assertEquals(1, plan.shards());
+        assertEquals(3 * 1024 - DecompilePlanner.PROCESS_OVERHEAD_MEGABYTES, plan.heapMegabytes());
+    }
+
+    @Test
+    void testLargeMachineShardsWithinLimits() {
+        final DecompilePlan plan = DecompilePlanner.plan(DecompilePlannerTest.CLASSES, 16, 32 * 1024, "host", 8, null, false);
+        assertEquals(4, plan.shards());
+        assertEquals(4, plan.shardThreads());
+        assertTrue(plan.peakMegabytes() <= 32 * 1024, () -> "Plan exceeds available memory: " + plan);
+
+        final DecompilePlan limited = DecompilePlanner.plan(DecompilePlannerTest.CLASSES, 16, 32 * 1024, "host", 2, null, false);
+        assertEquals(2, limited.shards());
+    }
+
+    @Test
+    void testRequestedShardsAreRespected() {
+        final DecompilePlan plan = DecompilePlanner.plan(DecompilePlannerTest.CLASSES, 2, 64 * 1024, "host", 8, 3, false);
+        assertEquals(3, plan.shards());
+        assertEquals(1, plan.shardThreads());
+    }
+
+    @Test
+    void testStableHeapIgnoresAvailableMemory() {
+        final DecompilePlan roomy = DecompilePlanner.plan(DecompilePlannerTest.CLASSES, 16, 32 * 1024, "host", 8, null, true);
+        final DecompilePlan tight = DecompilePlanner.plan(DecompilePlannerTest.CLASSES, 4, 3 * 1024, "cgroup", 8, null, true);
+        assertEquals(1, roomy.shards());
+        assertEquals(roomy.heapMegabytes(), tight.heapMegabytes());
+        assertEquals(0, roomy.heapMegabytes() % 1024);
+        assertTrue(roomy.heapMegabytes() >= DecompilePlanner.heapFor(DecompilePlannerTest.CLASSES, 1));
+    }
+
+    @Test
+    void testReadCgroupV2Limits() throws IOException {
+        this.write("memory.max", "8589934592\n");
+        this.write("cpu.max", "150000 100000\n");
+        assertEquals(8589934592L, DecompilePlanner.Limits.memoryLimit(this.tempDir));
+        assertEquals(1.5, DecompilePlanner.Limits.cpuLimit(this.tempDir), 0.001);
+
+        this.write("memory.max", "max\n");
+        this.write("cpu.max", "max 100000\n");
+        assertEquals(-1, DecompilePlanner.Limits.memoryLimit(this.tempDir));
+        assertEquals(-1, DecompilePlanner.Limits.cpuLimit(this.tempDir), 0.001);
+    }
+
+    @Test
+    void testReadCgroupV1Limits() throws IOException {
+        this.write("memory/memory.limit_in_bytes", "4294967296\n");
+        this.write("cpu/cpu.cfs_quota_us", "200000\n");
+        this.write("cpu/cpu.cfs_period_us", "100000\n");
+        assertEquals(4294967296L, DecompilePlanner.Limits.memoryLimit(this.tempDir));
+        assertEquals(2, DecompilePlanner.Limits.cpuLimit(this.tempDir), 0.001);
+
+        this.write("memory/memory.limit_in_bytes", "9223372036854771712\n");
+        this.write("cpu/cpu.cfs_quota_us", "-1\n");
+        assertEquals(-1, DecompilePlanner.Limits.memoryLimit(this.tempDir));
+        assertEquals(-1, DecompilePlanner.Limits.cpuLimit(this.tempDir), 0.001);
+    }
+
+    private void write(final String path, final String contents) throws IOException {
+        final Path file = this.tempDir.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
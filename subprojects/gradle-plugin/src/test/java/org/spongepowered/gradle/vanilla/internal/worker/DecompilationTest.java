@@ -0,0 +1,85 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.worker;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class DecompilationTest {
+
+    private @TempDir Path tempDir;
+
+    @Test
+    void testRetainedArchiveReplacedWhenChanged() throws IOException {
+        final Path jar = this.tempDir.resolve("retained.jar");
+        final String external = jar.toAbsolutePath().toString();
+        DecompilationTest.writeJar(jar, "first");
+
+        try (final Decompilation.VanillaGradleBytecodeProvider first = Decompilation.bytecodeFromJar(Collections.singleton(external))) {
+            assertArrayEquals(DecompilationTest.bytes("first"), first.getBytecode(external, "test/A.class"));
+
+            DecompilationTest.writeJar(jar, "second, which is longer");
+            Files.setLastModifiedTime(jar, FileTime.fromMillis(Files.getLastModifiedTime(jar).toMillis() + 10_000));
+
+            try (final Decompilation.VanillaGradleBytecodeProvider second = Decompilation.bytecodeFromJar(Collections.singleton(external))) {
+                assertArrayEquals(DecompilationTest.bytes("second, which is longer"), second.getBytecode(external, "test/A.class"));
+                // a provider keeps reading the archive it opened, even once it has been superseded
+                assertArrayEquals(DecompilationTest.bytes("first"), first.getBytecode(external, "test/A.class"));
+            }
+        }
+
+        try (final Decompilation.VanillaGradleBytecodeProvider third = Decompilation.bytecodeFromJar(Collections.singleton(external))) {
+            assertArrayEquals(DecompilationTest.bytes("second, which is longer"), third.getBytecode(external, "test/A.class"));
+        }
+    }
+
+    private static void writeJar(final Path jar, final String contents) throws IOException {
+        // replaced rather than rewritten in place, as a mapped file must not be truncated
+        final Path tmp = jar.resolveSibling(jar.getFileName() + ".tmp");
+        try (final ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(tmp))) {
+            out.putNextEntry(new ZipEntry("test/A.class"));
+            out.write(DecompilationTest.bytes(contents));
+            out.closeEntry();
+        }
+        Files.move(tmp, jar, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static byte[] bytes(final String contents) {
+        return contents.getBytes(StandardCharsets.UTF_8);
+    }
+
+}
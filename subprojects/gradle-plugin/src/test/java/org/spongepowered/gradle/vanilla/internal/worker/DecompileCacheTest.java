@@ -0,0 +1,118 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.worker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class DecompileCacheTest {
+
+    private static final String GLOBAL_KEY = "test";
+
+    @Test
+    void testGroupOfNestedClasses() {
+        final Set<String> classes = new HashSet<>(Arrays.asList(
+            "a/Outer", "a/Outer$Inner", "a/Outer$Inner$Deep", "a/Outer$1", "a/Dollar$Name", "a/$Proxy", "Top$Level"
+        ));
+        assertEquals("a/Outer", DecompileCache.groupOf("a/Outer", classes));
+        assertEquals("a/Outer", DecompileCache.groupOf("a/Outer$Inner", classes));
+        assertEquals("a/Outer", DecompileCache.groupOf("a/Outer$Inner$Deep", classes));
+        assertEquals("a/Outer", DecompileCache.groupOf("a/Outer$1", classes));
+        // Neither a/Dollar nor Top exist, so these are top-level classes with a $ in their name
+        assertEquals("a/Dollar$Name", DecompileCache.groupOf("a/Dollar$Name", classes));
+        assertEquals("Top$Level", DecompileCache.groupOf("Top$Level", classes));
+        assertEquals("a/$Proxy", DecompileCache.groupOf("a/$Proxy", classes));
+
+        final Map<String, List<String>> groups = DecompileCache.groups(classes);
+        assertEquals(new HashSet<>(Arrays.asList("a/Outer", "a/Dollar$Name", "a/$Proxy", "Top$Level")), groups.keySet());
+        assertEquals(Arrays.asList("a/Outer", "a/Outer$1", "a/Outer$Inner", "a/Outer$Inner$Deep"), groups.get("a/Outer"));
+    }
+
+    @Test
+    void testChangeInvalidatesDependents() {
+        final Map<String, byte[]> classes = new HashMap<>();
+        classes.put("a/Base", DecompileCacheTest.clazz("a/Base", "java/lang/Object"));
+        classes.put("a/Sub", DecompileCacheTest.clazz("a/Sub", "a/Base"));
+        classes.put("a/User", DecompileCacheTest.clazz("a/User", "java/lang/Object", "a/Sub"));
+        classes.put("a/Unrelated", DecompileCacheTest.clazz("a/Unrelated", "java/lang/Object"));
+        final Map<String, String> before = DecompileCache.keys(classes, DecompileCacheTest.GLOBAL_KEY);
+
+        classes.put("a/Base", DecompileCacheTest.clazz("a/Base", "java/lang/Object", "java/lang/String"));
+        final Map<String, String> after = DecompileCache.keys(classes, DecompileCacheTest.GLOBAL_KEY);
+        assertNotEquals(before.get("a/Base"), after.get("a/Base"));
+        assertNotEquals(before.get("a/Sub"), after.get("a/Sub"));
+        // User only refers to Sub, but can use members Sub inherits from Base
+        assertNotEquals(before.get("a/User"), after.get("a/User"));
+        assertEquals(before.get("a/Unrelated"), after.get("a/Unrelated"));
+
+        // Nothing refers to User, so only its own key changes
+        classes.put("a/User", DecompileCacheTest.clazz("a/User", "java/lang/Object", "a/Sub", "java/lang/String"));
+        final Map<String, String> changedUser = DecompileCache.keys(classes, DecompileCacheTest.GLOBAL_KEY);
+        assertNotEquals(after.get("a/User"), changedUser.get("a/User"));
+        assertEquals(after.get("a/Base"), changedUser.get("a/Base"));
+        assertEquals(after.get("a/Sub"), changedUser.get("a/Sub"));
+    }
+
+    @Test
+    void testInnerClassChangeInvalidatesGroup() {
+        final Map<String, byte[]> classes = new HashMap<>();
+        classes.put("a/Outer", DecompileCacheTest.clazz("a/Outer", "java/lang/Object"));
+        classes.put("a/Outer$Inner", DecompileCacheTest.clazz("a/Outer$Inner", "java/lang/Object"));
+        final Map<String, String> before = DecompileCache.keys(classes, DecompileCacheTest.GLOBAL_KEY);
+        assertEquals(1, before.size());
+
+        classes.put("a/Outer$Inner", DecompileCacheTest.clazz("a/Outer$Inner", "java/lang/Object", "java/lang/String"));
+        assertNotEquals(before.get("a/Outer"), DecompileCache.keys(classes, DecompileCacheTest.GLOBAL_KEY).get("a/Outer"));
+    }
+
+    @Test
+    void testGlobalKeyInvalidatesEverything() {
+        final Map<String, byte[]> classes = new HashMap<>();
+        classes.put("a/Base", DecompileCacheTest.clazz("a/Base", "java/lang/Object"));
+        assertNotEquals(DecompileCache.keys(classes, "one").get("a/Base"), DecompileCache.keys(classes, "two").get("a/Base"));
+    }
+
+    private static byte[] clazz(final String name, final String superName, final String... fieldTypes) {
+        final ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, superName, null);
+        for (int i = 0; i < fieldTypes.length; i++) {
+            writer.visitField(Opcodes.ACC_PUBLIC, "field" + i, "L" + fieldTypes[i] + ";", null, null).visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+}
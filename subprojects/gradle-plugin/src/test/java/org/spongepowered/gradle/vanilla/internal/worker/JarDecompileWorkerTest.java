@@ -0,0 +1,105 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.worker;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class JarDecompileWorkerTest {
+
+    private static final int SHARDS = 3;
+
+    private @TempDir Path tempDir;
+
+    @Test
+    void testShardsCoverEveryGroupOnce() throws IOException {
+        final JarDecompileWorker.JarContents contents = this.contents(20);
+        final Set<String> groups = DecompileCache.groups(contents.classes.keySet()).keySet();
+
+        final Set<String> seen = new HashSet<>();
+        for (int shard = 0; shard < JarDecompileWorkerTest.SHARDS; shard++) {
+            for (final String group : JarDecompileWorker.shard(contents, groups, shard, JarDecompileWorkerTest.SHARDS)) {
+                assertTrue(seen.add(group), () -> group + " was assigned to more than one shard");
+            }
+        }
+        assertEquals(groups, seen);
+    }
+
+    @Test
+    void testInnerClassesStayWithTheirGroup() throws IOException {
+        final JarDecompileWorker.JarContents contents = this.contents(20);
+        final Set<String> groups = DecompileCache.groups(contents.classes.keySet()).keySet();
+        for (int shard = 0; shard < JarDecompileWorkerTest.SHARDS; shard++) {
+            final Set<String> assigned = JarDecompileWorker.shard(contents, groups, shard, JarDecompileWorkerTest.SHARDS);
+            for (final String group : assigned) {
+                assertFalse(group.contains("$"), () -> group + " was assigned separately from its outer class");
+            }
+        }
+    }
+
+    @Test
+    void testSingleShardIsACopy() throws IOException {
+        final JarDecompileWorker.JarContents contents = this.contents(3);
+        final Set<String> groups = new HashSet<>(Arrays.asList("a/C0", "a/C1"));
+        final Set<String> assigned = JarDecompileWorker.shard(contents, groups, 0, 1);
+        assertEquals(groups, assigned);
+
+        // callers filter the result, which must not affect the groups passed in
+        assigned.clear();
+        assertEquals(2, groups.size());
+    }
+
+    private JarDecompileWorker.JarContents contents(final int classes) throws IOException {
+        final Path jar = this.tempDir.resolve("classes.jar");
+        try (final ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            for (int i = 0; i < classes; i++) {
+                // Class contents are never parsed when sharding, only their sizes matter
+                out.putNextEntry(new ZipEntry("a/C" + i + ".class"));
+                out.write(new byte[(i * 37) % 500 + 1]);
+                out.closeEntry();
+                if (i % 4 == 0) {
+                    out.putNextEntry(new ZipEntry("a/C" + i + "$Inner.class"));
+                    out.write(new byte[100]);
+                    out.closeEntry();
+                }
+            }
+        }
+        return JarDecompileWorker.JarContents.read(jar);
+    }
+
+}
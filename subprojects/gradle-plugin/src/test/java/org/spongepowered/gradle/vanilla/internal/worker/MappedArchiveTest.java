@@ -0,0 +1,109 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.worker;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class MappedArchiveTest {
+
+    private @TempDir Path tempDir;
+
+    @Test
+    void testReadEntries() throws IOException {
+        final byte[] compressible = new byte[64 * 1024];
+        for (int i = 0; i < compressible.length; i++) {
+            compressible[i] = (byte) (i % 7);
+        }
+        final byte[] random = new byte[4096];
+        new Random(42).nextBytes(random);
+        final byte[] stored = "stored entry".getBytes(StandardCharsets.UTF_8);
+
+        final Path jar = this.tempDir.resolve("test.jar");
+        try (final ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            out.setComment("a trailing comment");
+            out.putNextEntry(new ZipEntry("test/Compressible.class"));
+            out.write(compressible);
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("test/Random.class"));
+            out.write(random);
+            out.closeEntry();
+
+            final ZipEntry storedEntry = new ZipEntry("test/stored.txt");
+            final CRC32 crc = new CRC32();
+            crc.update(stored);
+            storedEntry.setMethod(ZipEntry.STORED);
+            storedEntry.setSize(stored.length);
+            storedEntry.setCrc(crc.getValue());
+            out.putNextEntry(storedEntry);
+            out.write(stored);
+            out.closeEntry();
+        }
+
+        final BytecodeCache cache = new BytecodeCache(1024 * 1024);
+        try (final MappedArchive archive = MappedArchive.open(jar, cache)) {
+            assertArrayEquals(compressible, archive.read("test/Compressible.class"));
+            assertArrayEquals(random, archive.read("test/Random.class"));
+            assertArrayEquals(stored, archive.read("test/stored.txt"));
+            assertNull(archive.read("test/Missing.class"));
+
+            // served from the cache the second time
+            assertArrayEquals(compressible, archive.read("test/Compressible.class"));
+        }
+    }
+
+    @Test
+    void testReadZip64Entries() throws IOException {
+        // more entries than the end of central directory record can count
+        final int count = 70_000;
+        final Path jar = this.tempDir.resolve("many.jar");
+        try (final ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            for (int i = 0; i < count; i++) {
+                out.putNextEntry(new ZipEntry("test/Entry" + i + ".class"));
+                out.write(Integer.toString(i).getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+
+        try (final MappedArchive archive = MappedArchive.open(jar, new BytecodeCache(1024 * 1024))) {
+            assertArrayEquals("0".getBytes(StandardCharsets.UTF_8), archive.read("test/Entry0.class"));
+            assertArrayEquals(Integer.toString(count - 1).getBytes(StandardCharsets.UTF_8), archive.read("test/Entry" + (count - 1) + ".class"));
+            assertNull(archive.read("test/Entry" + count + ".class"));
+        }
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.repository;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.spongepowered.gradle.vanilla.internal.repository.DecompiledSourcesStore;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class DecompiledSourcesStoreTest {
+
+    private static final String FINGERPRINT = "0123456789abcdef0123456789abcdef01234567";
+
+    private @TempDir Path tempDir;
+
+    @Test
+    void testStoreAndRetrieve() throws IOException {
+        final DecompiledSourcesStore store = new DecompiledSourcesStore(this.tempDir.resolve("store"));
+        final Path sources = this.write("first/sources.jar", "sources");
+        final Path lineMapped = this.write("first/linemapped.jar", "line-mapped");
+
+        final Path retrievedSources = this.tempDir.resolve("second/sources.jar");
+        final Path retrievedLineMapped = this.tempDir.resolve("second/linemapped.jar");
+        try (final DecompiledSourcesStore.Lock lock = store.lock(DecompiledSourcesStoreTest.FINGERPRINT)) {
+            assertFalse(store.retrieve(DecompiledSourcesStoreTest.FINGERPRINT, retrievedSources, retrievedLineMapped));
+            store.store(DecompiledSourcesStoreTest.FINGERPRINT, sources, lineMapped);
+        }
+
+        // the lock can be taken again once released
+        try (final DecompiledSourcesStore.Lock lock = store.lock(DecompiledSourcesStoreTest.FINGERPRINT)) {
+            assertTrue(store.retrieve(DecompiledSourcesStoreTest.FINGERPRINT, retrievedSources, retrievedLineMapped));
+        }
+        assertArrayEquals(Files.readAllBytes(sources), Files.readAllBytes(retrievedSources));
+        assertArrayEquals(Files.readAllBytes(lineMapped), Files.readAllBytes(retrievedLineMapped));
+
+        // replacing an entry keeps it readable
+        store.store(DecompiledSourcesStoreTest.FINGERPRINT, this.write("third/sources.jar", "new sources"), lineMapped);
+        assertTrue(store.retrieve(DecompiledSourcesStoreTest.FINGERPRINT, retrievedSources, retrievedLineMapped));
+        assertArrayEquals("new sources".getBytes(StandardCharsets.UTF_8), Files.readAllBytes(retrievedSources));
+    }
+
+    private Path write(final String path, final String contents) throws IOException {
+        final Path file = this.tempDir.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.repository;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.spongepowered.gradle.vanilla.internal.model.VersionDescriptor;
+import org.spongepowered.gradle.vanilla.resolver.ResolutionResult;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class MinecraftResolverImplTest {
+
+    private @TempDir Path tempDir;
+
+    @Test
+    void testAssociatedArtifactActionRunsOnRequestingThread() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            final MinecraftResolverImpl resolver = new MinecraftResolverImpl(null, null, this.tempDir, executor, null, null, null, false);
+            final VersionDescriptor.Full metadata = (VersionDescriptor.Full) Proxy.newProxyInstance(
+                MinecraftResolverImplTest.class.getClassLoader(),
+                new Class<?>[] {VersionDescriptor.Full.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("id")) {
+                        return "1.0";
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            );
+            final Path jar = Files.createFile(this.tempDir.resolve("joined-1.0.jar"));
+
+            final CompletableFuture<ResolutionResult<MinecraftResolver.MinecraftEnvironment>> environment = new CompletableFuture<>();
+
+            final Thread requester = Thread.currentThread();
+            final AtomicReference<Thread> actionThread = new AtomicReference<>();
+            final CompletableFuture<ResolutionResult<Path>> result = resolver.produceAssociatedArtifact(
+                MinecraftResolverImpl.EnvironmentKey.of(MinecraftPlatform.JOINED, "1.0", "joined-sources"),
+                environment,
+                "sources",
+                Collections.emptySet(),
+                (env, output) -> {
+                    actionThread.set(Thread.currentThread());
+                    return CompletableFuture.runAsync(() -> {
+                        try {
+                            Files.write(output, new byte[0]);
+                        } catch (final Exception ex) {
+                            throw new IllegalStateException(ex);
+                        }
+                    }, executor);
+                }
+            );
+            assertFalse(result.isDone());
+
+            // the environment becomes available on one of the resolver's threads, but the action must come back to ours
+            executor.execute(() -> environment.complete(
+                ResolutionResult.result(new MinecraftResolverImpl.MinecraftEnvironmentImpl("joined", jar, Collections::emptySet, metadata), false)
+            ));
+
+            final ResolutionResult<Path> produced = resolver.processSyncTasksUntilComplete(result);
+            assertSame(requester, actionThread.get());
+            assertFalse(produced.upToDate());
+            assertTrue(Files.isRegularFile(produced.get()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,211 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.repository.modifier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import net.minecraftforge.fart.api.Transformer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.spongepowered.gradle.vanilla.internal.repository.modifier.ArtifactModifier;
+import org.spongepowered.gradle.vanilla.internal.repository.modifier.IncrementalModification;
+import org.spongepowered.gradle.vanilla.repository.MinecraftResolverImpl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class IncrementalModificationTest {
+
+    private @TempDir Path tempDir;
+    private ExecutorService executor;
+    private Path input;
+    private Path pointer;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.executor = Executors.newFixedThreadPool(4);
+        this.input = this.tempDir.resolve("input.jar");
+        this.pointer = this.tempDir.resolve("latest");
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("a/A.class", "A".getBytes(StandardCharsets.UTF_8));
+        entries.put("a/B.class", "B".getBytes(StandardCharsets.UTF_8));
+        entries.put("a/resource.txt", "resource".getBytes(StandardCharsets.UTF_8));
+        IncrementalModificationTest.writeJar(this.input, entries);
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    void testReusesOriginalOfReplacedJar() throws IOException {
+        final Path previous = this.tempDir.resolve("output-a.jar");
+        final MarkingProvider previousProvider = new MarkingProvider("a/A");
+        this.transformFully(previousProvider, previous);
+        IncrementalModification.record(previousProvider, this.input, this.pointer, previous);
+
+        // installing sources keeps the produced jar aside and replaces it with a different one
+        Files.copy(previous, MinecraftResolverImpl.originalJar(previous), StandardCopyOption.COPY_ATTRIBUTES);
+        IncrementalModificationTest.writeJar(previous, Collections.singletonMap("a/A.class", "line-mapped".getBytes(StandardCharsets.UTF_8)));
+
+        final Path output = this.tempDir.resolve("output-ab.jar");
+        final MarkingProvider provider = new MarkingProvider("a/A", "a/B");
+        assertTrue(IncrementalModification.tryApply(provider, this.input, this.pointer, output, this.executor));
+
+        final Path expected = this.tempDir.resolve("expected.jar");
+        this.transformFully(provider, expected);
+        IncrementalModificationTest.assertSameEntries(expected, output);
+    }
+
+    @Test
+    void testChangedPreviousJarFallsBack() throws IOException {
+        final Path previous = this.tempDir.resolve("output-a.jar");
+        final MarkingProvider previousProvider = new MarkingProvider("a/A");
+        this.transformFully(previousProvider, previous);
+        IncrementalModification.record(previousProvider, this.input, this.pointer, previous);
+
+        IncrementalModificationTest.writeJar(previous, Collections.singletonMap("a/A.class", "line-mapped".getBytes(StandardCharsets.UTF_8)));
+
+        final Path output = this.tempDir.resolve("output-ab.jar");
+        assertFalse(IncrementalModification.tryApply(new MarkingProvider("a/A", "a/B"), this.input, this.pointer, output, this.executor));
+        assertFalse(Files.exists(output));
+    }
+
+    private void transformFully(final ArtifactModifier.TransformerProvider provider, final Path output) throws IOException {
+        final Transformer transformer = provider.provide(this.input);
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (final ZipFile jar = new ZipFile(this.input.toFile())) {
+            final Enumeration<? extends ZipEntry> it = jar.entries();
+            while (it.hasMoreElements()) {
+                final ZipEntry entry = it.nextElement();
+                final byte[] data = IncrementalModificationTest.read(jar, entry);
+                entries.put(
+                    entry.getName(),
+                    entry.getName().endsWith(".class") ? transformer.process(Transformer.ClassEntry.create(entry.getName(), entry.getTime(), data)).getData() : data
+                );
+            }
+        }
+        IncrementalModificationTest.writeJar(output, entries);
+    }
+
+    private static void writeJar(final Path jar, final Map<String, byte[]> entries) throws IOException {
+        try (final ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static void assertSameEntries(final Path expected, final Path actual) throws IOException {
+        try (final ZipFile expectedJar = new ZipFile(expected.toFile()); final ZipFile actualJar = new ZipFile(actual.toFile())) {
+            assertEquals(expectedJar.size(), actualJar.size());
+            final Enumeration<? extends ZipEntry> it = expectedJar.entries();
+            while (it.hasMoreElements()) {
+                final ZipEntry entry = it.nextElement();
+                assertArrayEquals(
+                    IncrementalModificationTest.read(expectedJar, entry),
+                    IncrementalModificationTest.read(actualJar, actualJar.getEntry(entry.getName())),
+                    entry.getName()
+                );
+            }
+        }
+    }
+
+    private static byte[] read(final ZipFile jar, final ZipEntry entry) throws IOException {
+        try (final InputStream is = jar.getInputStream(entry)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Appends a marker to every class named in its state, so only those
+     * classes are affected by a change.
+     */
+    static final class MarkingProvider implements ArtifactModifier.IncrementalTransformerProvider {
+        private final Set<String> marked;
+
+        MarkingProvider(final String... marked) {
+            this.marked = new HashSet<>(Arrays.asList(marked));
+        }
+
+        @Override
+        public Set<String> stateEntries() {
+            return this.marked;
+        }
+
+        @Override
+        public Set<String> affectedClasses(final Path inputJar, final Set<String> changedEntries) {
+            return changedEntries;
+        }
+
+        @Override
+        public Transformer provide(final Path inputJar) {
+            return new Transformer() {
+                @Override
+                public ClassEntry process(final ClassEntry entry) {
+                    final String name = entry.getName();
+                    if (!MarkingProvider.this.marked.contains(name.substring(0, name.length() - ".class".length()))) {
+                        return entry;
+                    }
+                    final byte[] data = Arrays.copyOf(entry.getData(), entry.getData().length + 1);
+                    data[data.length - 1] = '+';
+                    return ClassEntry.create(name, entry.getTime(), data);
+                }
+            };
+        }
+    }
+
+}
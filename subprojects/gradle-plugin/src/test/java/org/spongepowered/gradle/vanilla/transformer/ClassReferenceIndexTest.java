@@ -0,0 +1,136 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.transformer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.spongepowered.gradle.vanilla.internal.transformer.ClassReferenceIndex;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ClassReferenceIndexTest {
+
+    private static final String OUTER = "test/Outer";
+    private static final String INNER = "test/Outer$Inner";
+    private static final String USER = "test/User";
+
+    private @TempDir Path tempDir;
+
+    @Test
+    void testBuildFromClassAttributes() throws IOException {
+        final Path jar = this.tempDir.resolve("test.jar");
+        ClassReferenceIndexTest.writeJar(jar, false);
+
+        final Map<String, Set<String>> expected = new HashMap<>();
+        expected.put(ClassReferenceIndexTest.OUTER, ClassReferenceIndexTest.set(ClassReferenceIndexTest.INNER, ClassReferenceIndexTest.USER));
+        expected.put(ClassReferenceIndexTest.INNER, ClassReferenceIndexTest.set(ClassReferenceIndexTest.OUTER, ClassReferenceIndexTest.USER));
+        assertEquals(expected, ClassReferenceIndex.forJar(jar));
+    }
+
+    @Test
+    void testReadStoredIndex() throws IOException {
+        final Path jar = this.tempDir.resolve("test.jar");
+        ClassReferenceIndexTest.writeJar(jar, false);
+        final Map<String, Set<String>> built = ClassReferenceIndex.forJar(jar);
+
+        // Same size and modification time, but no longer a jar, so the index can only come from the stored copy
+        final FileTime lastModified = Files.getLastModifiedTime(jar);
+        Files.write(jar, new byte[(int) Files.size(jar)]);
+        Files.setLastModifiedTime(jar, lastModified);
+
+        assertEquals(built, ClassReferenceIndex.forJar(jar));
+    }
+
+    @Test
+    void testRebuildWhenJarChanges() throws IOException {
+        final Path jar = this.tempDir.resolve("test.jar");
+        ClassReferenceIndexTest.writeJar(jar, false);
+        final FileTime lastModified = Files.getLastModifiedTime(jar);
+        ClassReferenceIndex.forJar(jar);
+
+        ClassReferenceIndexTest.writeJar(jar, true);
+        Files.setLastModifiedTime(jar, FileTime.fromMillis(lastModified.toMillis() + 10_000));
+
+        assertEquals(
+            ClassReferenceIndexTest.set(ClassReferenceIndexTest.OUTER),
+            ClassReferenceIndex.forJar(jar).get(ClassReferenceIndexTest.OUTER + "$Second")
+        );
+    }
+
+    /**
+     * Write a jar with a nest of {@code Outer} and {@code Outer$Inner}, and
+     * a {@code User} that only refers to the inner class.
+     */
+    private static void writeJar(final Path jar, final boolean secondMember) throws IOException {
+        try (final ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            ClassReferenceIndexTest.writeClass(out, ClassReferenceIndexTest.OUTER, cw -> {
+                cw.visitNestMember(ClassReferenceIndexTest.INNER);
+                if (secondMember) {
+                    cw.visitNestMember(ClassReferenceIndexTest.OUTER + "$Second");
+                }
+                cw.visitInnerClass(ClassReferenceIndexTest.INNER, ClassReferenceIndexTest.OUTER, "Inner", Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC);
+            });
+            ClassReferenceIndexTest.writeClass(out, ClassReferenceIndexTest.INNER, cw -> {
+                cw.visitNestHost(ClassReferenceIndexTest.OUTER);
+                cw.visitInnerClass(ClassReferenceIndexTest.INNER, ClassReferenceIndexTest.OUTER, "Inner", Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC);
+            });
+            ClassReferenceIndexTest.writeClass(out, ClassReferenceIndexTest.USER, cw ->
+                cw.visitInnerClass(ClassReferenceIndexTest.INNER, ClassReferenceIndexTest.OUTER, "Inner", Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC)
+            );
+            out.putNextEntry(new ZipEntry("test/resource.txt"));
+            out.closeEntry();
+        }
+    }
+
+    private static void writeClass(final ZipOutputStream out, final String name, final Consumer<ClassWriter> attributes) throws IOException {
+        final ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V11, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        attributes.accept(cw);
+        cw.visitEnd();
+        out.putNextEntry(new ZipEntry(name + ".class"));
+        out.write(cw.toByteArray());
+        out.closeEntry();
+    }
+
+    private static Set<String> set(final String... values) {
+        return new HashSet<>(Arrays.asList(values));
+    }
+
+}
@@ -0,0 +1,232 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.worker;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.spongepowered.gradle.vanilla.internal.worker.JarMerger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class JarMergerTest {
+
+    private static final String ONLY_IN = "Lnet/minecraftforge/api/distmarker/OnlyIn;";
+
+    private @TempDir Path tempDir;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        this.executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    void testMergeJars() throws IOException {
+        final byte[] shared = JarMergerTest.clazz("test/Shared", "common");
+        final Map<String, byte[]> client = new LinkedHashMap<>();
+        client.put("test/Shared.class", shared);
+        client.put("test/ClientOnly.class", JarMergerTest.clazz("test/ClientOnly", "common"));
+        client.put("test/Split.class", JarMergerTest.clazz("test/Split", "common", "render"));
+        client.put("assets/lang.json", "{}".getBytes(StandardCharsets.UTF_8));
+
+        final Map<String, byte[]> server = new LinkedHashMap<>();
+        server.put("test/Shared.class", shared);
+        server.put("test/Split.class", JarMergerTest.clazz("test/Split", "common", "tick"));
+        server.put("test/ServerOnly.class", JarMergerTest.clazz("test/ServerOnly", "common"));
+
+        final Path merged = this.tempDir.resolve("merged.jar");
+        JarMerger.execute(this.jar("client.jar", client), this.jar("server.jar", server), merged, this.executor);
+
+        try (final ZipFile output = new ZipFile(merged.toFile())) {
+            // identical classes pass straight through
+            assertArrayEquals(shared, JarMergerTest.read(output, "test/Shared.class"));
+            assertNotNull(output.getEntry("assets/lang.json"));
+
+            assertEquals("CLIENT", JarMergerTest.side(JarMergerTest.node(output, "test/ClientOnly.class").visibleAnnotations));
+            assertEquals("DEDICATED_SERVER", JarMergerTest.side(JarMergerTest.node(output, "test/ServerOnly.class").visibleAnnotations));
+
+            final ClassNode split = JarMergerTest.node(output, "test/Split.class");
+            assertNull(split.visibleAnnotations);
+            final Map<String, MethodNode> methods = new LinkedHashMap<>();
+            for (final MethodNode method : split.methods) {
+                methods.put(method.name, method);
+            }
+            assertNull(JarMergerTest.side(methods.get("common").visibleAnnotations));
+            assertEquals("CLIENT", JarMergerTest.side(methods.get("render").visibleAnnotations));
+            assertEquals("DEDICATED_SERVER", JarMergerTest.side(methods.get("tick").visibleAnnotations));
+        }
+    }
+
+    @Test
+    void testGeneratedMarkersAreLoadable() throws Exception {
+        final Map<String, byte[]> client = new LinkedHashMap<>();
+        client.put("test/ClientOnly.class", JarMergerTest.clazz("test/ClientOnly", "common"));
+        final Path merged = this.tempDir.resolve("merged.jar");
+        JarMerger.execute(this.jar("client.jar", client), this.jar("server.jar", new LinkedHashMap<>()), merged, this.executor);
+
+        try (final ZipFile output = new ZipFile(merged.toFile())) {
+            final Map<String, byte[]> markers = new LinkedHashMap<>();
+            for (final String name : new String[] {"Dist", "OnlyIn", "OnlyIns"}) {
+                final String path = "net/minecraftforge/api/distmarker/" + name;
+                markers.put(path.replace('/', '.'), JarMergerTest.read(output, path + ".class"));
+            }
+
+            final ClassLoader loader = new ClassLoader(JarMergerTest.class.getClassLoader()) {
+                @Override
+                protected Class<?> findClass(final String name) throws ClassNotFoundException {
+                    final byte[] data = markers.get(name);
+                    if (data == null) {
+                        throw new ClassNotFoundException(name);
+                    }
+                    return this.defineClass(name, data, 0, data.length);
+                }
+            };
+
+            final Class<?> dist = loader.loadClass("net.minecraftforge.api.distmarker.Dist");
+            assertTrue(dist.isEnum());
+            final Object[] constants = dist.getEnumConstants();
+            assertEquals(2, constants.length);
+            final Method isClient = dist.getMethod("isClient");
+            assertEquals(true, isClient.invoke(constants[0]));
+            assertEquals(false, isClient.invoke(constants[1]));
+            assertTrue(loader.loadClass("net.minecraftforge.api.distmarker.OnlyIn").isAnnotation());
+            assertTrue(loader.loadClass("net.minecraftforge.api.distmarker.OnlyIns").isAnnotation());
+        }
+    }
+
+    @Test
+    void testMergeIsReproducible() throws IOException {
+        final Map<String, byte[]> client = new LinkedHashMap<>();
+        client.put("test/Split.class", JarMergerTest.clazz("test/Split", "common", "render"));
+        client.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n".getBytes(StandardCharsets.UTF_8));
+        final Map<String, byte[]> server = new LinkedHashMap<>();
+        server.put("test/Split.class", JarMergerTest.clazz("test/Split", "common", "tick"));
+
+        final Path clientJar = this.jar("client.jar", client);
+        final Path serverJar = this.jar("server.jar", server);
+        final Path first = this.tempDir.resolve("first.jar");
+        final Path second = this.tempDir.resolve("second.jar");
+        JarMerger.execute(clientJar, serverJar, first, this.executor);
+        JarMerger.execute(clientJar, serverJar, second, this.executor);
+
+        assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+        try (final ZipFile output = new ZipFile(first.toFile())) {
+            assertEquals("META-INF/MANIFEST.MF", output.entries().nextElement().getName());
+        }
+    }
+
+    private Path jar(final String name, final Map<String, byte[]> entries) throws IOException {
+        final Path jar = this.tempDir.resolve(name);
+        try (final ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    private static byte[] clazz(final String name, final String... methods) {
+        final ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        for (final String method : methods) {
+            final MethodVisitor mv = writer.visitMethod(Opcodes.ACC_PUBLIC, method, "()V", null, null);
+            mv.visitCode();
+            mv.visitInsn(Opcodes.RETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static byte[] read(final ZipFile jar, final String name) throws IOException {
+        final ZipEntry entry = jar.getEntry(name);
+        assertNotNull(entry, () -> "Expected entry " + name);
+        try (final InputStream is = jar.getInputStream(entry)) {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buf = new byte[4096];
+            int read;
+            while ((read = is.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static ClassNode node(final ZipFile jar, final String name) throws IOException {
+        final ClassNode node = new ClassNode();
+        new ClassReader(JarMergerTest.read(jar, name)).accept(node, 0);
+        return node;
+    }
+
+    private static String side(final List<AnnotationNode> annotations) {
+        if (annotations == null) {
+            return null;
+        }
+        for (final AnnotationNode annotation : annotations) {
+            if (annotation.desc.equals(JarMergerTest.ONLY_IN)) {
+                return ((String[]) annotation.values.get(1))[1];
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.worker;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.spongepowered.gradle.vanilla.internal.worker.ParallelJarWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+public class ParallelJarWriterTest {
+
+    private @TempDir Path tempDir;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        this.executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    void testEntriesReadableInEveryMode() throws IOException {
+        final Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n".getBytes(StandardCharsets.UTF_8));
+        entries.put("a/", new byte[0]);
+        entries.put("a/b.txt", "hello hello hello hello".getBytes(StandardCharsets.UTF_8));
+        entries.put("a/\u00e9.bin", new byte[100_000]);
+        entries.put("empty", new byte[0]);
+
+        for (final ParallelJarWriter.Compression compression : ParallelJarWriter.Compression.values()) {
+            final Path jar = this.tempDir.resolve(compression.name() + ".jar");
+            try (final ParallelJarWriter writer = new ParallelJarWriter(jar, this.executor, compression)) {
+                for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                    // complete out of order, the writer should still preserve submission order
+                    writer.write(entry.getKey(), CompletableFuture.supplyAsync(entry::getValue, this.executor));
+                }
+                writer.finish();
+            }
+
+            // central directory
+            try (final ZipFile zip = new ZipFile(jar.toFile())) {
+                assertEquals(entries.size(), zip.size());
+                for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                    final ZipEntry zipEntry = zip.getEntry(entry.getKey());
+                    assertNotNull(zipEntry, entry.getKey());
+                    try (final InputStream is = zip.getInputStream(zipEntry)) {
+                        assertArrayEquals(entry.getValue(), ParallelJarWriterTest.readAll(is));
+                    }
+                }
+            }
+
+            // local headers, in order
+            try (final ZipInputStream zis = new ZipInputStream(Files.newInputStream(jar))) {
+                for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                    assertEquals(entry.getKey(), zis.getNextEntry().getName());
+                    assertArrayEquals(entry.getValue(), ParallelJarWriterTest.readAll(zis));
+                }
+                assertNull(zis.getNextEntry());
+            }
+        }
+    }
+
+    @Test
+    void testOutputIsReproducible() throws IOException {
+        final Path first = this.tempDir.resolve("first.jar");
+        final Path second = this.tempDir.resolve("second.jar");
+        for (final Path jar : new Path[] {first, second}) {
+            try (final ParallelJarWriter writer = new ParallelJarWriter(jar, this.executor, ParallelJarWriter.Compression.DEFAULT)) {
+                writer.write("a.txt", "a".getBytes(StandardCharsets.UTF_8));
+                writer.write("b.txt", "b".getBytes(StandardCharsets.UTF_8));
+                writer.finish();
+            }
+        }
+        assertArrayEquals(Files.readAllBytes(first), Files.readAllBytes(second));
+    }
+
+    @Test
+    void testManyEntriesUseZip64() throws IOException {
+        final int count = 70_000; // more than fit in the standard end of central directory
+        final Path jar = this.tempDir.resolve("many.jar");
+        try (final ParallelJarWriter writer = new ParallelJarWriter(jar, this.executor, ParallelJarWriter.Compression.STORED)) {
+            for (int i = 0; i < count; i++) {
+                writer.write("entry" + i, Integer.toString(i).getBytes(StandardCharsets.UTF_8));
+            }
+            writer.finish();
+        }
+
+        try (final ZipFile zip = new ZipFile(jar.toFile())) {
+            assertEquals(count, zip.size());
+            final ZipEntry last = zip.getEntry("entry" + (count - 1));
+            assertNotNull(last);
+            try (final InputStream is = zip.getInputStream(last)) {
+                assertArrayEquals(Integer.toString(count - 1).getBytes(StandardCharsets.UTF_8), ParallelJarWriterTest.readAll(is));
+            }
+        }
+    }
+
+    @Test
+    void testUnfinishedOutputIsDiscarded() throws IOException {
+        final Path jar = this.tempDir.resolve("unfinished.jar");
+        try (final ParallelJarWriter writer = new ParallelJarWriter(jar, this.executor, ParallelJarWriter.Compression.DEFAULT)) {
+            writer.write("a.txt", "a".getBytes(StandardCharsets.UTF_8));
+            // closed without finishing, as if producing the next entry had failed
+        }
+        assertFalse(Files.exists(jar));
+    }
+
+    private static byte[] readAll(final InputStream is) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[4096];
+        int read;
+        while ((read = is.read(buf)) != -1) {
+            out.write(buf, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,358 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.worker;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A jar writer that compresses entries in parallel, then writes them out in
+ * the order they were submitted.
+ *
+ * <p>Every entry is written with the same fixed timestamp and no extra
+ * fields, so the output only depends on entry names, contents, and the
+ * compression mode.</p>
+ *
+ * <p>Zip64 records are only written once a jar has more than 65534 entries
+ * or grows beyond 4 GiB, so smaller jars remain readable by any zip
+ * implementation. Individual entries are held in memory, and so are always
+ * smaller than 2 GiB.</p>
+ *
+ * <p>A jar is only complete once {@link #finish()} has been called. Closing
+ * the writer without finishing, for example because an exception was
+ * thrown while producing entries, discards the partial output rather than
+ * leaving a valid but incomplete jar behind.</p>
+ */
+public final class ParallelJarWriter implements AutoCloseable {
+
+    /**
+     * How entries should be compressed.
+     */
+    public enum Compression {
+        /**
+         * No compression, for intermediate files that are written once and read once.
+         */
+        STORED(Deflater.NO_COMPRESSION),
+        /**
+         * Fast, light compression.
+         */
+        FAST(Deflater.BEST_SPEED),
+        /**
+         * The default deflate level, for published artifacts.
+         */
+        DEFAULT(Deflater.DEFAULT_COMPRESSION);
+
+        final int level;
+
+        Compression(final int level) {
+            this.level = level;
+        }
+    }
+
+    /**
+     * The maximum number of entries buffered per available processor
+     * before the writer waits for the oldest one to complete.
+     */
+    private static final int WINDOW_PER_CPU = 8;
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int FLAG_UTF8 = 0x800;
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int VERSION_ZIP64 = 45;
+    // 1980-02-01 00:00:00, in MS-DOS format
+    private static final int DOS_TIME = 0;
+    private static final int DOS_DATE = (2 << 5) | 1;
+    // Values at or above these are stored in Zip64 records instead
+    private static final int MAX_ENTRIES = 0xFFFF;
+    private static final long MAX_OFFSET = 0xFFFFFFFFL;
+
+    private final Path path;
+    private final OutputStream output;
+    private final Executor executor;
+    private final Compression compression;
+    private final int window;
+    private final Queue<CompletableFuture<Entry>> pending;
+    private final List<Entry> written = new ArrayList<>();
+    private long offset;
+    private boolean finished;
+
+    public ParallelJarWriter(final Path output, final Executor executor, final Compression compression) throws IOException {
+        this.path = output;
+        this.output = new BufferedOutputStream(Files.newOutputStream(output), 64 * 1024);
+        this.executor = executor;
+        this.compression = compression;
+        this.window = Runtime.getRuntime().availableProcessors() * ParallelJarWriter.WINDOW_PER_CPU;
+        this.pending = new ArrayDeque<>(this.window);
+    }
+
+    /**
+     * Add an entry with known contents.
+     *
+     * @param name the entry name
+     * @param data the entry contents
+     * @throws IOException if an error occurs while writing earlier entries
+     */
+    public void write(final String name, final byte[] data) throws IOException {
+        this.write(name, CompletableFuture.completedFuture(data));
+    }
+
+    /**
+     * Add an entry whose contents are still being computed.
+     *
+     * <p>Entries are written in the order they are added, regardless of when
+     * their contents become available.</p>
+     *
+     * @param name the entry name
+     * @param data a future providing the entry contents
+     * @throws IOException if an error occurs while writing earlier entries
+     */
+    public void write(final String name, final CompletableFuture<byte[]> data) throws IOException {
+        this.pending.add(data.thenApplyAsync(contents -> this.compress(name, contents), this.executor));
+        while (this.pending.size() > this.window) {
+            this.writeEntry(this.pending.remove());
+        }
+    }
+
+    /**
+     * Write every remaining entry and the central directory, completing the
+     * jar.
+     *
+     * @throws IOException if an error occurs while writing
+     */
+    public void finish() throws IOException {
+        while (!this.pending.isEmpty()) {
+            this.writeEntry(this.pending.remove());
+        }
+        this.writeCentralDirectory();
+        this.output.flush();
+        this.finished = true;
+    }
+
+    /**
+     * Release the output file, deleting it if the jar was not
+     * {@link #finish() finished}.
+     *
+     * @throws IOException if the output could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            for (final CompletableFuture<Entry> entry : this.pending) {
+                entry.cancel(false);
+            }
+            this.pending.clear();
+            this.output.close();
+        } finally {
+            if (!this.finished) {
+                Files.deleteIfExists(this.path);
+            }
+        }
+    }
+
+    private Entry compress(final String name, final byte[] data) {
+        final CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        final boolean directory = name.endsWith("/");
+        if (directory || this.compression == Compression.STORED) {
+            return new Entry(name, ParallelJarWriter.METHOD_STORED, crc.getValue(), data.length, data);
+        }
+
+        final Deflater deflater = new Deflater(this.compression.level, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(data.length / 2, 64));
+            final byte[] buf = new byte[8192];
+            while (!deflater.finished()) {
+                final int count = deflater.deflate(buf);
+                out.write(buf, 0, count);
+            }
+            return new Entry(name, ParallelJarWriter.METHOD_DEFLATED, crc.getValue(), data.length, out.toByteArray());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private void writeEntry(final CompletableFuture<Entry> future) throws IOException {
+        final Entry entry;
+        try {
+            entry = future.join();
+        } catch (final CompletionException ex) {
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
+            throw ex;
+        }
+
+        entry.offset = this.offset;
+        this.int32(ParallelJarWriter.LOCAL_HEADER);
+        this.int16(entry.method == ParallelJarWriter.METHOD_STORED ? ParallelJarWriter.VERSION_STORED : ParallelJarWriter.VERSION_DEFLATED);
+        this.int16(ParallelJarWriter.FLAG_UTF8);
+        this.int16(entry.method);
+        this.int16(ParallelJarWriter.DOS_TIME);
+        this.int16(ParallelJarWriter.DOS_DATE);
+        this.int32((int) entry.crc);
+        this.int32(entry.data.length);
+        this.int32(entry.size);
+        this.int16(entry.name.length);
+        this.int16(0); // extra length
+        this.bytes(entry.name);
+        this.bytes(entry.data);
+
+        this.written.add(entry);
+        entry.data = null; // no longer needed, only the header is kept for the central directory
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        final long start = this.offset;
+        for (final Entry entry : this.written) {
+            // Sizes always fit, since entries are byte arrays, so only the offset can need an extra field
+            final boolean zip64 = entry.offset >= ParallelJarWriter.MAX_OFFSET;
+            final int version;
+            if (zip64) {
+                version = ParallelJarWriter.VERSION_ZIP64;
+            } else {
+                version = entry.method == ParallelJarWriter.METHOD_STORED ? ParallelJarWriter.VERSION_STORED : ParallelJarWriter.VERSION_DEFLATED;
+            }
+            this.int32(ParallelJarWriter.CENTRAL_HEADER);
+            this.int16(version); // made by
+            this.int16(version); // needed to extract
+            this.int16(ParallelJarWriter.FLAG_UTF8);
+            this.int16(entry.method);
+            this.int16(ParallelJarWriter.DOS_TIME);
+            this.int16(ParallelJarWriter.DOS_DATE);
+            this.int32((int) entry.crc);
+            this.int32((int) entry.compressedSize);
+            this.int32(entry.size);
+            this.int16(entry.name.length);
+            this.int16(zip64 ? 12 : 0); // extra length
+            this.int16(0); // comment length
+            this.int16(0); // disk number
+            this.int16(0); // internal attributes
+            this.int32(0); // external attributes
+            this.int32(zip64 ? (int) ParallelJarWriter.MAX_OFFSET : (int) entry.offset);
+            this.bytes(entry.name);
+            if (zip64) {
+                this.int16(ParallelJarWriter.ZIP64_EXTRA);
+                this.int16(8); // data size
+                this.int64(entry.offset);
+            }
+        }
+        final long size = this.offset - start;
+        final int count = this.written.size();
+        final boolean zip64 = count >= ParallelJarWriter.MAX_ENTRIES || start >= ParallelJarWriter.MAX_OFFSET || size >= ParallelJarWriter.MAX_OFFSET;
+        if (zip64) {
+            final long recordStart = this.offset;
+            this.int32(ParallelJarWriter.ZIP64_END_OF_CENTRAL_DIRECTORY);
+            this.int64(44); // size of the remaining record
+            this.int16(ParallelJarWriter.VERSION_ZIP64); // made by
+            this.int16(ParallelJarWriter.VERSION_ZIP64); // needed to extract
+            this.int32(0); // this disk
+            this.int32(0); // disk with central directory
+            this.int64(count);
+            this.int64(count);
+            this.int64(size);
+            this.int64(start);
+
+            this.int32(ParallelJarWriter.ZIP64_LOCATOR);
+            this.int32(0); // disk with the Zip64 end of central directory
+            this.int64(recordStart);
+            this.int32(1); // total disks
+        }
+
+        this.int32(ParallelJarWriter.END_OF_CENTRAL_DIRECTORY);
+        this.int16(0); // this disk
+        this.int16(0); // disk with central directory
+        this.int16(Math.min(count, ParallelJarWriter.MAX_ENTRIES));
+        this.int16(Math.min(count, ParallelJarWriter.MAX_ENTRIES));
+        this.int32((int) Math.min(size, ParallelJarWriter.MAX_OFFSET));
+        this.int32((int) Math.min(start, ParallelJarWriter.MAX_OFFSET));
+        this.int16(0); // comment length
+    }
+
+    private void int16(final int value) throws IOException {
+        this.output.write(value & 0xFF);
+        this.output.write((value >>> 8) & 0xFF);
+        this.offset += 2;
+    }
+
+    private void int32(final int value) throws IOException {
+        this.int16(value & 0xFFFF);
+        this.int16((value >>> 16) & 0xFFFF);
+    }
+
+    private void int64(final long value) throws IOException {
+        this.int32((int) value);
+        this.int32((int) (value >>> 32));
+    }
+
+    private void bytes(final byte[] data) throws IOException {
+        this.output.write(data);
+        this.offset += data.length;
+    }
+
+    static final class Entry {
+        final byte[] name;
+        final int method;
+        final long crc;
+        final int size;
+        final long compressedSize;
+        byte[] data;
+        long offset;
+
+        Entry(final String name, final int method, final long crc, final int size, final byte[] data) {
+            this.name = name.getBytes(StandardCharsets.UTF_8);
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = data.length;
+            this.data = data;
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * This file is part of VanillaGradle, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) SpongePowered <https://www.spongepowered.org>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.spongepowered.gradle.vanilla.internal.resolver;
+
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.spongepowered.gradle.vanilla.resolver.HashAlgorithm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A cache of file digests, shared across every project in a daemon.
+ *
+ * <p>Digests are keyed on the file's size, modification time, and file key
+ * (an inode, where available), so a file is only read again once one of those
+ * has changed. Files modified very recently are not cached, since a second
+ * change within the timestamp resolution of the file system would not be
+ * noticed.</p>
+ */
+public final class FileFingerprints {
+
+    private static final FileFingerprints SHARED = new FileFingerprints();
+    private static final long RACY_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(2);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ConcurrentMap<Key, Fingerprint> fingerprints = new ConcurrentHashMap<>();
+
+    /**
+     * Get the fingerprint cache shared by the whole daemon.
+     *
+     * @return the shared fingerprints
+     */
+    public static FileFingerprints shared() {
+        return FileFingerprints.SHARED;
+    }
+
+    FileFingerprints() {
+    }
+
+    /**
+     * Get the digest of a file's contents, computing it only if the file
+     * has changed since it was last seen.
+     *
+     * @param file the file to digest
+     * @param algorithm the algorithm to use
+     * @return the digest of the file
+     * @throws IOException if the file could not be read
+     */
+    public byte[] digest(final Path file, final HashAlgorithm algorithm) throws IOException {
+        final Key key = new Key(file.toAbsolutePath().normalize(), algorithm);
+        final BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        final long lastModified = attributes.lastModifiedTime().toMillis();
+        final @Nullable Fingerprint existing = this.fingerprints.get(key);
+        if (existing != null && existing.matches(attributes)) {
+            return existing.digest.clone();
+        }
+
+        final byte[] digest = FileFingerprints.compute(file, algorithm);
+        if (System.currentTimeMillis() - lastModified > FileFingerprints.RACY_WINDOW_MILLIS) {
+            this.fingerprints.put(key, new Fingerprint(attributes.size(), lastModified, attributes.fileKey(), digest));
+        } else {
+            this.fingerprints.remove(key);
+        }
+        return digest.clone();
+    }
+
+    /**
+     * Forget every cached fingerprint.
+     */
+    public void clear() {
+        this.fingerprints.clear();
+    }
+
+    private static byte[] compute(final Path file, final HashAlgorithm algorithm) throws IOException {
+        final MessageDigest digest = algorithm.digest();
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer buf = ByteBuffer.allocate((int) Math.min(channel.size() + 1, FileFingerprints.BUFFER_SIZE));
+            while (channel.read(buf) != -1) {
+                buf.flip();
+                digest.update(buf);
+                buf.clear();
+            }
+        }
+        return digest.digest();
+    }
+
+    static final class Key {
+        private final Path file;
+        private final HashAlgorithm algorithm;
+
+        Key(final Path file, final HashAlgorithm algorithm) {
+            this.file = file;
+            this.algorithm = algorithm;
+        }
+
+        @Override
+        public boolean equals(final @Nullable Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key that = (Key) other;
+            return this.file.equals(that.file) && this.algorithm == that.algorithm;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.file.hashCode() + this.algorithm.hashCode();
+        }
+    }
+
+    static final class Fingerprint {
+        final long size;
+        final long lastModified;
+        final @Nullable Object fileKey;
+        final byte[] digest;
+
+        Fingerprint(final long size, final long lastModified, final @Nullable Object fileKey, final byte[] digest) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fileKey = fileKey;
+            this.digest = digest;
+        }
+
+        boolean matches(final BasicFileAttributes attributes) {
+            return this.size == attributes.size()
+                && this.lastModified == attributes.lastModifiedTime().toMillis()
+                && Objects.equals(this.fileKey, attributes.fileKey());
+        }
+    }
+
+}